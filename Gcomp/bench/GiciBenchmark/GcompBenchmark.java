@@ -0,0 +1,579 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciBenchmark;
+
+import GiciAnalysis.*;
+import GiciFile.*;
+import GiciMask.*;
+import GiciTransform.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Main class of the benchmarks of the Gcomp hot paths. Each benchmark is warmed up (so that the JIT compiler has optimized it) and then measured during some iterations of a fixed time; the time per operation and the throughput are reported for each image size.<br>
+ * Usage example:<br>
+ * &nbsp; ant bench -Dbench.args="-s 8x256x256 -b compare,load"<br>
+ * &nbsp; java -cp buildBench GiciBenchmark.GcompBenchmark -s 16x512x512 -w 2 -i 3<br>
+ * Parameters:<br>
+ * &nbsp; -s sizes to benchmark, as zSizexySizexxSize separated by commas (default 8x256x256,32x512x512)<br>
+ * &nbsp; -b only run the benchmarks whose name contains any of these words, separated by commas (default all)<br>
+ * &nbsp; -w warmup iterations (default 3)<br>
+ * &nbsp; -i measured iterations (default 5)<br>
+ * &nbsp; -t time of each iteration in milliseconds (default 500)<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class GcompBenchmark{
+
+	/**
+	 * Results of the operations are accumulated here, so that the JIT compiler cannot discard them.
+	 */
+	static volatile int sink = 0;
+
+	/**
+	 * A benchmark of one operation over an image size.
+	 */
+	abstract static class Benchmark{
+
+		/**
+		 * Name of the benchmark.
+		 */
+		String name;
+
+		/**
+		 * Bytes processed by each operation (used to report the throughput).
+		 */
+		long bytes = 0;
+
+		Benchmark(String name){
+			this.name = name;
+		}
+
+		/**
+		 * Prepares the data of the benchmark (it is not measured).
+		 */
+		void setUp() throws Exception{
+		}
+
+		/**
+		 * Performs the operation once.
+		 *
+		 * @return the result of the operation
+		 */
+		abstract Object run() throws Exception;
+
+		/**
+		 * Releases the data of the benchmark.
+		 */
+		void tearDown(){
+		}
+	}
+
+	/**
+	 * Main method of the benchmarks.
+	 *
+	 * @param args an array of strings that contains the parameters (see the class description)
+	 */
+	public static void main(String[] args){
+		String sizes = "8x256x256,32x512x512";
+		String[] filters = null;
+		int warmup = 3;
+		int iterations = 5;
+		int iterationMillis = 500;
+
+		try{
+			for(int arg = 0; arg < args.length; arg++){
+				if(args[arg].equals("-s")){
+					sizes = args[++arg];
+				}else if(args[arg].equals("-b")){
+					filters = args[++arg].split(",");
+				}else if(args[arg].equals("-w")){
+					warmup = Integer.parseInt(args[++arg]);
+				}else if(args[arg].equals("-i")){
+					iterations = Integer.parseInt(args[++arg]);
+				}else if(args[arg].equals("-t")){
+					iterationMillis = Integer.parseInt(args[++arg]);
+				}else{
+					throw new IllegalArgumentException("Unrecognized parameter \"" + args[arg] + "\".");
+				}
+			}
+			if(warmup < 0 || iterations <= 0 || iterationMillis <= 0){
+				throw new IllegalArgumentException("Iterations and their time must be positive.");
+			}
+		}catch(RuntimeException e){
+			System.err.println("PARAMETERS ERROR: " + e.getMessage());
+			System.err.println("Usage: GcompBenchmark [-s ZxYxX,...] [-b name,...] [-w warmup] [-i iterations] [-t millis]");
+			System.exit(1);
+		}
+
+		System.out.println(String.format("%-40s %-14s %12s %12s %10s", "Benchmark", "Size", "ms/op (avg)", "ms/op (min)", "MB/s"));
+		for(String size: sizes.split(",")){
+			String[] dimensions = size.split("x");
+			int zSize = Integer.parseInt(dimensions[0]);
+			int ySize = Integer.parseInt(dimensions[1]);
+			int xSize = Integer.parseInt(dimensions[2]);
+
+			for(Benchmark benchmark: getBenchmarks(zSize, ySize, xSize)){
+				if(matches(benchmark.name, filters)){
+					try{
+						measure(benchmark, size, warmup, iterations, iterationMillis);
+					}catch(Exception e){
+						System.out.println(String.format("%-40s %-14s failed: %s", benchmark.name, size, e.getMessage()));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param name name of a benchmark
+	 * @param filters words that the name has to contain (null to accept all the benchmarks)
+	 * @return true if the benchmark has to be run
+	 */
+	private static boolean matches(String name, String[] filters){
+		if(filters == null){
+			return(true);
+		}
+		for(String filter: filters){
+			if(name.contains(filter)){
+				return(true);
+			}
+		}
+		return(false);
+	}
+
+	/**
+	 * Runs a benchmark and prints its results.
+	 *
+	 * @param benchmark the benchmark
+	 * @param size description of the image size
+	 * @param warmup warmup iterations
+	 * @param iterations measured iterations
+	 * @param iterationMillis time of each iteration in milliseconds
+	 */
+	private static void measure(Benchmark benchmark, String size, int warmup, int iterations, int iterationMillis) throws Exception{
+		benchmark.setUp();
+		try{
+			double total = 0;
+			double best = Double.MAX_VALUE;
+			for(int iteration = -warmup; iteration < iterations; iteration++){
+				long operations = 0;
+				long begin = System.nanoTime();
+				long elapsed;
+				do{
+					sink += System.identityHashCode(benchmark.run());
+					operations++;
+					elapsed = System.nanoTime() - begin;
+				}while(elapsed < iterationMillis * 1000000L);
+
+				double millisPerOperation = elapsed / 1e6 / operations;
+				if(iteration >= 0){
+					total += millisPerOperation;
+					best = Math.min(best, millisPerOperation);
+				}
+			}
+			double average = total / iterations;
+			String throughput = benchmark.bytes > 0 ? String.format("%10.1f", benchmark.bytes / 1e6 / (best / 1e3)) : String.format("%10s", "-");
+			System.out.println(String.format("%-40s %-14s %12.3f %12.3f %s", benchmark.name, size, average, best, throughput));
+		}finally{
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Creates all the benchmarks for an image size.
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @return the benchmarks
+	 */
+	private static List<Benchmark> getBenchmarks(final int zSize, final int ySize, final int xSize){
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		final long samples = (long) zSize * ySize * xSize;
+
+		//LoadFile.rawLoad for each sample type and byte order
+		for(int type = 0; type <= 7; type++){
+		for(int byteOrder = 0; byteOrder <= 1; byteOrder++){
+			final int sampleType = type;
+			final int order = byteOrder;
+			benchmarks.add(new Benchmark("load.raw." + LoadFile.getClass(type).getName() + (order == 0 ? ".be" : ".le")){
+				File file;
+				void setUp() throws Exception{
+					file = File.createTempFile("gcompBenchmark", ".raw");
+					SaveFile.SaveFileRaw(SyntheticImage.generate(zSize, ySize, xSize, sampleType, 1), file.getPath(), sampleType, order);
+					bytes = file.length();
+				}
+				Object run() throws Exception{
+					return(new LoadFile(file.getPath(), zSize, ySize, xSize, sampleType, order, false).getTypedImage());
+				}
+				void tearDown(){
+					file.delete();
+				}
+			});
+		}}
+
+		//LoadFile.rawLoad of a gzip file, with and without reading ahead while the rows are converted
+		for(int depth: new int[]{ReadAheadInputStream.DEFAULT_DEPTH, 0}){
+			final int readAheadDepth = depth;
+			benchmarks.add(new Benchmark("load.raw.gz.float" + (depth == 0 ? ".noReadAhead" : "")){
+				File file;
+				String previousDepth;
+				void setUp() throws Exception{
+					File raw = File.createTempFile("gcompBenchmark", ".raw");
+					SaveFile.SaveFileRaw(SyntheticImage.generate(zSize, ySize, xSize, 6, 1), raw.getPath(), 6, 0);
+					file = File.createTempFile("gcompBenchmark", ".raw.gz");
+					InputStream in = new FileInputStream(raw);
+					OutputStream out = new GZIPOutputStream(new FileOutputStream(file), 1024*1024);
+					try{
+						byte[] buffer = new byte[1024*1024];
+						for(int read = in.read(buffer); read >= 0; read = in.read(buffer)){
+							out.write(buffer, 0, read);
+						}
+					}finally{
+						in.close();
+						out.close();
+						raw.delete();
+					}
+					bytes = samples * 4;
+					previousDepth = System.setProperty("GiciFile.readAheadDepth", String.valueOf(readAheadDepth));
+				}
+				Object run() throws Exception{
+					return(new LoadFile(file.getPath(), zSize, ySize, xSize, 6, 0, false).getTypedImage());
+				}
+				void tearDown(){
+					if(previousDepth == null){
+						System.clearProperty("GiciFile.readAheadDepth");
+					}else{
+						System.setProperty("GiciFile.readAheadDepth", previousDepth);
+					}
+					file.delete();
+				}
+			});
+		}
+
+		//SaveFile.SaveFileRaw to a chunked compressed raw file (compressed in parallel)
+		benchmarks.add(new Benchmark("save.rawz.float"){
+			TypedImage image;
+			File file;
+			void setUp() throws Exception{
+				file = File.createTempFile("gcompBenchmark", ".rawz");
+				File raw = File.createTempFile("gcompBenchmark", ".raw");
+				SaveFile.SaveFileRaw(SyntheticImage.generate(zSize, ySize, xSize, 6, 1), raw.getPath(), 6, 0);
+				image = new LoadFile(raw.getPath(), zSize, ySize, xSize, 6, 0, false).getTypedImage();
+				raw.delete();
+				bytes = samples * 4;
+			}
+			Object run() throws Exception{
+				SaveFile.SaveFileRaw(image, file.getPath(), 6, 0);
+				return(file);
+			}
+			void tearDown(){
+				file.delete();
+			}
+		});
+
+		//LoadFile from a chunked compressed raw file (inflated in parallel), whole image or only its last component
+		for(int first: new int[]{0, zSize - 1}){
+			final int zBegin = first;
+			benchmarks.add(new Benchmark("load.rawz.float" + (zBegin == 0 ? "" : ".lastComponent")){
+				File file;
+				void setUp() throws Exception{
+					file = File.createTempFile("gcompBenchmark", ".rawz");
+					SaveFile.SaveFileRaw(SyntheticImage.generate(zSize, ySize, xSize, 6, 1), file.getPath(), 6, 0);
+					bytes = (long) (zSize - zBegin) * ySize * xSize * 4;
+				}
+				Object run() throws Exception{
+					return(new LoadFile(file.getPath(), zSize - zBegin, ySize, xSize, 6, 0, false, zBegin).getTypedImage());
+				}
+				void tearDown(){
+					file.delete();
+				}
+			});
+		}
+
+		//LoadFile.rawLoad of every other component, or of the centre of every component
+		for(int subset = 0; subset <= 1; subset++){
+			final int[] bands = subset == 0 ? new int[(zSize + 1) / 2] : null;
+			final int[] window = subset == 0 ? null : new int[]{xSize / 4, ySize / 4, xSize / 2, ySize / 2};
+			if(bands != null){
+				for(int z = 0; z < bands.length; z++){
+					bands[z] = 2 * z;
+				}
+			}
+			benchmarks.add(new Benchmark("load.raw.float." + (subset == 0 ? "everyOtherComponent" : "window")){
+				File file;
+				void setUp() throws Exception{
+					file = File.createTempFile("gcompBenchmark", ".raw");
+					SaveFile.SaveFileRaw(SyntheticImage.generate(zSize, ySize, xSize, 6, 1), file.getPath(), 6, 0);
+					bytes = bands != null ? (long) bands.length * ySize * xSize * 4 : (long) zSize * window[2] * window[3] * 4;
+				}
+				Object run() throws Exception{
+					return(new LoadFile(file.getPath(), zSize, ySize, xSize, 6, 0, false, bands, window).getTypedImage());
+				}
+				void tearDown(){
+					file.delete();
+				}
+			});
+		}
+
+		//Interleaved raw files: LoadFile.rawLoad (transposed to components) and SaveFile.SaveFileRaw
+		//(transposed from components)
+		for(int interleaved: new int[]{RawImageReader.BIL, RawImageReader.BIP}){
+			final int layout = interleaved;
+			final String name = layout == RawImageReader.BIL ? "bil" : "bip";
+			benchmarks.add(new Benchmark("load.raw.float." + name){
+				File file;
+				void setUp() throws Exception{
+					file = File.createTempFile("gcompBenchmark", ".raw");
+					SaveFile.SaveFileRaw(SyntheticImage.generate(zSize, ySize, xSize, 6, 1), file.getPath(), 6, 0, layout);
+					bytes = samples * 4;
+				}
+				Object run() throws Exception{
+					return(new LoadFile(file.getPath(), zSize, ySize, xSize, 6, 0, layout, false, null, null).getTypedImage());
+				}
+				void tearDown(){
+					file.delete();
+				}
+			});
+			benchmarks.add(new Benchmark("save.raw.float." + name){
+				TypedImage image;
+				File file;
+				void setUp() throws Exception{
+					file = File.createTempFile("gcompBenchmark", ".raw");
+					SaveFile.SaveFileRaw(SyntheticImage.generate(zSize, ySize, xSize, 6, 1), file.getPath(), 6, 0);
+					image = new LoadFile(file.getPath(), zSize, ySize, xSize, 6, 0, false).getTypedImage();
+					bytes = samples * 4;
+				}
+				Object run() throws Exception{
+					SaveFile.SaveFileRaw(image, file.getPath(), 6, 0, layout);
+					return(file);
+				}
+				void tearDown(){
+					file.delete();
+				}
+			});
+		}
+
+		//LoadFile.LoadPGM (only the first component)
+		for(int maxValue: new int[]{255, 65535}){
+			final int pgmMaxValue = maxValue;
+			benchmarks.add(new Benchmark("load.pgm." + (maxValue > 255 ? 16 : 8)){
+				File file;
+				void setUp() throws Exception{
+					file = File.createTempFile("gcompBenchmark", ".pgm");
+					SyntheticImage.writePGM(SyntheticImage.generate(1, ySize, xSize, pgmMaxValue > 255 ? 2 : 1, 1), pgmMaxValue, file);
+					bytes = file.length();
+				}
+				Object run() throws Exception{
+					return(new LoadFile(file.getPath()).getTypedImage());
+				}
+				void tearDown(){
+					file.delete();
+				}
+			});
+
+			//The same samples as text
+			benchmarks.add(new Benchmark("load.pgm." + (maxValue > 255 ? 16 : 8) + ".ascii"){
+				File file;
+				void setUp() throws Exception{
+					file = File.createTempFile("gcompBenchmark", ".pgm");
+					SyntheticImage.writePGM(SyntheticImage.generate(1, ySize, xSize, pgmMaxValue > 255 ? 2 : 1, 1), pgmMaxValue, file, true);
+					bytes = file.length();
+				}
+				Object run() throws Exception{
+					return(new LoadFile(file.getPath()).getTypedImage());
+				}
+				void tearDown(){
+					file.delete();
+				}
+			});
+
+			//The same samples as raw data, to compare the pgm loading with rawLoad
+			final int rawType = pgmMaxValue > 255 ? 2 : 1;
+			benchmarks.add(new Benchmark("load.pgm." + (maxValue > 255 ? 16 : 8) + ".raw"){
+				File file;
+				void setUp() throws Exception{
+					file = File.createTempFile("gcompBenchmark", ".raw");
+					SaveFile.SaveFileRaw(SyntheticImage.generate(1, ySize, xSize, rawType, 1), file.getPath(), rawType, 0);
+					bytes = file.length();
+				}
+				Object run() throws Exception{
+					return(new LoadFile(file.getPath(), 1, ySize, xSize, rawType, 0, false).getTypedImage());
+				}
+				void tearDown(){
+					file.delete();
+				}
+			});
+		}
+
+		//ImageCompareSA with and without mask and ROI
+		for(int type: new int[]{3, 6}){
+		for(String variant: new String[]{"plain", "mask", "roi"}){
+			final int sampleType = type;
+			final String compareVariant = variant;
+			benchmarks.add(new Benchmark("compare." + LoadFile.getClass(type).getName() + "." + variant){
+				TypedImage image1, image2;
+				byte[][][] mask;
+				float[] ROIValues;
+				int[] pixelBitDepth;
+				void setUp() throws Exception{
+					float[][][] original = SyntheticImage.generate(zSize, ySize, xSize, sampleType, 1);
+					image1 = TypedImage.fromFloat(original, sampleType);
+					image2 = TypedImage.fromFloat(SyntheticImage.distort(original, sampleType, 4f, 2), sampleType);
+					if(!compareVariant.equals("plain")){
+						mask = SyntheticImage.mask(zSize, ySize, xSize, compareVariant.equals("mask") ? 2 : 4);
+					}
+					if(compareVariant.equals("roi")){
+						ROIValues = new float[]{128, 0.5f, 129, 1f, 130, 2f, 131, 4f};
+					}
+					pixelBitDepth = new int[zSize];
+					for(int z = 0; z < zSize; z++){
+						pixelBitDepth[z] = sampleType == 3 ? 16 : 32;
+					}
+					bytes = 2 * samples * RawImageReader.getSampleBytes(sampleType);
+				}
+				Object run() throws Exception{
+					return(new ImageCompareSA(image1, image2, pixelBitDepth, mask, ROIValues, 0, null, 0, 1));
+				}
+				void tearDown(){
+					image1 = image2 = null;
+					mask = null;
+				}
+			});
+		}}
+
+		//Equality of two identical raw files (the whole files are compared), with ImageEquality or
+		//computing the metrics with ImageCompareSA
+		for(int metrics = 0; metrics <= 1; metrics++){
+			final boolean computeMetrics = metrics == 1;
+			benchmarks.add(new Benchmark("equality.raw.float" + (computeMetrics ? ".metrics" : "")){
+				File file1, file2;
+				int[] pixelBitDepth;
+				void setUp() throws Exception{
+					float[][][] original = SyntheticImage.generate(zSize, ySize, xSize, 6, 1);
+					file1 = File.createTempFile("gcompBenchmark", ".raw");
+					file2 = File.createTempFile("gcompBenchmark", ".raw");
+					SaveFile.SaveFileRaw(original, file1.getPath(), 6, 0);
+					SaveFile.SaveFileRaw(original, file2.getPath(), 6, 0);
+					pixelBitDepth = new int[zSize];
+					for(int z = 0; z < zSize; z++){
+						pixelBitDepth[z] = 32;
+					}
+					bytes = 2 * samples * 4;
+				}
+				Object run() throws Exception{
+					RawImageReader reader1 = new RawImageReader(file1.getPath(), zSize, ySize, xSize, Float.TYPE, 0, null, null);
+					RawImageReader reader2 = new RawImageReader(file2.getPath(), zSize, ySize, xSize, Float.TYPE, 0, null, null);
+					try{
+						if(computeMetrics){
+							return(new ImageCompareSA(reader1, reader2, pixelBitDepth, (byte[][][]) null, null, 0, null, 0, 1).getTotalEQUAL());
+						}
+						return(new ImageEquality(reader1, reader2).isEqual());
+					}finally{
+						reader1.close();
+						reader2.close();
+					}
+				}
+				void tearDown(){
+					file1.delete();
+					file2.delete();
+				}
+			});
+		}
+
+		//GenerateMask.run
+		benchmarks.add(new Benchmark("mask.generate"){
+			TypedImage image;
+			void setUp() throws Exception{
+				image = TypedImage.fromFloat(SyntheticImage.generate(zSize, ySize, xSize, 3, 1), 3);
+				bytes = samples * 2;
+			}
+			Object run() throws Exception{
+				GenerateMask generateMask = new GenerateMask(image);
+				generateMask.setNoDataValuesFromParser(new float[]{-32768, 0});
+				generateMask.run();
+				return(generateMask.getBitMask());
+			}
+			void tearDown(){
+				image = null;
+			}
+		});
+
+		//ImageCovariance, KarhunenLoeveTransform and LinearTransform over z
+		benchmarks.add(new Benchmark("transform.covariance"){
+			float[][][] image;
+			void setUp(){
+				image = SyntheticImage.generate(zSize, ySize, xSize, 6, 1);
+				bytes = samples * 4;
+			}
+			Object run(){
+				return(ImageCovariance.generateCovarianceMatrix(image, 0));
+			}
+			void tearDown(){
+				image = null;
+			}
+		});
+		benchmarks.add(new Benchmark("transform.klt"){
+			float[][][] image;
+			void setUp(){
+				image = SyntheticImage.generate(zSize, ySize, xSize, 6, 1);
+				bytes = samples * 4;
+			}
+			Object run(){
+				return(KarhunenLoeveTransform.run(image));
+			}
+			void tearDown(){
+				image = null;
+			}
+		});
+		benchmarks.add(new Benchmark("transform.linear"){
+			float[][][] image;
+			LinearTransform transform;
+			void setUp(){
+				image = SyntheticImage.generate(zSize, ySize, xSize, 6, 1);
+				// The KLT is orthonormal, so samples do not grow when it is applied again and again
+				transform = new LinearTransform(KarhunenLoeveTransform.run(image), 0);
+				bytes = samples * 4;
+			}
+			Object run(){
+				transform.transformInPlace(image);
+				return(image);
+			}
+			void tearDown(){
+				image = null;
+			}
+		});
+
+		return(benchmarks);
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciBenchmark;
+
+import java.io.*;
+import java.util.Random;
+
+
+/**
+ * This class generates the synthetic images used by the benchmarks. Images are smooth gradients (different for each component, so that components are correlated like in a multispectral image) plus noise, and always fit in the range of their sample type. They are generated from a seed, so every run uses the same images.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class SyntheticImage{
+
+	/**
+	 * This is an utility class and shall not be constructed.
+	 */
+	protected SyntheticImage(){
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Generates an image.
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param type sample type as returned by {@link GiciFile.LoadFile#getType}
+	 * @param seed seed of the noise
+	 * @return a 3D float array with the image samples (index are [z][y][x])
+	 */
+	public static float[][][] generate(int zSize, int ySize, int xSize, int type, long seed){
+		float[] range = getRange(type);
+		float low = range[0];
+		float width = range[1] - range[0];
+		Random random = new Random(seed);
+
+		float[][][] imageSamples = new float[zSize][ySize][xSize];
+		for(int z = 0; z < zSize; z++){
+			float gain = 0.5f + 0.5f * (z + 1) / zSize;
+		for(int y = 0; y < ySize; y++){
+		for(int x = 0; x < xSize; x++){
+			float gradient = (float) (0.25 + 0.25 * Math.sin(x * 0.01 + z * 0.1) + 0.25 * Math.cos(y * 0.013));
+			float value = gain * gradient + 0.05f * (float) random.nextGaussian();
+			value = Math.min(Math.max(value, 0f), 1f);
+			if(type == 0){
+				imageSamples[z][y][x] = value > 0.5f ? 1 : 0;
+			}else if(type <= 5){
+				imageSamples[z][y][x] = (float) Math.floor(low + value * width);
+			}else{
+				imageSamples[z][y][x] = low + value * width;
+			}
+		}}}
+		return(imageSamples);
+	}
+
+	/**
+	 * Generates a recovered image adding noise to an image (as a lossy compressor would do).
+	 *
+	 * @param imageSamples the original image (index are [z][y][x])
+	 * @param type sample type as returned by {@link GiciFile.LoadFile#getType}
+	 * @param amplitude standard deviation of the noise
+	 * @param seed seed of the noise
+	 * @return a 3D float array with the recovered image samples
+	 */
+	public static float[][][] distort(float[][][] imageSamples, int type, float amplitude, long seed){
+		float[] range = getRange(type);
+		Random random = new Random(seed);
+
+		float[][][] recovered = new float[imageSamples.length][imageSamples[0].length][imageSamples[0][0].length];
+		for(int z = 0; z < recovered.length; z++){
+		for(int y = 0; y < recovered[z].length; y++){
+		for(int x = 0; x < recovered[z][y].length; x++){
+			float value = imageSamples[z][y][x] + amplitude * (float) random.nextGaussian();
+			if(type <= 5){
+				value = Math.round(value);
+			}
+			recovered[z][y][x] = Math.min(Math.max(value, range[0]), range[1]);
+		}}}
+		return(recovered);
+	}
+
+	/**
+	 * Generates a mask with rectangular regions of values from 0 to regions - 1. With 2 regions it is a no-data mask (1 for valid samples).
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param regions number of different mask values
+	 * @return a 3D byte array with the mask samples (index are [z][y][x])
+	 */
+	public static byte[][][] mask(int zSize, int ySize, int xSize, int regions){
+		byte[][][] maskSamples = new byte[zSize][ySize][xSize];
+		for(int z = 0; z < zSize; z++){
+		for(int y = 0; y < ySize; y++){
+		for(int x = 0; x < xSize; x++){
+			int region = ((y * 8 / ySize) + (x * 8 / xSize)) % regions;
+			// Most of a no-data mask is valid
+			maskSamples[z][y][x] = (byte) (regions == 2 ? (region == 0 && x % 3 == 0 ? 0 : 1) : region);
+		}}}
+		return(maskSamples);
+	}
+
+	/**
+	 * Writes a PGM file (binary, P5) with the first component of an image.
+	 *
+	 * @param imageSamples image samples (index are [z][y][x]), from 0 to maxValue
+	 * @param maxValue maximum sample value (up to 65535)
+	 * @param file the file to write
+	 *
+	 * @throws IOException when the file cannot be written
+	 */
+	public static void writePGM(float[][][] imageSamples, int maxValue, File file) throws IOException{
+		writePGM(imageSamples, maxValue, file, false);
+	}
+
+	/**
+	 * Writes a PGM file, binary (P5) or ascii (P2, one row per line), with the first component of an image.
+	 *
+	 * @param imageSamples image samples (index are [z][y][x]), from 0 to maxValue
+	 * @param maxValue maximum sample value (up to 65535)
+	 * @param file the file to write
+	 * @param ascii true to write the samples as text
+	 *
+	 * @throws IOException when the file cannot be written
+	 */
+	public static void writePGM(float[][][] imageSamples, int maxValue, File file, boolean ascii) throws IOException{
+		int ySize = imageSamples[0].length;
+		int xSize = imageSamples[0][0].length;
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try{
+			dos.writeBytes((ascii ? "P2\n" : "P5\n") + xSize + " " + ySize + "\n" + maxValue + "\n");
+			for(int y = 0; y < ySize; y++){
+				for(int x = 0; x < xSize; x++){
+					int value = (int) Math.min(Math.max(imageSamples[0][y][x], 0), maxValue);
+					if(ascii){
+						dos.writeBytes((x == 0 ? "" : " ") + value);
+					}else if(maxValue > 255){
+						dos.writeShort(value);
+					}else{
+						dos.writeByte(value);
+					}
+				}
+				if(ascii){
+					dos.writeBytes("\n");
+				}
+			}
+		}finally{
+			dos.close();
+		}
+	}
+
+	/**
+	 * @param type sample type as returned by {@link GiciFile.LoadFile#getType}
+	 * @return minimum and maximum values used for the samples of the type
+	 */
+	private static float[] getRange(int type){
+		float[] range = null;
+		switch(type){
+		case 0: //boolean
+			range = new float[]{0, 1};
+			break;
+		case 1: //byte
+			range = new float[]{0, 255};
+			break;
+		case 2: //char
+			range = new float[]{0, 65535};
+			break;
+		case 3: //short
+			range = new float[]{-32768, 32767};
+			break;
+		case 4: //int
+		case 5: //long (limited to the range that SaveFile writes without warnings)
+			range = new float[]{-(1 << 20), 1 << 20};
+			break;
+		default: //float and double
+			range = new float[]{-1000, 1000};
+			break;
+		}
+		return(range);
+	}
+}
@@ -29,10 +29,19 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 //import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 import GiciAnalysis.*;
 import GiciException.*;
 import GiciFile.*;
+import GiciMask.BitMask;
 import GiciMask.GenerateMask;
 //import GiciParser.*;
 import GiciMask.LoadMask;
@@ -72,29 +81,117 @@ public class Gcomp{
 		String imageFile1     = parser.getImageFile1();
 		int[]  imageGeometry1 = parser.getImageGeometry1();
 		String imageFile2     = parser.getImageFile2();
+		String[] imageFiles2  = parser.getImageFiles2();
 		int[]  imageGeometry2 = parser.getImageGeometry2();
 		String maskFile       = parser.getMaskFile();
 		int inverse		 	  = parser.getInverse();
 		float[] ROIValues	  = parser.getROIValues();
 		int[] pixelBitDepth   = parser.getPixelBitDepth();
-		int component		  = parser.getComponent();
+		int[] components	  = parser.getComponents();
 		String energyInput	  = parser.getEnergyFile();
 		String varianzeInput  = parser.getVarianzeFile();
+		double[] noDataValues = parser.getNoDataValues();
+		int threads           = parser.getThreads();
 		LoadFile image1 = null;
 		LoadFile image2 = null;
 		
+		//When several images are compared with the original image, its statistics are computed only once
+		boolean batch = imageFiles2.length > 1;
+
+		//Raw images without a given geometry take it from their ENVI header. The geometry of
+		//every image is checked against the length of its file before anything is loaded
+		int[][] imageGeometries2 = new int[imageFiles2.length][];
+		try{
+			imageGeometry1 = getGeometry(imageFile1, imageGeometry1);
+			for(int i = 0; i < imageFiles2.length; i++){
+				imageGeometries2[i] = getGeometry(imageFiles2[i], imageGeometry2);
+			}
+		}catch(WarningException e){
+			System.out.println("IMAGE LOAD ERROR: " + e.getMessage());
+			System.exit(3);
+		}
+		imageGeometry2 = imageGeometries2[0];
+		
+		//Raw images are compared row by row without being loaded (the no-data mask is
+		//generated while the original image is read the first time). The original image
+		//is loaded, only once, when some recovered image has to be loaded to be compared.
+		//Interleaved (BIL or BIP) images are loaded, transposing them to components
+		boolean[] streamed = new boolean[imageFiles2.length];
+		boolean loadOriginal = false;
+		for(int i = 0; i < imageFiles2.length; i++){
+			streamed[i] = LoadFile.isRaw(imageFile1) && LoadFile.isRaw(imageFiles2[i])
+				&& imageGeometry1[5] == RawImageReader.BSQ && imageGeometries2[i][5] == RawImageReader.BSQ;
+			loadOriginal |= !streamed[i];
+		}
+		boolean streaming = streamed[0];
+		RawImageReader reader1 = null;
+		RawImageReader reader2 = null;
+		Class[] classImage1 = null;
+		Class[] classImage2 = null;
+		int[] imagePixelBitDepth = null;
+		
+		//Only the compared components are read from raw images (also from the recovered
+		//image when it has all the components of the original image)
+		int[] bands2 = getBands(components, imageGeometry1, imageGeometry2);
+		if(components != null && LoadFile.isRaw(imageFile1) && components[components.length - 1] >= imageGeometry1[0]){
+			System.out.println("IMAGE COMPARE ERROR: The original image does not have so many components.");
+			System.exit(4);
+		}
+
+		//Equality is checked without computing any measure
+		if(parser.getEquality() == 1){
+			try{
+				if(maskFile != null || noDataValues != null){
+					throw new WarningException("Equality can not be checked with masks nor no-data values.");
+				}
+				checkEquality(imageFile1, imageGeometry1, imageFiles2, imageGeometries2, components, parser.getFormat());
+			}catch(RuntimeException e){
+				System.out.println("IMAGE LOAD ERROR Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".img\"");
+				System.exit(3);
+			}catch(WarningException e){
+				System.out.println("IMAGE COMPARE ERROR: " + e.getMessage());
+				System.exit(4);
+			}
+			return;
+		}
+
+		//The images and the mask are independent files (often in different disks),
+		//so they are loaded at the same time
+		ExecutorService loader = Executors.newFixedThreadPool(3);
+		FutureTask<LoadFile> load1 = null;
+		FutureTask<LoadFile> load2 = null;
+		FutureTask<LoadMask> maskLoad = null;
+		if(loadOriginal){
+			load1 = startLoad(loader, new ImageLoad(imageFile1, imageGeometry1, components));
+		}
+		if(!streaming){
+			load2 = startLoad(loader, new ImageLoad(imageFile2, imageGeometry2, bands2));
+		}
+		if(maskFile != null){
+			maskLoad = startLoad(loader, new MaskLoad(maskFile, imageGeometry1));
+		}
+		loader.shutdown();
+		
 		//Images load
 		try{
-			if(LoadFile.isRaw(imageFile1)){
-				image1 = new LoadFile(imageFile1, imageGeometry1[0], imageGeometry1[1], imageGeometry1[2], imageGeometry1[3], imageGeometry1[4], false);
+			//Raw images may have been loaded partially
+			if(loadOriginal){
+				image1 = getLoaded(load1);
+				classImage1 = LoadFile.isRaw(imageFile1) ? getClasses(imageGeometry1) : image1.getTypes();
 			}else{
-				image1 = new LoadFile(imageFile1);
+				classImage1 = getClasses(imageGeometry1);
 			}
-
-			if(LoadFile.isRaw(imageFile2)){
-				image2 = new LoadFile(imageFile2, imageGeometry2[0], imageGeometry2[1], imageGeometry2[2], imageGeometry2[3], imageGeometry2[4], false);
+			if(streaming){
+				classImage2 = getClasses(imageGeometry2);
+				reader1 = new RawImageReader(imageFile1, imageGeometry1, components, null);
+				reader2 = new RawImageReader(imageFile2, imageGeometry2, bands2, null);
 			}else{
-				image2 = new LoadFile(imageFile2);
+				image2 = getLoaded(load2);
+				classImage2 = LoadFile.isRaw(imageFile2) ? getClasses(imageGeometry2) : image2.getTypes();
+			}
+			imagePixelBitDepth = new int[classImage1.length];
+			for(int z = 0; z < classImage1.length; z++){
+				imagePixelBitDepth[z] = LoadFile.getPixelBitDepth(classImage1[z]);
 			}
 		}catch(IllegalArgumentException e){
 			System.out.println("IMAGE LOAD ERROR Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".img\"");
@@ -109,18 +206,15 @@ public class Gcomp{
 			System.exit(3);
 		}
 
-		//Mask load
+		//Mask load (no-data masks are packed in bits)
 		byte[][][] maskSamples = null;
+		BitMask bitMask = null;
 		if(maskFile != null){
 			
 			LoadMask lm = null;
 			
 			try{
-				if (! LoadFile.isRaw(maskFile)) {
-					lm = new LoadMask(maskFile);
-				} else {
-					lm = new LoadMask(maskFile, imageGeometry1[0], imageGeometry1[1], imageGeometry1[2], 0, 1);
-				}
+				lm = getLoaded(maskLoad);
 			}catch(WarningException e){
 				System.out.println(e.getMessage());
 				System.exit(0);
@@ -131,13 +225,13 @@ public class Gcomp{
 				maskSamples = lm.getMaskSamplesByteValue();
 			}else{
 				//NO-DATA
-				maskSamples = lm.getMaskSamplesByte();
+				bitMask = lm.getBitMask();
 			}
 			
 			// If only one mask component is provided
 			// set the same mask for all the components
-			int zSize = image1.getImage().length;
-			if(maskSamples.length == 1 && maskSamples.length != zSize){
+			int zSize = classImage1.length;
+			if(maskSamples != null && maskSamples.length == 1 && maskSamples.length != zSize){
 				byte[][][] newMaskSamples = maskSamples;
 				
 				maskSamples = new byte[zSize][][];
@@ -145,46 +239,53 @@ public class Gcomp{
 					maskSamples[z] = newMaskSamples[0];
 				}
 			}
+			if(bitMask != null && bitMask.getZSize() == 1 && zSize != 1){
+				bitMask = bitMask.repeat(zSize);
+			}
 		}
 		
 		
-		//Invert the mask for the ROI applications
+		//Invert the mask for the ROI applications (a single-component mask repeated for all
+		//the components shares its rows, so each row is inverted once for all of them)
 		if((inverse == 1) && (ROIValues != null)){
+			Set<byte[]> inverted = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
 			for(int z = 0; z < maskSamples.length; z++){
 			for(int y = 0; y < maskSamples[z].length; y++){
-			for(int x = 0; x < maskSamples[z][y].length; x++){
-				if(maskSamples[z][y][x] == -128){
-					maskSamples[z][y][x] = 127;
-				}else{
-					maskSamples[z][y][x] = -128;
+				if(!inverted.add(maskSamples[z][y])){
+					continue;
 				}
-			}}}
+				for(int x = 0; x < maskSamples[z][y].length; x++){
+					if(maskSamples[z][y][x] == -128){
+						maskSamples[z][y][x] = 127;
+					}else{
+						maskSamples[z][y][x] = -128;
+					}
+				}
+			}}
 		}
 		
-		//Invert the mask for the no-data applications
-		if((inverse == 1) && (ROIValues == null)){
-			for(int z = 0; z < maskSamples.length; z++){
-			for(int y = 0; y < maskSamples[z].length; y++){
-			for(int x = 0; x < maskSamples[z][y].length; x++){
-				if(maskSamples[z][y][x] == 0){
-					maskSamples[z][y][x] = 1;
-				}else{
-					maskSamples[z][y][x] = 0;
-				}
-			}}}
+		//Invert the mask for the no-data applications (a single-component mask repeated for
+		//all the components shares its words, so it is inverted once for all of them)
+		if((inverse == 1) && (ROIValues == null) && (bitMask != null)){
+			bitMask.invert();
 		}
 		
 		//Sets the mask from a list of no-data values in the original image
-		float[] noDataValues = parser.getNoDataValues();
+		GenerateMask noDataMask = null;
 		if(noDataValues != null){
 			try{
-				if(maskSamples != null){
+				if(maskSamples != null || bitMask != null){
 					throw new WarningException("The no-data mask can not be defined twice.");
 				}
-				GenerateMask gm = new GenerateMask(image1.getImage());
-				gm.setNoDataValuesFromParser(noDataValues);
-				gm.run();
-				maskSamples = gm.getMaskSamplesByte();
+				if(!loadOriginal){
+					noDataMask = new GenerateMask(imageGeometry1[0], imageGeometry1[1], imageGeometry1[2], imageGeometry1[3]);
+					noDataMask.setNoDataValuesFromParser(noDataValues);
+				}else{
+					GenerateMask gm = new GenerateMask(image1.getTypedImage());
+					gm.setNoDataValuesFromParser(noDataValues);
+					gm.run(threads);
+					bitMask = gm.getBitMask();
+				}
 			}catch(WarningException e){
 				System.out.println("GENERATE MASK PROCESS ERROR: " + e.getMessage());
 				System.exit(5);
@@ -194,25 +295,7 @@ public class Gcomp{
 		//Images compare
 		try{
 			//Check image types
-			Class[] classImage1 = image1.getTypes();
-			Class[] classImage2 = image2.getTypes();
-			if(component == -1){
-				if(classImage1.length != classImage2.length){
-					throw new WarningException("Number of image components must be the same for both images.");
-				}
-				for(int z = 0; z < classImage1.length; z++){
-					//if(classImage1[z] != classImage2[z]){
-					//	throw new WarningException("Image class types must be the same for both images.");
-					//}
-				}
-			}else{
-				if(component - 1 > classImage1.length){
-					throw new WarningException("The original image does not have so many components.");
-				}
-				if(classImage1[component-1] != classImage2[0]){
-					throw new WarningException("Image class types must be the same for both images.");
-				}
-			}
+			checkTypes(classImage1, classImage2, components);
 			
 			int measure = parser.getMeasure();
 			
@@ -253,9 +336,8 @@ public class Gcomp{
 			}
 			
 			//Compare
-			ImageCompareSA ic = null;
+			int bitDepth[] = null;
 			if(pixelBitDepth != null){
-				int bitDepth[] = null;
 				if (pixelBitDepth.length < zSize){
 					bitDepth = new int[zSize];
 					for(int z = 0; z < pixelBitDepth.length; z++){
@@ -267,184 +349,565 @@ public class Gcomp{
 				} else{
 					bitDepth = pixelBitDepth;
 				}
-				ic = new ImageCompareSA(image1.getImage(), image2.getImage(), bitDepth, maskSamples, ROIValues, inverse, component, measure, energy, varianze);
 			} else {
-				ic = new ImageCompareSA(image1.getImage(), image2.getImage(), image1.getPixelBitDepth(), maskSamples, ROIValues, inverse, component, measure, energy, varianze);
+				bitDepth = imagePixelBitDepth;
+			}
+			
+			ImageCompareSA ic = null;
+			if(streaming){
+				ic = compare(reader1, reader2, bitDepth, maskSamples, bitMask, noDataMask, ROIValues, inverse, components, measure, threads, null);
+				//The no-data mask generated is used for the other images
+				if(noDataMask != null){
+					bitMask = noDataMask.getBitMask();
+				}
+			} else {
+				ic = compare(image1, image2, bitDepth, maskSamples, bitMask, ROIValues, inverse, components, measure, threads, null);
 			}
 			
 			
-			double[] mae = ic.getMAE();
-			double totalMAE = ic.getTotalMAE();
-			double[] pae = ic.getPAE();
-			double totalPAE = ic.getTotalPAE();
-			double[] mse = ic.getMSE();
-			double totalMSE = ic.getTotalMSE();
-			double[] rmse = ic.getRMSE();
-			double totalRMSE = ic.getTotalRMSE();
-			double[] me = ic.getME();
-			double totalME = ic.getTotalME();
-			double[] snr = ic.getSNR();
-			double totalSNR = ic.getTotalSNR();
-			double[] psnr = ic.getPSNR();
-			double totalPSNR = ic.getTotalPSNR();
-			double[] psnrSalomon = ic.getPSNRSALOMON();
-			double totalPSNRSALOMON = ic.getTotalPSNRSALOMON();
-			boolean[] equal = ic.getEQUAL();
-			boolean totalEQUAL = ic.getTotalEQUAL();
-			double[] snrVar = ic.getSNRVAR();
-			double totalSNRVAR = ic.getTotalSNRVAR();
-
-			//Show metrics
 			int totals = parser.getTotals();
 			int format = parser.getFormat();
-			zSize = classImage1.length;
-			
-			//To compare a specific component
-			if(component != -1){
-				zSize = 1;
-			}
-			
-			// TODO: TO BE if(totals < 2){
-			if(((zSize > 1) && (totals <= 1)) || (zSize == 1)){
-				for(int z = 0; z < zSize; z++){
-					if(component != -1){
-						z = component - 1;
-					}
-					if(format == 0) System.out.println("COMPONENT " + z + ":");
-					if((measure == 0) || (measure == 1)){
-						if(format == 0) System.out.println("  MAE    : " +(float) mae[z]);
-						if(format == 1) System.out.print((float)mae[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 2)){
-						if(format == 0) System.out.println("  PAE    : " + (float)pae[z]);
-						if(format == 1) System.out.print((float)pae[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 3)){
-						if(ROIValues != null){
-							if(format == 0) System.out.println("  P-MSE    : " + (float) mse[z]);
-						}else{
-							if(format == 0) System.out.println("  MSE    : " + (float) mse[z]);
-						}
-						if(format == 1) System.out.print((float) mse[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 4)){
-						if(format == 0) System.out.println("  RMSE   : " +(float) rmse[z]);
-						if(format == 1) System.out.print((float)rmse[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 5)){
-						if(format == 0) System.out.println("  ME     : " + (float)me[z]);
-						if(format == 1) System.out.print((float)me[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 6)){
-						if(format == 0) System.out.println("  SNR    : " +(float) snr[z]);
-						if(format == 1) System.out.print((float)snr[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 7)){
-						if(ROIValues != null){
-							if(format == 0) System.out.println("  P-PSNR : " + (float)psnr[z]);
-						}else{
-							if(format == 0) System.out.println("  PSNR   : " + (float)psnr[z]);
-						}
-						if(format == 1) System.out.print((float)psnr[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 8)){
-						if(format == 0) System.out.println("  PSNR-S : " + (float)psnrSalomon[z]);
-						if(format == 1) System.out.print((float)psnrSalomon[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 9)){
-						if(format == 0) System.out.println("  SNRVAR : " + (float)snrVar[z]);
-						if(format == 1) System.out.print((float)snrVar[z]);
-					}
-					if((measure == 0) && (format == 1)) System.out.print(":");
-					if((measure == 0) || (measure == 10)){
-						if(format == 0) System.out.println("  EQUAL  : " + equal[z]);
-						if(format == 1) System.out.print(equal[z]);
+			printResults(ic, classImage1.length, components, measure, totals, format, ROIValues, batch ? imageFile2 : null);
+
+			//The other images are compared reusing the statistics of the original image
+			ImageCompareSA reference = ic;
+			for(int i = 1; i < imageFiles2.length; i++){
+				ic = null;
+				image2 = null;
+				int[] bands = getBands(components, imageGeometry1, imageGeometries2[i]);
+				try{
+					if(streamed[i]){
+						reader1 = new RawImageReader(imageFile1, imageGeometry1, components, null);
+						reader2 = new RawImageReader(imageFiles2[i], imageGeometries2[i], bands, null);
+					}else{
+						image2 = loadImage(imageFiles2[i], imageGeometries2[i], bands);
 					}
-					if(format == 1) System.out.print("\n");
-					if(component != -1){
-						z = zSize;
+				}catch(RuntimeException e){
+					System.out.println("IMAGE LOAD ERROR Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".img\"");
+					System.exit(3);
+				}catch(WarningException e){
+					System.out.println("IMAGE LOAD ERROR: " + e.getMessage());
+					System.exit(3);
+				}
+				checkTypes(classImage1, LoadFile.isRaw(imageFiles2[i]) ? getClasses(imageGeometries2[i]) : image2.getTypes(), components);
+				if(streamed[i]){
+					ic = compare(reader1, reader2, bitDepth, maskSamples, bitMask, null, ROIValues, inverse, components, measure, threads, reference);
+				}else{
+					ic = compare(image1, image2, bitDepth, maskSamples, bitMask, ROIValues, inverse, components, measure, threads, reference);
+				}
+				printResults(ic, classImage1.length, components, measure, totals, format, ROIValues, imageFiles2[i]);
+			}
+
+		}catch(WarningException e){
+			System.out.println("IMAGE COMPARE ERROR: " + e.getMessage());
+			System.exit(4);
+		}
+
+	}
+
+	/**
+	 * Loads an image.
+	 *
+	 * @param imageFile file name of the image
+	 * @param imageGeometry geometry of the image when it is a raw image
+	 * @param bands components to load when it is a raw image, in increasing order (null to load all of them)
+	 * @return the loaded image
+	 *
+	 * @throws WarningException when the image cannot be loaded
+	 */
+	private static LoadFile loadImage(String imageFile, int[] imageGeometry, int[] bands) throws WarningException{
+		LoadFile image = null;
+		if(LoadFile.isRaw(imageFile)){
+			image = new LoadFile(imageFile, imageGeometry, false, bands, null);
+		}else{
+			image = new LoadFile(imageFile);
+		}
+		return(image);
+	}
+
+	/**
+	 * Checks whether the recovered images are equal to the original image, stopping at the first sample that differs (see {@link ImageEquality}). Raw images with the same row order are compared while they are read; the other ones are loaded (the original image only once).
+	 *
+	 * @param imageFile1 file name of the original image
+	 * @param imageGeometry1 geometry of the original image (null if it is not a raw image)
+	 * @param imageFiles2 file names of the recovered images
+	 * @param imageGeometries2 geometry of each recovered image (null if it is not a raw image)
+	 * @param components the compared components, in increasing order (null if all of them are compared)
+	 * @param format 0 to show the result with its name, 1 to show it separated by ":"
+	 *
+	 * @throws WarningException when an image cannot be read or the sizes of the images are different
+	 */
+	private static void checkEquality(String imageFile1, int[] imageGeometry1, String[] imageFiles2, int[][] imageGeometries2, int[] components, int format) throws WarningException{
+		LoadFile image1 = null;
+		for(int i = 0; i < imageFiles2.length; i++){
+			ImageEquality equality = null;
+			int[] imageGeometry2 = imageGeometries2[i];
+			if(LoadFile.isRaw(imageFile1) && LoadFile.isRaw(imageFiles2[i])
+				&& (imageGeometry1[5] == RawImageReader.BSQ) == (imageGeometry2[5] == RawImageReader.BSQ)){
+				RawImageReader reader1 = new RawImageReader(imageFile1, imageGeometry1, components, null);
+				RawImageReader reader2 = null;
+				try{
+					reader2 = new RawImageReader(imageFiles2[i], imageGeometry2, getBands(components, imageGeometry1, imageGeometry2), null);
+					equality = new ImageEquality(reader1, reader2);
+				}finally{
+					reader1.close();
+					if(reader2 != null){
+						reader2.close();
 					}
 				}
+			}else{
+				if(image1 == null){
+					image1 = loadImage(imageFile1, imageGeometry1, null);
+				}
+				LoadFile image2 = loadImage(imageFiles2[i], imageGeometry2, null);
+				equality = new ImageEquality(image1.getTypedImage(), image2.getTypedImage(), components);
+			}
+
+			String imageName = imageFiles2.length > 1 ? imageFiles2[i] : null;
+			int[] difference = equality.getDifference();
+			if((format == 0) && (imageName != null)) System.out.println("IMAGE " + imageName + ":");
+			if((format == 1) && (imageName != null)) System.out.print(imageName + ":");
+			if(format == 0){
+				System.out.println("  EQUAL  : " + equality.isEqual());
+				if(difference != null) System.out.println("  FIRST DIFFERENCE : component " + difference[0] + ", row " + difference[1] + ", column " + difference[2]);
+			}
+			if(format == 1){
+				System.out.print(equality.isEqual());
+				if(difference != null) System.out.print(":" + difference[0] + ":" + difference[1] + ":" + difference[2]);
+				System.out.print("\n");
+			}
+		}
+	}
+
+	/**
+	 * Gives the geometry of an image: the given one or, when it is a raw image and no geometry is given, the one of its ENVI header (see {@link LoadFile#getHeaderGeometry}).
+	 *
+	 * @param imageFile file name of the image
+	 * @param imageGeometry the given geometry (null if it is not given)
+	 * @return the geometry of the image (null if it is not a raw image)
+	 *
+	 * @throws WarningException when a raw image has neither geometry nor header, or the length of its file does not match its geometry
+	 */
+	private static int[] getGeometry(String imageFile, int[] imageGeometry) throws WarningException{
+		if(!LoadFile.isRaw(imageFile)){
+			return(imageGeometry);
+		}
+		if(imageGeometry == null){
+			imageGeometry = LoadFile.getHeaderGeometry(imageFile);
+			if(imageGeometry == null){
+				throw new WarningException("Image \"" + imageFile + "\" has no ENVI header, so its geometry must be given.");
+			}
+		}else{
+			LoadFile.checkRawLength(imageFile, imageGeometry);
+		}
+		return(imageGeometry);
+	}
+
+	/**
+	 * Gives the components to read from the recovered image. When it has all the components of the original image only the compared ones are read, otherwise it has only the compared ones and it is read whole.
+	 *
+	 * @param components the compared components, in increasing order (null if all of them are compared)
+	 * @param imageGeometry1 geometry of the original image (null if it is not a raw image)
+	 * @param imageGeometry2 geometry of the recovered image (null if it is not a raw image)
+	 * @return the components to read (null to read all of them)
+	 */
+	private static int[] getBands(int[] components, int[] imageGeometry1, int[] imageGeometry2){
+		if(components == null || imageGeometry1 == null || imageGeometry2 == null || imageGeometry2[0] != imageGeometry1[0]){
+			return(null);
+		}
+		return(components);
+	}
+
+	/**
+	 * @param imageGeometry geometry of a raw image
+	 * @return sample types of the image (for each component)
+	 */
+	private static Class[] getClasses(int[] imageGeometry){
+		Class[] classImage = new Class[imageGeometry[0]];
+		for(int z = 0; z < classImage.length; z++){
+			classImage[z] = LoadFile.getClass(imageGeometry[3]);
+		}
+		return(classImage);
+	}
+
+	/**
+	 * Starts loading a file.
+	 *
+	 * @param loader the threads that load the files
+	 * @param load the load of the file
+	 * @return the task that loads the file
+	 */
+	private static <T> FutureTask<T> startLoad(ExecutorService loader, Callable<T> load){
+		FutureTask<T> task = new FutureTask<T>(load);
+		loader.execute(task);
+		return(task);
+	}
+
+	/**
+	 * Waits until a file is loaded.
+	 *
+	 * @param task the task that loads the file
+	 * @return the loaded file
+	 *
+	 * @throws WarningException when the file cannot be loaded (runtime exceptions and errors of the load are thrown as they are)
+	 */
+	private static <T> T getLoaded(FutureTask<T> task) throws WarningException{
+		try{
+			return(task.get());
+		}catch(InterruptedException e){
+			throw new WarningException("File load interrupted.");
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof WarningException){
+				throw (WarningException) cause;
+			}
+			if(cause instanceof RuntimeException){
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error){
+				throw (Error) cause;
+			}
+			throw new WarningException(cause.getMessage());
+		}
+	}
+
+	/**
+	 * Load of an image in its own thread.
+	 */
+	private static class ImageLoad implements Callable<LoadFile>{
+
+		/**
+		 * File name of the image.
+		 */
+		String imageFile;
+
+		/**
+		 * Geometry of the image when it is a raw image.
+		 */
+		int[] imageGeometry;
+
+		/**
+		 * Components to load when it is a raw image (null to load all of them).
+		 */
+		int[] bands;
+
+		ImageLoad(String imageFile, int[] imageGeometry, int[] bands){
+			this.imageFile = imageFile;
+			this.imageGeometry = imageGeometry;
+			this.bands = bands;
+		}
+
+		public LoadFile call() throws WarningException{
+			return(loadImage(imageFile, imageGeometry, bands));
+		}
+	}
+
+	/**
+	 * Load of a mask in its own thread.
+	 */
+	private static class MaskLoad implements Callable<LoadMask>{
+
+		/**
+		 * File name of the mask.
+		 */
+		String maskFile;
+
+		/**
+		 * Geometry of the original image (used when the mask is a raw image).
+		 */
+		int[] imageGeometry;
+
+		MaskLoad(String maskFile, int[] imageGeometry){
+			this.maskFile = maskFile;
+			this.imageGeometry = imageGeometry;
+		}
+
+		public LoadMask call() throws WarningException{
+			LoadMask lm = null;
+			if (! LoadFile.isRaw(maskFile)) {
+				lm = new LoadMask(maskFile);
+			} else {
+				lm = new LoadMask(maskFile, imageGeometry[0], imageGeometry[1], imageGeometry[2], 0, 1);
+			}
+			return(lm);
+		}
+	}
+
+	/**
+	 * Compares two loaded images.
+	 *
+	 * @param image1 the original image
+	 * @param image2 the recovered image
+	 * @param bitDepth number of bits of the samples (for each component)
+	 * @param maskSamples the ROI mask (null if there is no ROI mask)
+	 * @param bitMask the no-data mask (null if there is no no-data mask)
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components to compare, in increasing order (null to compare all of them)
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 * @param reference a previous comparison of the original image (null if there is none)
+	 * @return the comparison
+	 *
+	 * @throws WarningException when the images cannot be compared
+	 */
+	private static ImageCompareSA compare(LoadFile image1, LoadFile image2, int[] bitDepth, byte[][][] maskSamples, BitMask bitMask, float[] ROIValues, int inverse, int[] components, int measure, int threads, ImageCompareSA reference) throws WarningException{
+		ImageCompareSA ic = null;
+		if(bitMask != null){
+			ic = new ImageCompareSA(image1.getTypedImage(), image2.getTypedImage(), bitDepth, bitMask, inverse, components, measure, threads, reference);
+		}else{
+			ic = new ImageCompareSA(image1.getTypedImage(), image2.getTypedImage(), bitDepth, maskSamples, ROIValues, inverse, components, measure, threads, reference);
+		}
+		return(ic);
+	}
+
+	/**
+	 * Compares two raw images reading them row by row, and closes their readers.
+	 *
+	 * @param reader1 reader of the original image
+	 * @param reader2 reader of the recovered image
+	 * @param bitDepth number of bits of the samples (for each component)
+	 * @param maskSamples the ROI mask (null if there is no ROI mask)
+	 * @param bitMask the no-data mask (null if there is no no-data mask)
+	 * @param noDataMask the no-data mask to generate while the original image is read (null if it is not generated)
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components to compare, in increasing order (null to compare all of them)
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 * @param reference a previous comparison of the original image (null if there is none)
+	 * @return the comparison
+	 *
+	 * @throws WarningException when the images cannot be compared
+	 */
+	private static ImageCompareSA compare(RawImageReader reader1, RawImageReader reader2, int[] bitDepth, byte[][][] maskSamples, BitMask bitMask, GenerateMask noDataMask, float[] ROIValues, int inverse, int[] components, int measure, int threads, ImageCompareSA reference) throws WarningException{
+		ImageCompareSA ic = null;
+		try{
+			if(noDataMask != null){
+				ic = new ImageCompareSA(reader1, reader2, bitDepth, noDataMask, inverse, components, measure, threads);
+			}else if(bitMask != null){
+				ic = new ImageCompareSA(reader1, reader2, bitDepth, bitMask, inverse, components, measure, threads, reference);
+			}else{
+				ic = new ImageCompareSA(reader1, reader2, bitDepth, maskSamples, ROIValues, inverse, components, measure, threads, reference);
+			}
+		}finally{
+			reader1.close();
+			reader2.close();
+		}
+		return(ic);
+	}
+
+	/**
+	 * Checks that two images can be compared.
+	 *
+	 * @param classImage1 sample types of the original image (for each component)
+	 * @param classImage2 sample types of the recovered image (for each component)
+	 * @param components the components to compare, in increasing order (null to compare all of them)
+	 *
+	 * @throws WarningException when the images cannot be compared
+	 */
+	private static void checkTypes(Class[] classImage1, Class[] classImage2, int[] components) throws WarningException{
+		if(components == null){
+			if(classImage1.length != classImage2.length){
+				throw new WarningException("Number of image components must be the same for both images.");
+			}
+			for(int z = 0; z < classImage1.length; z++){
+				//if(classImage1[z] != classImage2[z]){
+				//	throw new WarningException("Image class types must be the same for both images.");
+				//}
+			}
+		}else{
+			if(components[components.length - 1] >= classImage1.length){
+				throw new WarningException("The original image does not have so many components.");
+			}
+			//The recovered image has either all the components of the original image or only the compared ones
+			boolean all = classImage2.length == classImage1.length && classImage2.length != components.length;
+			if(!all && classImage2.length != components.length){
+				throw new WarningException("The recovered image must have all the components of the original image or only the compared ones.");
+			}
+			for(int position = 0; position < components.length; position++){
+				if(classImage1[components[position]] != classImage2[all ? components[position] : position]){
+					throw new WarningException("Image class types must be the same for both images.");
+				}
 			}
+		}
+	}
 
-			//TODO REPLACE THE NEXT LINE WITH THIS if(totals > 0){
-			if((zSize > 1) && (totals >= 1)){
-				if(format == 0) System.out.println("TOTALS:");
+	/**
+	 * Shows the metrics of a comparison.
+	 *
+	 * @param ic the comparison
+	 * @param zSize number of components of the original image
+	 * @param components the compared components (null if all of them have been compared)
+	 * @param measure the measure to show (0 for all of them)
+	 * @param totals indicates if the metrics of each component, the totals or both are shown
+	 * @param format 0 to show the metrics with their names, 1 to show them separated by ":"
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 * @param imageName name of the recovered image, shown before its metrics when several images are compared (null otherwise)
+	 */
+	private static void printResults(ImageCompareSA ic, int zSize, int[] components, int measure, int totals, int format, float[] ROIValues, String imageName){
+		if((format == 0) && (imageName != null)) System.out.println("IMAGE " + imageName + ":");
+		double[] mae = ic.getMAE();
+		double totalMAE = ic.getTotalMAE();
+		double[] pae = ic.getPAE();
+		double totalPAE = ic.getTotalPAE();
+		double[] mse = ic.getMSE();
+		double totalMSE = ic.getTotalMSE();
+		double[] rmse = ic.getRMSE();
+		double totalRMSE = ic.getTotalRMSE();
+		double[] me = ic.getME();
+		double totalME = ic.getTotalME();
+		double[] snr = ic.getSNR();
+		double totalSNR = ic.getTotalSNR();
+		double[] psnr = ic.getPSNR();
+		double totalPSNR = ic.getTotalPSNR();
+		double[] psnrSalomon = ic.getPSNRSALOMON();
+		double totalPSNRSALOMON = ic.getTotalPSNRSALOMON();
+		boolean[] equal = ic.getEQUAL();
+		boolean totalEQUAL = ic.getTotalEQUAL();
+		double[] snrVar = ic.getSNRVAR();
+		double totalSNRVAR = ic.getTotalSNRVAR();
+
+		//To compare some components
+		if(components == null){
+			components = new int[zSize];
+			for(int z = 0; z < zSize; z++){
+				components[z] = z;
+			}
+		}
+		zSize = components.length;
+		
+		// TODO: TO BE if(totals < 2){
+		if(((zSize > 1) && (totals <= 1)) || (zSize == 1)){
+			for(int z: components){
+				if(format == 0) System.out.println("COMPONENT " + z + ":");
+				if((format == 1) && (imageName != null)) System.out.print(imageName + ":");
 				if((measure == 0) || (measure == 1)){
-					if(format == 0) System.out.println("  MAE    : " + (float)totalMAE);
-					if(format == 1) System.out.print((float)totalMAE);
+					if(format == 0) System.out.println("  MAE    : " +(float) mae[z]);
+					if(format == 1) System.out.print((float)mae[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 2)){
-					if(format == 0) System.out.println("  PAE    : " + (float)totalPAE);
-					if(format == 1) System.out.print((float)totalPAE);
+					if(format == 0) System.out.println("  PAE    : " + (float)pae[z]);
+					if(format == 1) System.out.print((float)pae[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 3)){
-					if(format == 0) System.out.println("  MSE    : " + (float) totalMSE);
-					if(format == 1) System.out.print((float) totalMSE);
+					if(ROIValues != null){
+						if(format == 0) System.out.println("  P-MSE    : " + (float) mse[z]);
+					}else{
+						if(format == 0) System.out.println("  MSE    : " + (float) mse[z]);
+					}
+					if(format == 1) System.out.print((float) mse[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 4)){
-					if(format == 0) System.out.println("  RMSE   : " + (float) totalRMSE);
-					if(format == 1) System.out.print((float)totalRMSE);
+					if(format == 0) System.out.println("  RMSE   : " +(float) rmse[z]);
+					if(format == 1) System.out.print((float)rmse[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 5)){
-					if(format == 0) System.out.println("  ME     : " +(float) totalME);
-					if(format == 1) System.out.print((float)totalME);
+					if(format == 0) System.out.println("  ME     : " + (float)me[z]);
+					if(format == 1) System.out.print((float)me[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 6)){
-					if(format == 0) System.out.println("  SNR    : " +(float) totalSNR);
-					if(format == 1) System.out.print((float)totalSNR);
+					if(format == 0) System.out.println("  SNR    : " +(float) snr[z]);
+					if(format == 1) System.out.print((float)snr[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 7)){
-					if(totalPSNR < 0){
-						if(format == 0) System.out.println("  PSNR   : Pixel bit depth must be de the same for each component.");
-						if(format == 1) System.out.print("Error");
+					if(ROIValues != null){
+						if(format == 0) System.out.println("  P-PSNR : " + (float)psnr[z]);
 					}else{
-						if(format == 0) System.out.println("  PSNR   : " + (float) totalPSNR);
-						if(format == 1) System.out.print((float) totalPSNR);
+						if(format == 0) System.out.println("  PSNR   : " + (float)psnr[z]);
 					}
+					if(format == 1) System.out.print((float)psnr[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 8)){
-					if(totalPSNRSALOMON < 0){
-						if(format == 0) System.out.println("  PSNR   : Pixel bit depth must be de the same for each component.");
-						if(format == 1) System.out.print("Error");
-					}else{
-						if(format == 0) System.out.println("  PSNR-S : " + (float) totalPSNRSALOMON);
-						if(format == 1) System.out.print((float) totalPSNRSALOMON);
-					}
+					if(format == 0) System.out.println("  PSNR-S : " + (float)psnrSalomon[z]);
+					if(format == 1) System.out.print((float)psnrSalomon[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 9)){
-					if(format == 0) System.out.println("  SNRVAR : " +(float) totalSNRVAR);
-					if(format == 1) System.out.print((float)totalSNRVAR);
+					if(format == 0) System.out.println("  SNRVAR : " + (float)snrVar[z]);
+					if(format == 1) System.out.print((float)snrVar[z]);
 				}
 				if((measure == 0) && (format == 1)) System.out.print(":");
 				if((measure == 0) || (measure == 10)){
-					if(format == 0) System.out.println("  EQUAL  : " + totalEQUAL);
-					if(format == 1) System.out.print(totalEQUAL);
+					if(format == 0) System.out.println("  EQUAL  : " + equal[z]);
+					if(format == 1) System.out.print(equal[z]);
 				}
 				if(format == 1) System.out.print("\n");
 			}
-
-		}catch(WarningException e){
-			System.out.println("IMAGE COMPARE ERROR: " + e.getMessage());
-			System.exit(4);
 		}
 
+		//TODO REPLACE THE NEXT LINE WITH THIS if(totals > 0){
+		if((zSize > 1) && (totals >= 1)){
+			if(format == 0) System.out.println("TOTALS:");
+			if((format == 1) && (imageName != null)) System.out.print(imageName + ":");
+			if((measure == 0) || (measure == 1)){
+				if(format == 0) System.out.println("  MAE    : " + (float)totalMAE);
+				if(format == 1) System.out.print((float)totalMAE);
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 2)){
+				if(format == 0) System.out.println("  PAE    : " + (float)totalPAE);
+				if(format == 1) System.out.print((float)totalPAE);
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 3)){
+				if(format == 0) System.out.println("  MSE    : " + (float) totalMSE);
+				if(format == 1) System.out.print((float) totalMSE);
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 4)){
+				if(format == 0) System.out.println("  RMSE   : " + (float) totalRMSE);
+				if(format == 1) System.out.print((float)totalRMSE);
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 5)){
+				if(format == 0) System.out.println("  ME     : " +(float) totalME);
+				if(format == 1) System.out.print((float)totalME);
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 6)){
+				if(format == 0) System.out.println("  SNR    : " +(float) totalSNR);
+				if(format == 1) System.out.print((float)totalSNR);
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 7)){
+				if(totalPSNR < 0){
+					if(format == 0) System.out.println("  PSNR   : Pixel bit depth must be de the same for each component.");
+					if(format == 1) System.out.print("Error");
+				}else{
+					if(format == 0) System.out.println("  PSNR   : " + (float) totalPSNR);
+					if(format == 1) System.out.print((float) totalPSNR);
+				}
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 8)){
+				if(totalPSNRSALOMON < 0){
+					if(format == 0) System.out.println("  PSNR   : Pixel bit depth must be de the same for each component.");
+					if(format == 1) System.out.print("Error");
+				}else{
+					if(format == 0) System.out.println("  PSNR-S : " + (float) totalPSNRSALOMON);
+					if(format == 1) System.out.print((float) totalPSNRSALOMON);
+				}
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 9)){
+				if(format == 0) System.out.println("  SNRVAR : " +(float) totalSNRVAR);
+				if(format == 1) System.out.print((float)totalSNRVAR);
+			}
+			if((measure == 0) && (format == 1)) System.out.print(":");
+			if((measure == 0) || (measure == 10)){
+				if(format == 0) System.out.println("  EQUAL  : " + totalEQUAL);
+				if(format == 1) System.out.print(totalEQUAL);
+			}
+			if(format == 1) System.out.print("\n");
+		}
 	}
 
 }
@@ -26,10 +26,16 @@
  */
 package Gcomp;
 import GiciException.*;
+import GiciFile.EnviHeader;
+import GiciFile.RawImageReader;
 import GiciFile.LoadFile;
 import GiciParser.*;
 
+import java.io.*;
 import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
 
 
 /**
@@ -43,28 +49,28 @@ public class GcompParser extends ArgumentsParser{
 	//ARGUMENTS SPECIFICATION
 	String[][] compArguments = {
 		{"-i1", "--inputImage1", "{string}", "", "1", "1",
-			"Input image 1 (it must be the ORIGINAL image). Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".rawl\" or \".img\" and \"-ig1\" parameter is mandatory."
+			"Input image 1 (it must be the ORIGINAL image). Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".rawl\" or \".img\" (or \".rawz\" for chunked compressed raw data) and \"-ig1\" parameter is mandatory unless the image has an ENVI header (\"image.raw.hdr\" or \"image.hdr\"), which gives its geometry."
 		},
-		{"-ig1", "--inputImageGeometry1", "{int int int int int}", "", "0", "1",
-			"Geometry of raw image data 1. Parameters are:\n    1- zSize (number of image components)\n    2- ySize (image height)\n    3- xSize (image width)\n    4- data type. Possible values are:\n      0- boolean (1 byte)\n      1- unsigned int (1 byte)\n      2- unsigned int (2 bytes)\n      3- signed int (2 bytes)\n      4- signed int (4 bytes)\n      5- signed int (8 bytes)\n      6- float (4 bytes)\n      7- double (8 bytes)\n    5- Byte order (0 if BIG ENDIAN, 1 if LITTLE ENDIAN)"
+		{"-ig1", "--inputImageGeometry1", "{int int int int int[ int[ int]]}", "", "0", "1",
+			"Geometry of raw image data 1. Parameters are:\n    1- zSize (number of image components)\n    2- ySize (image height)\n    3- xSize (image width)\n    4- data type. Possible values are:\n      0- boolean (1 byte)\n      1- unsigned int (1 byte)\n      2- unsigned int (2 bytes)\n      3- signed int (2 bytes)\n      4- signed int (4 bytes)\n      5- signed int (8 bytes)\n      6- float (4 bytes)\n      7- double (8 bytes)\n    5- Byte order (0 if BIG ENDIAN, 1 if LITTLE ENDIAN)\n    6- Sample layout (optional, 0 if not given). Possible values are:\n      0- BSQ (band sequential: all the rows of each component)\n      1- BIL (band interleaved by line: each row of all the components)\n      2- BIP (band interleaved by pixel: all the components of each pixel)\n    7- Header offset (optional, 0 if not given): number of bytes before the samples\nWhen it is given, it is used instead of the ENVI header of the image."
 		},
-		{"-i2", "--inputImage2", "{string}", "", "1", "1",
-			"Input image 2. Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".img\" and \"-ig2\" parameter is mandatory."
+		{"-i2", "--inputImage2", "{string[ string[ string[ ...]]]}", "", "1", "1",
+			"Input image 2. Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".img\" (or \".rawz\" for chunked compressed raw data) and \"-ig2\" parameter is mandatory unless each image has an ENVI header (\"image.raw.hdr\" or \"image.hdr\"), which gives its geometry. Several images can be given (or a file whose name starts with \"@\" that contains one image name per line) to compare all of them with the original image, which is loaded only once; results of each image are preceded by its name."
 		},
-		{"-ig2", "--inputImageGeometry2", "{int int int int int}", "", "0", "1",
-			"Geometry of raw image data 2. Parameters are:\n    1- zSize (number of image components)\n    2- ySize (image height)\n    3- xSize (image width)\n    4- data type. Possible values are:\n      0- boolean (1 byte)\n      1- unsigned int (1 byte)\n      2- unsigned int (2 bytes)\n      3- signed int (2 bytes)\n      4- signed int (4 bytes)\n      5- signed int (8 bytes)\n      6- float (4 bytes)\n      7- double (8 bytes)\n    5- Byte order (0 if BIG ENDIAN, 1 if LITTLE ENDIAN)"
+		{"-ig2", "--inputImageGeometry2", "{int int int int int[ int[ int]]}", "", "0", "1",
+			"Geometry of raw image data 2. Parameters are:\n    1- zSize (number of image components)\n    2- ySize (image height)\n    3- xSize (image width)\n    4- data type. Possible values are:\n      0- boolean (1 byte)\n      1- unsigned int (1 byte)\n      2- unsigned int (2 bytes)\n      3- signed int (2 bytes)\n      4- signed int (4 bytes)\n      5- signed int (8 bytes)\n      6- float (4 bytes)\n      7- double (8 bytes)\n    5- Byte order (0 if BIG ENDIAN, 1 if LITTLE ENDIAN)\n    6- Sample layout (optional, 0 if not given). Possible values are:\n      0- BSQ (band sequential: all the rows of each component)\n      1- BIL (band interleaved by line: each row of all the components)\n      2- BIP (band interleaved by pixel: all the components of each pixel)\n    7- Header offset (optional, 0 if not given): number of bytes before the samples\nWhen it is given, it is used instead of the ENVI header of the image."
 		},
-		{"-c", "--component", "{int}", "", "0", "1",
-			"If this flag is enabled it indicates the component to compare. Values allowed are positve intergers greater than 0. 1 for the first component, 2 for the second component and succesively. Original image, could be multi, hyper or ultra spectral, while second image is monocomponent. Parameters are:\n    1- The component to compare."
+		{"-c", "--component", "{int[ int[ ...]]}", "", "0", "1",
+			"If this flag is enabled it indicates the components to compare. Values allowed are positve intergers greater than 0. 1 for the first component, 2 for the second component and succesively. Several components can be given, separated by spaces or commas, and ranges of components as \"first-last\" (for instance \"-c 1 3 5\" or \"-c 2-5\"). Original image, could be multi, hyper or ultra spectral, while second image may have all the components of the original image or only the compared ones. Only the compared components are read from raw images. Parameters are:\n    1- The components to compare."
 		},
 		{"-mk", "--mask", "{string}", "", "0", "1",
 			"Mask that indicates the samples to be compared with the original image. Values of the mask can be ranged from 0 to 255. If is a black and white mask, the white sample will be compared with the original mask, the black ones will be ignored."
 		},
 		{"-inv", "--inverse", "{int}", "0", "0", "1",
-			"Inverse the mask utility. Valid ones are:\n    0- Mask is used as default utility, like is exposed in -mk parameter\n    1- Mask is used inverting his usability, all samples different to black are set to black, and the black samples will be changed to white."
+			"Inverse the mask utility. Valid ones are:\n    0- Mask is used as default utility, like is exposed in -mk parameter\n    1- Mask is used inverting his usability, all samples different to black are set to black, and the black samples will be changed to white. A mask with a single component, which is used for all the image components, is inverted once for all of them (previous versions inverted it once per component, so images with an even number of components were compared with the mask not inverted)."
 		},
-		{"-nd", "--noDataValues", "{float[ float[ float[ ...]]]}", "no No-data values", "0", "1",
-			"Pixels in the input image (-i1) considered No-data values. No-data values will not be considered in the image comparasion."
+		{"-nd", "--noDataValues", "{double[ double[ double[ ...]]]}", "no No-data values", "0", "1",
+			"Pixels in the input image (-i1) considered No-data values. No-data values will not be considered in the image comparasion. NaN, Infinity and -Infinity are also valid no-data values. Values are matched at full precision (a decimal value also matches its nearest float in float images)."
 		},
 		{"-m", "--measure", "{int}", "0", "0", "1",
 			"Measure to show. Valid ones are:\n    0- All measures will be shown\n    1- MAE Mean Absolute Error\n    2- PAE Peak Absolute Error\n    3- MSE Mean Squared Error or P-MSE if mask and weights values are defined\n    4- RMSE Root Mean Squared Error\n    5- ME Mean Error\n    6- SNR Signal to Noise Ratio\n    7- PSNR Peak Signal to Noise Ratio\n    8- PSNR-S computed as is said in Salomon's book, or P-PNSR if mask and weights values are defined\n    9- SNRVAR Signal to Noise Ratio calculated with the original image Variance\n    10- EQUALITY"
@@ -87,18 +93,29 @@ public class GcompParser extends ArgumentsParser{
 		{"-iv", "--inputVarianze", "{string}", "", "0", "1",
 			"Input varianze file. This file could be generated by Gstat, only with -f 1 and -s 10.\n"
 		},
+		{"-th", "--threads", "{int}", "1", "0", "1",
+			"Number of threads used to compare the images. Images are split in bands of rows that are compared in parallel, and the results are exactly the same whatever the number of threads is."
+		},
+		{"-eq", "--equality", "{int}", "0", "0", "1",
+			"Checks only whether the images are equal (1) instead of computing the measures (0). Samples are compared as they are read (the bytes of raw images with the same sample type and byte order are compared directly) and the comparison stops at the first sample that differs, whose component, row and column are shown. It cannot be used with masks nor no-data values."
+		},
 		{"-h", "--help", "", "", "0", "1",
 			"Displays this help and exits program."
 		}
 	};
 
+	/**
+	 * Greatest component that can be given in -c. It is checked before ranges are expanded, so that a mistyped range does not exhaust the memory (and it is far above the components of any spectral image).
+	 */
+	static final int MAX_COMPONENT = 65536;
+
 	//ARGUMENTS VARIABLES
 	String imageFile1 = "";
 	int[] imageGeometry1 = null;
-	String imageFile2 = "";
+	String[] imageFiles2 = {""};
 	int[] imageGeometry2 = null;
 	String maskFile = null;
-	float[] noDataValues = null;
+	double[] noDataValues = null;
 	float[] ROIValues = null;
 	int measure = 0;
 	int format = 0;
@@ -107,7 +124,9 @@ public class GcompParser extends ArgumentsParser{
 	int[] pixelBitDepth = null;
 	String energyFile ="";
 	String varianzeFile ="";
-	int component = -1;
+	int[] components = null;
+	int threads = 1;
+	int equality = 0;
 
 	/**
 	 * Receives program arguments and parses it, setting to arguments variables.
@@ -138,29 +157,28 @@ public class GcompParser extends ArgumentsParser{
 		switch(argFound){
 		case  0: //-i1  --inputImage1
 			imageFile1 = parseString(options);
-			if(LoadFile.isRaw(imageFile1)){
+			if(LoadFile.isRaw(imageFile1) && EnviHeader.getHeaderFile(imageFile1) == null){
 				compArguments[1][4] = "1";
 			}
 			break;
 		case  1: //-ig1  --inputImageGeometry1
-			imageGeometry1 = parseIntegerArray(options, 5);
+			imageGeometry1 = parseImageGeometry(options);
 			checkImageGeometry(imageGeometry1);
 			break;
 		case  2: //-i2  --inputImage2
-			imageFile2 = parseString(options);
-			if(LoadFile.isRaw(imageFile2)){
-				compArguments[3][4] = "1";
+			imageFiles2 = parseImageList(options);
+			for(String imageFile: imageFiles2){
+				if(LoadFile.isRaw(imageFile) && EnviHeader.getHeaderFile(imageFile) == null){
+					compArguments[3][4] = "1";
+				}
 			}
 			break;
 		case  3: //-ig2  --inputImageGeometry2
-			imageGeometry2 = parseIntegerArray(options, 5);
+			imageGeometry2 = parseImageGeometry(options);
 			checkImageGeometry(imageGeometry2);
 			break;
 		case 4: //-c  --component
-			component = parseIntegerPositive(options);
-			if((component <= 0)){
-				throw new ParameterException("Component must be greater than 0.");
-			}
+			components = parseComponents(options);
 			break;
 		case 5: //-mk  --mask
 			maskFile = parseString(options);
@@ -175,7 +193,7 @@ public class GcompParser extends ArgumentsParser{
 			}
 			break;
 		case 7: //-nd  --noDataValues
-			noDataValues = parseFloatArray(options);
+			noDataValues = parseDoubleArray(options);
 			break;
 		case 8: //-m --measure
 			measure = parseIntegerPositive(options);
@@ -218,7 +236,19 @@ public class GcompParser extends ArgumentsParser{
 		case 14: //-ie --inputEnergy
 			varianzeFile = parseString(options);
 			break;
-		case  15: //-h  --help
+		case 15: //-th --threads
+			threads = parseIntegerPositive(options);
+			if(threads <= 0){
+				throw new ParameterException("Threads must be greater than 0.");
+			}
+			break;
+		case 16: //-eq --equality
+			equality = parseIntegerPositive(options);
+			if((equality < 0) || (equality > 1)){
+				throw new ParameterException("Equality must be 0 or 1.");
+			}
+			break;
+		case  17: //-h  --help
 			showArgsInfo();
 			System.exit(0);
 			break;
@@ -243,6 +273,143 @@ public class GcompParser extends ArgumentsParser{
 		if((imageGeometry[4] != 0) && (imageGeometry[4] != 1)){
 			throw new ParameterException("Image byte order  in \".raw\" or \".img\" data must be 0 or 1 (\"-h\" displays help).");
 		}
+		if((imageGeometry[5] < RawImageReader.BSQ) || (imageGeometry[5] > RawImageReader.BIP)){
+			throw new ParameterException("Image sample layout in \".raw\" or \".img\" data must be between 0 to 2 (\"-h\" displays help).");
+		}
+		if(imageGeometry[6] < 0){
+			throw new ParameterException("Image header offset in \".raw\" or \".img\" data must be positive (\"-h\" displays help).");
+		}
+	}
+
+	/**
+	 * Parses the geometry of a raw image, whose sample layout and header offset are optional.
+	 *
+	 * @param options the command line options of the argument
+	 * @return the geometry, with the sample layout as the sixth value (BSQ when it is not given) and the header offset as the seventh one (0 when it is not given)
+	 *
+	 * @throws ParameterException when the number of values is wrong or they are not integers
+	 */
+	int[] parseImageGeometry(String[] options) throws ParameterException{
+		int values = Math.max(5, Math.min(options.length - 1, 7));
+		int[] imageGeometry = new int[]{0, 0, 0, 0, 0, RawImageReader.BSQ, 0};
+		System.arraycopy(parseIntegerArray(options, values), 0, imageGeometry, 0, values);
+		return(imageGeometry);
+	}
+
+	/**
+	 * Parses a list of double values.
+	 *
+	 * @param options the command line options of the argument
+	 * @return the values
+	 *
+	 * @throws ParameterException when there are no values or they are not doubles
+	 */
+	double[] parseDoubleArray(String[] options) throws ParameterException{
+		if(options.length < 2){
+			throw new ParameterException("Argument \"" + options[0] + "\" takes one or more options. Try \"-h\" to display help.");
+		}
+		double[] value = new double[options.length - 1];
+		for(int numOption = 1; numOption < options.length; numOption++){
+			try{
+				value[numOption - 1] = Double.parseDouble(options[numOption]);
+			}catch(NumberFormatException e){
+				throw new ParameterException("\"" + options[numOption] + "\" of argument \"" + options[0] + "\" is not a parsable double.");
+			}
+		}
+		return(value);
+	}
+
+	/**
+	 * Parses a list of image names. When there is only one name and it starts with "@", the names are read from that file (one per line, empty lines and lines starting with "#" are ignored).
+	 *
+	 * @param options the command line options of the argument
+	 * @return the image names
+	 *
+	 * @throws ParameterException when there are no names or the file cannot be read
+	 */
+	String[] parseImageList(String[] options) throws ParameterException{
+		if(options.length < 2){
+			throw new ParameterException("Argument \"" + options[0] + "\" takes one option at least. Try \"-h\" to display help.");
+		}
+		if(options.length > 2 || !options[1].startsWith("@")){
+			String[] imageFiles = new String[options.length - 1];
+			System.arraycopy(options, 1, imageFiles, 0, imageFiles.length);
+			return(imageFiles);
+		}
+
+		String listFile = options[1].substring(1);
+		List<String> imageFiles = new ArrayList<String>();
+		try{
+			BufferedReader reader = new BufferedReader(new FileReader(listFile));
+			try{
+				String line;
+				while((line = reader.readLine()) != null){
+					line = line.trim();
+					if(line.length() > 0 && !line.startsWith("#")){
+						imageFiles.add(line);
+					}
+				}
+			}finally{
+				reader.close();
+			}
+		}catch(IOException e){
+			throw new ParameterException("Image list \"" + listFile + "\" cannot be read.");
+		}
+		if(imageFiles.size() == 0){
+			throw new ParameterException("Image list \"" + listFile + "\" is empty.");
+		}
+		return(imageFiles.toArray(new String[imageFiles.size()]));
+	}
+
+	/**
+	 * Parses a list of components, given as numbers or ranges ("first-last") separated by spaces or commas.
+	 *
+	 * @param options the command line options of the argument
+	 * @return the components numbered from 0, in increasing order and without repetitions
+	 *
+	 * @throws ParameterException when a component is not a number, it is not greater than 0 or it is greater than {@link #MAX_COMPONENT}
+	 */
+	int[] parseComponents(String[] options) throws ParameterException{
+		if(options.length < 2){
+			throw new ParameterException("Argument \"" + options[0] + "\" takes one option at least. Try \"-h\" to display help.");
+		}
+		TreeSet<Integer> parsed = new TreeSet<Integer>();
+		for(int option = 1; option < options.length; option++){
+			for(String value: options[option].split(",")){
+				if(value.length() == 0){
+					continue;
+				}
+				int separator = value.indexOf('-', 1);
+				int first, last;
+				try{
+					first = Integer.parseInt(separator == -1 ? value : value.substring(0, separator));
+					last = separator == -1 ? first : Integer.parseInt(value.substring(separator + 1));
+				}catch(NumberFormatException e){
+					throw new ParameterException("Argument \"" + options[0] + "\" takes components or ranges of components (\"" + value + "\" is not valid).");
+				}
+				if((first <= 0) || (last <= 0)){
+					throw new ParameterException("Component must be greater than 0.");
+				}
+				if(first > last){
+					throw new ParameterException("The first component of a range must not be greater than the last one.");
+				}
+				if(last > MAX_COMPONENT){
+					throw new ParameterException("Component must not be greater than " + MAX_COMPONENT + ".");
+				}
+				for(int component = first; component <= last; component++){
+					parsed.add(component - 1);
+				}
+			}
+		}
+		if(parsed.isEmpty()){
+			throw new ParameterException("Argument \"" + options[0] + "\" takes one option at least. Try \"-h\" to display help.");
+		}
+		int[] components = new int[parsed.size()];
+		int position = 0;
+		for(int component: parsed){
+			components[position++] = component;
+		}
+		return(components);
 	}
 
 	//ARGUMENTS GET FUNCTIONS
@@ -253,10 +420,13 @@ public class GcompParser extends ArgumentsParser{
 		return(imageGeometry1);
 	}
 	public String getImageFile2(){
-		return(imageFile2);
+		return(imageFiles2[0]);
+	}
+	public String[] getImageFiles2(){
+		return(imageFiles2);
 	}
-	public int getComponent(){
-		return(component);
+	public int[] getComponents(){
+		return(components);
 	}
 	public String getMaskFile(){
 		return(maskFile);
@@ -264,7 +434,7 @@ public class GcompParser extends ArgumentsParser{
 	public int getInverse(){
 		return(inverse);
 	}
-	public float[] getNoDataValues(){
+	public double[] getNoDataValues(){
 		return(noDataValues);
 	}
 	public int[] getImageGeometry2(){
@@ -291,6 +461,12 @@ public class GcompParser extends ArgumentsParser{
 	public int[] getPixelBitDepth(){
 		return(pixelBitDepth);
 	}
+	public int getThreads(){
+		return(threads);
+	}
+	public int getEquality(){
+		return(equality);
+	}
 
 }
 
@@ -0,0 +1,157 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package Gcomp.jUnits;
+import java.util.Arrays;
+
+import Gcomp.*;
+import GiciException.*;
+
+
+/**
+ * This class checks the parsing of the components given in -c (see {@link GcompParser}): numbers and ranges separated by spaces or commas, which are numbered from 0, sorted and without repetitions, and the rejection of components out of bounds or that are not numbers or ranges.
+ * <p>
+ * Usage: java Gcomp.jUnits.GcompParserTest (exits with status 1 if some check fails).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class GcompParserTest{
+
+	/**
+	 * Options of -c and the components they give (numbered from 0).
+	 */
+	static final Object[][] VALID = {
+		{new String[]{"3"}, new int[]{2}},
+		{new String[]{"1", "3", "5"}, new int[]{0, 2, 4}},
+		{new String[]{"1,3,5"}, new int[]{0, 2, 4}},
+		{new String[]{"2-4"}, new int[]{1, 2, 3}},
+		{new String[]{"7-7"}, new int[]{6}},
+		{new String[]{"1-3,5", "8-9"}, new int[]{0, 1, 2, 4, 7, 8}},
+		{new String[]{"5,1-3", "2"}, new int[]{0, 1, 2, 4}},
+		{new String[]{"2-4,3-6,4"}, new int[]{1, 2, 3, 4, 5}},
+		{new String[]{"1,,2,"}, new int[]{0, 1}},
+		{new String[]{"65536"}, new int[]{65535}},
+		{new String[]{"65535-65536"}, new int[]{65534, 65535}},
+	};
+
+	/**
+	 * Options of -c that are rejected.
+	 */
+	static final String[][] INVALID = {
+		{"0"},
+		{"-1"},
+		{"0-3"},
+		{"3-2"},
+		{"65537"},
+		{"1-65537"},
+		{"1-2147483647"},
+		{"99999999999"},
+		{"a"},
+		{"1-a"},
+		{"1-"},
+		{"1-2-3"},
+		{"1.5"},
+		{","},
+	};
+
+	/**
+	 * Number of checks done.
+	 */
+	static int checks = 0;
+
+	/**
+	 * Number of checks that fail.
+	 */
+	static int failures = 0;
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args unused
+	 *
+	 * @throws Exception when the parser cannot be invoked
+	 */
+	public static void main(String[] args) throws Exception{
+		for(Object[] valid: VALID){
+			String[] options = (String[]) valid[0];
+			int[] components = null;
+			try{
+				components = parse(options).getComponents();
+			}catch(ParameterException e){
+			}
+			check(Arrays.equals(components, (int[]) valid[1]), "-c " + String.join(" ", options) + " gives " + Arrays.toString(components) + " instead of " + Arrays.toString((int[]) valid[1]));
+		}
+		for(String[] options: INVALID){
+			boolean rejected = false;
+			try{
+				parse(options);
+			}catch(ParameterException e){
+				rejected = true;
+			}
+			check(rejected, "-c " + String.join(" ", options) + " is accepted");
+		}
+		check(parse(new String[0]).getComponents() == null, "components are given without -c");
+
+		System.out.println(checks + " checks done, " + failures + " failed.");
+		if(failures > 0){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Counts a check and reports it when it fails.
+	 *
+	 * @param passed result of the check
+	 * @param failure description of the failure
+	 */
+	static void check(boolean passed, String failure){
+		checks++;
+		if(!passed){
+			failures++;
+			System.out.println("Components: " + failure + ".");
+		}
+	}
+
+	/**
+	 * Parses the arguments of a comparison of two PGM images (which need no geometry) with some options of -c.
+	 *
+	 * @param options the options of -c (none to not give -c)
+	 * @return the parser
+	 *
+	 * @throws ParameterException when the arguments are not valid
+	 * @throws ErrorException when the parser cannot be invoked
+	 */
+	static GcompParser parse(String[] options) throws ParameterException, ErrorException{
+		String[] arguments = {"-i1", "original.pgm", "-i2", "recovered.pgm"};
+		if(options.length > 0){
+			arguments = Arrays.copyOf(arguments, arguments.length + 1 + options.length);
+			arguments[4] = "-c";
+			System.arraycopy(options, 0, arguments, 5, options.length);
+		}
+		return(new GcompParser(arguments));
+	}
+}
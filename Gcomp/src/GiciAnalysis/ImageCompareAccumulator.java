@@ -0,0 +1,871 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+
+import java.math.BigInteger;
+
+/**
+ * This class keeps the intermediate results needed by ImageCompareSA and updates them one row at a time, so that images can be compared without being fully loaded in memory.<br>
+ * The variance of each row is computed with two passes over the row (which is small and stays in cache) and it is merged into the component variance using the parallel algorithm of Chan et al., so the result is numerically stable without a second pass over the image.<br>
+ * When both images have integer samples (and errors are not weighted) sums are accumulated exactly with integers of 128 bits, and they are only rounded to double once all the rows have been added (see {@link #roundExactSums}).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ImageCompareAccumulator{
+
+	/**
+	 * Number of valid pixels (those in the foreground of the mask) for each component.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	long[] pixels = null;
+
+	/**
+	 * Mean of the valid pixels of the original image for each component.
+	 * <p>
+	 * All values allowed.
+	 */
+	double[] mean = null;
+
+	/**
+	 * Sum of squared differences to the mean of the valid pixels of the original image for each component.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	double[] squaredDifferenceSum = null;
+
+	/**
+	 * Sum of the squared valid pixels of the original image for each component.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	double[] energy = null;
+
+	/**
+	 * Sum of absolute errors for each component.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	double[] absoluteErrorSum = null;
+
+	/**
+	 * Peak absolute error for each component.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	double[] absoluteErrorPeak = null;
+
+	/**
+	 * Sum of squared errors for each component.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	double[] squaredErrorSum = null;
+
+	/**
+	 * Sum of errors for each component.
+	 * <p>
+	 * All values allowed.
+	 */
+	double[] errorSum = null;
+
+	/**
+	 * Minimum sample of both images for each component.
+	 * <p>
+	 * All values allowed.
+	 */
+	double[] min = null;
+
+	/**
+	 * Maximum sample of both images for each component.
+	 * <p>
+	 * All values allowed.
+	 */
+	double[] max = null;
+
+	/**
+	 * Contains the relationship between mask values and weights to be applied during the distortion measure calculation
+	 * <p>
+	 * Only positive values allowed
+	 */
+	float[] ROIValues = null;
+
+	/**
+	 * Compares rows one sample at a time with the reference implementation, instead of using the kernels that the JIT compiler can vectorize. It is set with the system property GiciAnalysis.scalarKernels.
+	 */
+	static boolean scalarKernels = Boolean.getBoolean("GiciAnalysis.scalarKernels");
+
+	/**
+	 * Intermediate results that can be requested (flags of {@link #results}): sum of absolute errors, peak absolute error, sum of squared errors, sum of errors, energy and variance of the original image. Pixel counts and extreme samples are always computed.
+	 */
+	public static final int ABSOLUTE_ERROR = 1, PEAK_ERROR = 2, SQUARED_ERROR = 4, MEAN_ERROR = 8, SIGNAL_ENERGY = 16, SIGNAL_VARIANCE = 32, ALL_RESULTS = 63;
+
+	/**
+	 * Intermediate results that have to be computed (flags ABSOLUTE_ERROR, PEAK_ERROR, ...). Rows are compared in a single sweep that only looks for the peak error when it is the only result needed, and the variance sweep is done only when SIGNAL_VARIANCE is set. Results not requested are undefined.
+	 */
+	int results = ALL_RESULTS;
+
+	/**
+	 * Factors of the prioritized measures for each mask value (index is the mask sample + 128), null if ROIValues is null. It is built once, so that the factor of a sample is found without searching ROIValues.
+	 */
+	double[] factors = null;
+
+	/**
+	 * Samples of both images are integers in the range [-2^integerBits, 2^integerBits), or 0 if sums are accumulated in double.
+	 * <p>
+	 * Only values from 0 to 31 allowed.
+	 */
+	int integerBits = 0;
+
+	/**
+	 * Indexes of the exact sums in exactHigh and exactLow.
+	 */
+	static final int SUM = 0, ENERGY = 1, ABSOLUTE_ERROR_SUM = 2, SQUARED_ERROR_SUM = 3, ERROR_SUM = 4;
+
+	/**
+	 * Mask of the least significant 64 bits.
+	 */
+	static final BigInteger LOW_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+	/**
+	 * Most significant 64 bits (signed) of the exact sums for each component (index are [sum][z]), null if integerBits is 0.
+	 * <p>
+	 * All values allowed.
+	 */
+	long[][] exactHigh = null;
+
+	/**
+	 * Least significant 64 bits (unsigned) of the exact sums for each component (index are [sum][z]), null if integerBits is 0.
+	 * <p>
+	 * All values allowed.
+	 */
+	long[][] exactLow = null;
+
+	/**
+	 * Allocates the intermediate results for an image, accumulated in double.
+	 *
+	 * @param zSize number of components of the original image
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 */
+	public ImageCompareAccumulator(int zSize, float[] ROIValues){
+		this(zSize, ROIValues, 0);
+	}
+
+	/**
+	 * Allocates the intermediate results for an image.
+	 *
+	 * @param zSize number of components of the original image
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 * @param integerBits samples of both images are integers in the range [-2^integerBits, 2^integerBits) with integerBits up to 31, or 0 to accumulate in double (it must be 0 when ROIValues is not null)
+	 */
+	public ImageCompareAccumulator(int zSize, float[] ROIValues, int integerBits){
+		assert(integerBits >= 0 && integerBits <= 31 && (integerBits == 0 || ROIValues == null));
+
+		this.ROIValues = ROIValues;
+		this.integerBits = integerBits;
+		if(ROIValues != null){
+			factors = new double[256];
+			for(int maskSample = Byte.MIN_VALUE; maskSample <= Byte.MAX_VALUE; maskSample++){
+				factors[maskSample + 128] = getFactor(ROIValues, (byte) maskSample);
+			}
+		}
+		if(integerBits > 0){
+			exactHigh = new long[ERROR_SUM + 1][zSize];
+			exactLow = new long[ERROR_SUM + 1][zSize];
+		}
+
+		pixels = new long[zSize];
+		mean = new double[zSize];
+		squaredDifferenceSum = new double[zSize];
+		energy = new double[zSize];
+		absoluteErrorSum = new double[zSize];
+		absoluteErrorPeak = new double[zSize];
+		squaredErrorSum = new double[zSize];
+		errorSum = new double[zSize];
+		min = new double[zSize];
+		max = new double[zSize];
+
+		for(int z = 0; z < zSize; z++){
+			absoluteErrorPeak[z] = Double.NEGATIVE_INFINITY;
+			min[z] = Double.MAX_VALUE;
+			max[z] = Double.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Adds one row of both images to the intermediate results of a component. All the results are updated in a single sweep over the row; only the variance needs a second one, which is done over the (already cached) samples of the original image.
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param row2 samples of the recovered image
+	 * @param maskRow mask samples of the row (null if there is no mask)
+	 * @param xSize number of samples of the row
+	 */
+	public void addRow(int z, double[] row1, double[] row2, byte[] maskRow, int xSize){
+		if(results == PEAK_ERROR){
+			addPeakRow(z, row1, row2, maskRow, 0, xSize);
+			return;
+		}
+		if(integerBits > 0){
+			if(integerBits <= 16 && xSize <= 1 << 28){
+				addNarrowRow(z, row1, row2, maskRow, 0, xSize);
+			}else{
+				addWideRow(z, row1, row2, maskRow, 0, xSize);
+			}
+			return;
+		}
+
+		long rowPixels;
+		if(scalarKernels){
+			rowPixels = addScalarRow(z, row1, row2, maskRow, 0, xSize);
+		}else if(maskRow == null){
+			rowPixels = addUnmaskedRow(z, row1, row2, 0, xSize);
+		}else{
+			rowPixels = addMaskedRow(z, row1, row2, maskRow, 0, xSize);
+		}
+
+		if(rowPixels > 0){
+			if((results & SIGNAL_VARIANCE) != 0){
+				addRowVariance(z, row1, maskRow, xSize, rowPixels);
+			}else{
+				pixels[z] += rowPixels;
+			}
+		}
+	}
+
+	/**
+	 * Adds the valid samples of one row of both images, given as runs of consecutive valid samples, to the intermediate results of a component. Only the samples of the runs are visited, with the kernels used for rows without mask. It can only be used with no-data masks (ROIValues must be null).
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param row2 samples of the recovered image
+	 * @param runs first and last (exclusive) sample of each run, in increasing order (index is 2*run and 2*run+1)
+	 * @param runCount number of runs
+	 */
+	public void addRuns(int z, double[] row1, double[] row2, int[] runs, int runCount){
+		assert(ROIValues == null);
+
+		if(results == PEAK_ERROR){
+			for(int run = 0; run < runCount; run++){
+				addPeakRow(z, row1, row2, null, runs[2 * run], runs[2 * run + 1]);
+			}
+			return;
+		}
+		if(integerBits > 0){
+			for(int run = 0; run < runCount; run++){
+				if(integerBits <= 16 && runs[2 * run + 1] - runs[2 * run] <= 1 << 28){
+					addNarrowRow(z, row1, row2, null, runs[2 * run], runs[2 * run + 1]);
+				}else{
+					addWideRow(z, row1, row2, null, runs[2 * run], runs[2 * run + 1]);
+				}
+			}
+			return;
+		}
+
+		long rowPixels = 0;
+		for(int run = 0; run < runCount; run++){
+			if(scalarKernels){
+				rowPixels += addScalarRow(z, row1, row2, null, runs[2 * run], runs[2 * run + 1]);
+			}else{
+				rowPixels += addUnmaskedRow(z, row1, row2, runs[2 * run], runs[2 * run + 1]);
+			}
+		}
+
+		if(rowPixels > 0){
+			if((results & SIGNAL_VARIANCE) != 0){
+				addRunsVariance(z, row1, runs, runCount, rowPixels);
+			}else{
+				pixels[z] += rowPixels;
+			}
+		}
+	}
+
+	/**
+	 * Adds the peak absolute error, the number of valid pixels and the extreme samples of a row, when no other result is needed. Absolute errors of integer samples are exact in double, so it is also used when sums are accumulated with integers.
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param row2 samples of the recovered image
+	 * @param maskRow mask samples of the row (null if there is no mask)
+	 * @param begin first sample of the row to add
+	 * @param end last sample of the row to add (exclusive)
+	 */
+	private void addPeakRow(int z, double[] row1, double[] row2, byte[] maskRow, int begin, int end){
+		double factor = getFactor((byte) 1);
+		double[] factors = this.factors;
+
+		long rowPixels = 0;
+		double rowAbsoluteErrorPeak = absoluteErrorPeak[z];
+		double rowMin = min[z];
+		double rowMax = max[z];
+
+		for(int x = begin; x < end; x++){
+			double sample1 = row1[x];
+			double sample2 = row2[x];
+			boolean valid = maskRow == null || maskRow[x] == 1;
+			double error;
+			if(maskRow == null){
+				error = (sample1 - sample2) * factor;
+			}else if(factors != null){
+				error = (sample1 - sample2) * factors[maskRow[x] + 128];
+			}else{
+				error = valid ? sample1 - sample2 : 0D;
+			}
+
+			rowPixels += valid ? 1 : 0;
+			rowAbsoluteErrorPeak = Math.max(rowAbsoluteErrorPeak, Math.abs(error));
+			rowMin = Math.min(Math.min(sample1, sample2), rowMin);
+			rowMax = Math.max(Math.max(sample1, sample2), rowMax);
+		}
+
+		pixels[z] += rowPixels;
+		absoluteErrorPeak[z] = rowAbsoluteErrorPeak;
+		min[z] = rowMin;
+		max[z] = rowMax;
+	}
+
+	/**
+	 * Adds the energy, errors and extreme samples of a row without mask. There are no branches nor calls in the loop, so the JIT compiler can use SIMD instructions for it.
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param row2 samples of the recovered image
+	 * @param begin first sample of the row to add
+	 * @param end last sample of the row to add (exclusive)
+	 * @return number of valid pixels of the row
+	 */
+	private long addUnmaskedRow(int z, double[] row1, double[] row2, int begin, int end){
+		// Without mask all the samples have the factor of the mask value 1
+		double factor = ROIValues == null ? 1D : getFactor((byte) 1);
+		double rowEnergy = energy[z];
+		double rowAbsoluteErrorSum = absoluteErrorSum[z];
+		double rowAbsoluteErrorPeak = absoluteErrorPeak[z];
+		double rowSquaredErrorSum = squaredErrorSum[z];
+		double rowErrorSum = errorSum[z];
+		double rowMin = min[z];
+		double rowMax = max[z];
+
+		for(int x = begin; x < end; x++){
+			double sample1 = row1[x];
+			double sample2 = row2[x];
+			double error = (sample1 - sample2) * factor;
+			double absoluteError = Math.abs(error);
+
+			rowEnergy += sample1 * sample1;
+			rowAbsoluteErrorSum += absoluteError;
+			rowAbsoluteErrorPeak = Math.max(rowAbsoluteErrorPeak, absoluteError);
+			rowSquaredErrorSum += error * error;
+			rowErrorSum += error;
+			rowMin = Math.min(Math.min(sample1, sample2), rowMin);
+			rowMax = Math.max(Math.max(sample1, sample2), rowMax);
+		}
+
+		energy[z] = rowEnergy;
+		absoluteErrorSum[z] = rowAbsoluteErrorSum;
+		absoluteErrorPeak[z] = rowAbsoluteErrorPeak;
+		squaredErrorSum[z] = rowSquaredErrorSum;
+		errorSum[z] = rowErrorSum;
+		min[z] = rowMin;
+		max[z] = rowMax;
+		return(end - begin);
+	}
+
+	/**
+	 * Adds the energy, errors and extreme samples of a masked row. Samples out of the mask are discarded with selections instead of branches and the factors of the prioritized measures are looked up in the factor table, so the JIT compiler can use SIMD instructions for it.
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param row2 samples of the recovered image
+	 * @param maskRow mask samples of the row
+	 * @param begin first sample of the row to add
+	 * @param end last sample of the row to add (exclusive)
+	 * @return number of valid pixels of the row
+	 */
+	private long addMaskedRow(int z, double[] row1, double[] row2, byte[] maskRow, int begin, int end){
+		double[] factors = this.factors;
+
+		long rowPixels = 0;
+		double rowEnergy = energy[z];
+		double rowAbsoluteErrorSum = absoluteErrorSum[z];
+		double rowAbsoluteErrorPeak = absoluteErrorPeak[z];
+		double rowSquaredErrorSum = squaredErrorSum[z];
+		double rowErrorSum = errorSum[z];
+		double rowMin = min[z];
+		double rowMax = max[z];
+
+		for(int x = begin; x < end; x++){
+			double sample1 = row1[x];
+			double sample2 = row2[x];
+			boolean valid = maskRow[x] == 1;
+			double error;
+			if(factors != null){
+				//Difference for the P-MSE
+				error = (sample1 - sample2) * factors[maskRow[x] + 128];
+			}else{
+				error = valid ? sample1 - sample2 : 0D;
+			}
+			double absoluteError = Math.abs(error);
+
+			rowEnergy += valid ? sample1 * sample1 : 0D;
+			rowPixels += valid ? 1 : 0;
+			rowAbsoluteErrorSum += absoluteError;
+			rowAbsoluteErrorPeak = Math.max(rowAbsoluteErrorPeak, absoluteError);
+			rowSquaredErrorSum += error * error;
+			rowErrorSum += error;
+			rowMin = Math.min(Math.min(sample1, sample2), rowMin);
+			rowMax = Math.max(Math.max(sample1, sample2), rowMax);
+		}
+
+		energy[z] = rowEnergy;
+		absoluteErrorSum[z] = rowAbsoluteErrorSum;
+		absoluteErrorPeak[z] = rowAbsoluteErrorPeak;
+		squaredErrorSum[z] = rowSquaredErrorSum;
+		errorSum[z] = rowErrorSum;
+		min[z] = rowMin;
+		max[z] = rowMax;
+		return(rowPixels);
+	}
+
+	/**
+	 * Adds the energy, errors and extreme samples of a row one sample at a time (reference implementation, used when scalarKernels is set).
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param row2 samples of the recovered image
+	 * @param maskRow mask samples of the row (null if there is no mask)
+	 * @param begin first sample of the row to add
+	 * @param end last sample of the row to add (exclusive)
+	 * @return number of valid pixels of the row
+	 */
+	private long addScalarRow(int z, double[] row1, double[] row2, byte[] maskRow, int begin, int end){
+		long rowPixels = 0;
+		double rowEnergy = energy[z];
+		double rowAbsoluteErrorSum = absoluteErrorSum[z];
+		double rowAbsoluteErrorPeak = absoluteErrorPeak[z];
+		double rowSquaredErrorSum = squaredErrorSum[z];
+		double rowErrorSum = errorSum[z];
+		double rowMin = min[z];
+		double rowMax = max[z];
+
+		for(int x = begin; x < end; x++){
+			double sample1 = row1[x];
+			double sample2 = row2[x];
+			byte maskSample = maskRow == null ? 1 : maskRow[x];
+
+			//Statistics of the original image
+			if(maskSample == 1){
+				rowEnergy += sample1 * sample1;
+				rowPixels++;
+			}
+
+			//Errors
+			double error = getDiff(sample1, sample2, maskSample);
+
+			rowAbsoluteErrorSum += Math.abs(error);
+			rowAbsoluteErrorPeak = Math.max(rowAbsoluteErrorPeak, Math.abs(error));
+			rowSquaredErrorSum += error * error;
+			rowErrorSum += error;
+
+			rowMin = Math.min(Math.min(sample1, sample2), rowMin);
+			rowMax = Math.max(Math.max(sample1, sample2), rowMax);
+		}
+
+		energy[z] = rowEnergy;
+		absoluteErrorSum[z] = rowAbsoluteErrorSum;
+		absoluteErrorPeak[z] = rowAbsoluteErrorPeak;
+		squaredErrorSum[z] = rowSquaredErrorSum;
+		errorSum[z] = rowErrorSum;
+		min[z] = rowMin;
+		max[z] = rowMax;
+		return(rowPixels);
+	}
+
+	/**
+	 * Merges the variance of the valid samples of a row into the component one.
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param maskRow mask samples of the row (null if there is no mask)
+	 * @param xSize number of samples of the row
+	 * @param rowPixels number of valid pixels of the row (greater than 0)
+	 */
+	private void addRowVariance(int z, double[] row1, byte[] maskRow, int xSize, long rowPixels){
+		// Two iterations are need for numerical stability (it is _not_ possible
+		// to use the abbreviated formula), but both are over a cached row
+		double rowSum = 0;
+		if(maskRow == null){
+			for(int x = 0; x < xSize; x++){
+				rowSum += row1[x];
+			}
+		}else{
+			for(int x = 0; x < xSize; x++){
+				rowSum += maskRow[x] == 1 ? row1[x] : 0D;
+			}
+		}
+
+		double rowMean = rowSum / rowPixels;
+		double rowSquaredDifferenceSum = 0;
+		if(maskRow == null){
+			for(int x = 0; x < xSize; x++){
+				double value = row1[x] - rowMean;
+				rowSquaredDifferenceSum += value * value;
+			}
+		}else{
+			for(int x = 0; x < xSize; x++){
+				double value = row1[x] - rowMean;
+				rowSquaredDifferenceSum += maskRow[x] == 1 ? value * value : 0D;
+			}
+		}
+
+		// Merge the row variance into the component one (Chan et al.)
+		long totalPixels = pixels[z] + rowPixels;
+		double delta = rowMean - mean[z];
+		mean[z] += delta * rowPixels / totalPixels;
+		squaredDifferenceSum[z] += rowSquaredDifferenceSum + delta * delta * ((double) pixels[z] * rowPixels / totalPixels);
+		pixels[z] = totalPixels;
+	}
+
+	/**
+	 * Merges the variance of the samples of the runs of a row into the component one (the variance of the row is computed as in addRowVariance, so that the results are the same).
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param runs first and last (exclusive) sample of each run (index is 2*run and 2*run+1)
+	 * @param runCount number of runs
+	 * @param rowPixels number of samples of the runs (greater than 0)
+	 */
+	private void addRunsVariance(int z, double[] row1, int[] runs, int runCount, long rowPixels){
+		double rowSum = 0;
+		for(int run = 0; run < runCount; run++){
+			for(int x = runs[2 * run]; x < runs[2 * run + 1]; x++){
+				rowSum += row1[x];
+			}
+		}
+
+		double rowMean = rowSum / rowPixels;
+		double rowSquaredDifferenceSum = 0;
+		for(int run = 0; run < runCount; run++){
+			for(int x = runs[2 * run]; x < runs[2 * run + 1]; x++){
+				double value = row1[x] - rowMean;
+				rowSquaredDifferenceSum += value * value;
+			}
+		}
+
+		// Merge the row variance into the component one (Chan et al.)
+		long totalPixels = pixels[z] + rowPixels;
+		double delta = rowMean - mean[z];
+		mean[z] += delta * rowPixels / totalPixels;
+		squaredDifferenceSum[z] += rowSquaredDifferenceSum + delta * delta * ((double) pixels[z] * rowPixels / totalPixels);
+		pixels[z] = totalPixels;
+	}
+
+	/**
+	 * Adds one row of integer samples of up to 16 bits (plus sign). Squared errors (up to 34 bits) of a row of up to 2^28 samples cannot overflow a long, so the row is accumulated with longs and added to the exact sums afterwards.
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param row2 samples of the recovered image
+	 * @param maskRow mask samples of the row (null if there is no mask)
+	 * @param begin first sample of the row to add
+	 * @param end last sample of the row to add (exclusive)
+	 */
+	private void addNarrowRow(int z, double[] row1, double[] row2, byte[] maskRow, int begin, int end){
+		long rowPixels = 0;
+		long rowSum = 0;
+		long rowEnergy = 0;
+		long rowAbsoluteErrorSum = 0;
+		long rowAbsoluteErrorPeak = 0;
+		long rowSquaredErrorSum = 0;
+		long rowErrorSum = 0;
+		long rowMin = Long.MAX_VALUE;
+		long rowMax = Long.MIN_VALUE;
+
+		for(int x = begin; x < end; x++){
+			long sample1 = (long) row1[x];
+			long sample2 = (long) row2[x];
+
+			// Samples out of the mask are discarded multiplying by 0, without branches
+			long valid = maskRow == null || maskRow[x] == 1 ? 1 : 0;
+			long value = sample1 * valid;
+			long error = (sample1 - sample2) * valid;
+			long absoluteError = Math.abs(error);
+
+			rowSum += value;
+			rowEnergy += value * value;
+			rowPixels += valid;
+			rowAbsoluteErrorSum += absoluteError;
+			rowAbsoluteErrorPeak = Math.max(rowAbsoluteErrorPeak, absoluteError);
+			rowSquaredErrorSum += error * error;
+			rowErrorSum += error;
+
+			rowMin = Math.min(Math.min(sample1, sample2), rowMin);
+			rowMax = Math.max(Math.max(sample1, sample2), rowMax);
+		}
+
+		add(SUM, z, rowSum >> 63, rowSum);
+		add(ENERGY, z, 0, rowEnergy);
+		add(ABSOLUTE_ERROR_SUM, z, 0, rowAbsoluteErrorSum);
+		add(SQUARED_ERROR_SUM, z, 0, rowSquaredErrorSum);
+		add(ERROR_SUM, z, rowErrorSum >> 63, rowErrorSum);
+		addRowExtremes(z, rowPixels, rowAbsoluteErrorPeak, rowMin, rowMax, end - begin);
+	}
+
+	/**
+	 * Adds one row of integer samples of up to 31 bits (plus sign). Squared errors need up to 64 unsigned bits, so squares are accumulated in 128 bits (with Math.multiplyHigh) for each sample.
+	 *
+	 * @param z the component the row belongs to
+	 * @param row1 samples of the original image
+	 * @param row2 samples of the recovered image
+	 * @param maskRow mask samples of the row (null if there is no mask)
+	 * @param begin first sample of the row to add
+	 * @param end last sample of the row to add (exclusive)
+	 */
+	private void addWideRow(int z, double[] row1, double[] row2, byte[] maskRow, int begin, int end){
+		long rowPixels = 0;
+		long rowSum = 0;
+		long rowEnergyHigh = 0, rowEnergyLow = 0;
+		long rowAbsoluteErrorSum = 0;
+		long rowAbsoluteErrorPeak = 0;
+		long rowSquaredErrorSumHigh = 0, rowSquaredErrorSumLow = 0;
+		long rowErrorSum = 0;
+		long rowMin = Long.MAX_VALUE;
+		long rowMax = Long.MIN_VALUE;
+
+		for(int x = begin; x < end; x++){
+			long sample1 = (long) row1[x];
+			long sample2 = (long) row2[x];
+
+			if(maskRow == null || maskRow[x] == 1){
+				// Samples of 31 bits: the sum of a row (and of its errors) fits in a long
+				rowSum += sample1;
+				long square = sample1 * sample1;
+				rowEnergyLow += square;
+				rowEnergyHigh += Long.compareUnsigned(rowEnergyLow, square) < 0 ? 1 : 0;
+				rowPixels++;
+
+				long error = sample1 - sample2;
+				long absoluteError = Math.abs(error);
+				rowAbsoluteErrorSum += absoluteError;
+				rowAbsoluteErrorPeak = Math.max(rowAbsoluteErrorPeak, absoluteError);
+				square = error * error;
+				rowSquaredErrorSumLow += square;
+				rowSquaredErrorSumHigh += Math.multiplyHigh(error, error) + (Long.compareUnsigned(rowSquaredErrorSumLow, square) < 0 ? 1 : 0);
+				rowErrorSum += error;
+			}
+
+			rowMin = Math.min(Math.min(sample1, sample2), rowMin);
+			rowMax = Math.max(Math.max(sample1, sample2), rowMax);
+		}
+
+		add(SUM, z, rowSum >> 63, rowSum);
+		add(ENERGY, z, rowEnergyHigh, rowEnergyLow);
+		add(ABSOLUTE_ERROR_SUM, z, 0, rowAbsoluteErrorSum);
+		add(SQUARED_ERROR_SUM, z, rowSquaredErrorSumHigh, rowSquaredErrorSumLow);
+		add(ERROR_SUM, z, rowErrorSum >> 63, rowErrorSum);
+		addRowExtremes(z, rowPixels, rowAbsoluteErrorPeak, rowMin, rowMax, end - begin);
+	}
+
+	/**
+	 * Updates the pixel count, the peak error and the extreme samples of a component with the ones of an integer row.
+	 */
+	private void addRowExtremes(int z, long rowPixels, long rowAbsoluteErrorPeak, long rowMin, long rowMax, int xSize){
+		pixels[z] += rowPixels;
+		if(xSize > 0){
+			absoluteErrorPeak[z] = Math.max(absoluteErrorPeak[z], rowAbsoluteErrorPeak);
+			min[z] = Math.min(min[z], rowMin);
+			max[z] = Math.max(max[z], rowMax);
+		}
+	}
+
+	/**
+	 * Adds a 128 bits integer to an exact sum.
+	 *
+	 * @param sum index of the sum (SUM, ENERGY, ...)
+	 * @param z the component
+	 * @param high most significant 64 bits (signed)
+	 * @param low least significant 64 bits (unsigned)
+	 */
+	private void add(int sum, int z, long high, long low){
+		long result = exactLow[sum][z] + low;
+		exactHigh[sum][z] += high + (Long.compareUnsigned(result, low) < 0 ? 1 : 0);
+		exactLow[sum][z] = result;
+	}
+
+	/**
+	 * @param sum index of the sum (SUM, ENERGY, ...)
+	 * @param z the component
+	 * @return the exact sum
+	 */
+	BigInteger getExact(int sum, int z){
+		return(BigInteger.valueOf(exactHigh[sum][z]).shiftLeft(64).or(BigInteger.valueOf(exactLow[sum][z]).and(LOW_MASK)));
+	}
+
+	/**
+	 * Gives the sum of the squared differences to the mean of some pixels from their exact sums, rounding only the final result.
+	 *
+	 * @param pixels number of pixels
+	 * @param sum exact sum of the pixels
+	 * @param energy exact sum of the squared pixels
+	 * @return the sum of squared differences to the mean
+	 */
+	static double getSquaredDifferenceSum(long pixels, BigInteger sum, BigInteger energy){
+		// pixels * energy - sum^2 is exact, only the final division is rounded
+		BigInteger n = BigInteger.valueOf(pixels);
+		return(n.multiply(energy).subtract(sum.multiply(sum)).doubleValue() / pixels);
+	}
+
+	/**
+	 * Rounds the exact sums to the double results (mean, squared differences to the mean, energy and errors) of all the components. It has to be called once all the rows have been added, and it does nothing if sums are accumulated in double.
+	 */
+	public void roundExactSums(){
+		if(integerBits == 0){
+			return;
+		}
+		for(int z = 0; z < pixels.length; z++){
+			BigInteger sum = getExact(SUM, z);
+			BigInteger energy = getExact(ENERGY, z);
+
+			mean[z] = pixels[z] > 0 ? sum.doubleValue() / pixels[z] : 0;
+			squaredDifferenceSum[z] = pixels[z] > 0 ? getSquaredDifferenceSum(pixels[z], sum, energy) : 0;
+			this.energy[z] = energy.doubleValue();
+			absoluteErrorSum[z] = getExact(ABSOLUTE_ERROR_SUM, z).doubleValue();
+			squaredErrorSum[z] = getExact(SQUARED_ERROR_SUM, z).doubleValue();
+			errorSum[z] = getExact(ERROR_SUM, z).doubleValue();
+		}
+	}
+
+	/**
+	 * Copies the statistics of the original image (pixel count, mean, variance and energy) from the comparison of the same original image, with the same mask, with another image. Both accumulators must have the same integerBits, and the reference one must have computed the requested statistics.
+	 *
+	 * @param reference accumulator of the other comparison, with all its rows added
+	 */
+	public void setReferenceStatistics(ImageCompareAccumulator reference){
+		assert(reference.integerBits == integerBits && reference.pixels.length == pixels.length);
+
+		System.arraycopy(reference.pixels, 0, pixels, 0, pixels.length);
+		System.arraycopy(reference.mean, 0, mean, 0, mean.length);
+		System.arraycopy(reference.squaredDifferenceSum, 0, squaredDifferenceSum, 0, squaredDifferenceSum.length);
+		System.arraycopy(reference.energy, 0, energy, 0, energy.length);
+		if(integerBits > 0){
+			for(int sum: new int[]{SUM, ENERGY}){
+				System.arraycopy(reference.exactHigh[sum], 0, exactHigh[sum], 0, pixels.length);
+				System.arraycopy(reference.exactLow[sum], 0, exactLow[sum], 0, pixels.length);
+			}
+		}
+	}
+
+	/**
+	 * @return true if sums are accumulated exactly with integers
+	 */
+	public boolean isExact(){
+		return(integerBits > 0);
+	}
+
+	/**
+	 * Adds the intermediate results of a band of rows, computed separately with its own accumulator, to the intermediate results of a component. Bands must be merged in the same order every time to obtain the same results.
+	 *
+	 * @param z the component the band belongs to
+	 * @param band accumulator of the band (its results are kept in its component 0)
+	 */
+	public void merge(int z, ImageCompareAccumulator band){
+		if(integerBits > 0){
+			for(int sum = 0; sum <= ERROR_SUM; sum++){
+				add(sum, z, band.exactHigh[sum][0], band.exactLow[sum][0]);
+			}
+			pixels[z] += band.pixels[0];
+			absoluteErrorPeak[z] = Math.max(absoluteErrorPeak[z], band.absoluteErrorPeak[0]);
+			min[z] = Math.min(min[z], band.min[0]);
+			max[z] = Math.max(max[z], band.max[0]);
+			return;
+		}
+
+		energy[z] += band.energy[0];
+		absoluteErrorSum[z] += band.absoluteErrorSum[0];
+		absoluteErrorPeak[z] = Math.max(absoluteErrorPeak[z], band.absoluteErrorPeak[0]);
+		squaredErrorSum[z] += band.squaredErrorSum[0];
+		errorSum[z] += band.errorSum[0];
+		min[z] = Math.min(min[z], band.min[0]);
+		max[z] = Math.max(max[z], band.max[0]);
+
+		if(band.pixels[0] > 0){
+			// Merge the band variance into the component one (Chan et al.)
+			long totalPixels = pixels[z] + band.pixels[0];
+			double delta = band.mean[0] - mean[z];
+			mean[z] += delta * band.pixels[0] / totalPixels;
+			squaredDifferenceSum[z] += band.squaredDifferenceSum[0] + delta * delta * ((double) pixels[z] * band.pixels[0] / totalPixels);
+			pixels[z] = totalPixels;
+		}
+	}
+
+	/**
+	 * @param sample1 sample of the original image
+	 * @param sample2 sample of the recovered image
+	 * @param maskSample mask sample
+	 * @return difference between original and recovered, considering the factor used in prioritized distortion measures
+	 */
+	private double getDiff(double sample1, double sample2, byte maskSample){
+		double diff = 0D;
+
+		if(ROIValues != null){
+			//Difference for the P-MSE
+			diff = (sample1 - sample2) * getFactor(maskSample);
+		}else{
+			//Standard difference calculation
+			if(maskSample == 1){
+				diff = (sample1 - sample2);
+			}
+		}
+		return(diff);
+	}
+
+	/**
+	 * @param maskSample mask sample
+	 * @return factor used in prioritized distortion measures for the mask sample (1 if it has no factor or ROIValues is null)
+	 */
+	private double getFactor(byte maskSample){
+		return(factors == null ? 1D : factors[maskSample + 128]);
+	}
+
+	/**
+	 * Searches the factor of a mask value (used to build the factor table).
+	 *
+	 * @param ROIValues relationship between mask values and weights
+	 * @param maskSample mask sample
+	 * @return factor used in prioritized distortion measures for the mask sample (1 if it has no factor)
+	 */
+	private static double getFactor(float[] ROIValues, byte maskSample){
+		double factor = 1D;
+		for(int i = 0; i < ROIValues.length / 2; i++){
+			if(ROIValues[i*2] - 128 == maskSample){
+				factor = ROIValues[(i*2)+1];
+				i = ROIValues.length;
+			}
+		}
+		return(factor);
+	}
+}
@@ -25,10 +25,24 @@
  * gici-info@deic.uab.es
  */
 package GiciAnalysis;
-import java.util.AbstractSet;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import GiciException.*;
+import GiciFile.LoadFile;
+import GiciFile.RawImageReader;
+import GiciFile.TypedImage;
+import GiciMask.BitMask;
+import GiciMask.GenerateMask;
 
 
 /**
@@ -215,24 +229,58 @@ public class ImageCompareSA{
 	int inverse = 0;
 	
 	/**
-	 * Indicates which is the component to compare.
+	 * Components of the original image to compare (numbered from 0).
 	 */
-	AbstractSet<Integer> components = new ConcurrentSkipListSet<Integer>();
+	ConcurrentSkipListSet<Integer> components = new ConcurrentSkipListSet<Integer>();
 
 	/**
-	 * Original Image
+	 * Indicates if the components to compare have been chosen (otherwise all the components of the original image are compared). Then, each image and mask may have either all the components of the original image or only the compared ones.
 	 */
-	float[][][] image1 = null;
-	
-	/**
-	 * Recovered Image
-	 */
-	float[][][] image2 = null;
-	
+	boolean subset = false;
+
 	/**
 	 * mask
 	 */
 	byte[][][] mask = null;
+
+	/**
+	 * No-data mask packed in bits (used instead of mask when it is not null).
+	 */
+	BitMask bitMask = null;
+
+	/**
+	 * Intermediate results of the comparison.
+	 */
+	ImageCompareAccumulator accumulator = null;
+
+	/**
+	 * Number of rows of the bands in which each component is split to be compared in parallel. It does not depend on the number of threads, so the results are exactly the same whatever the number of threads is.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int BAND_HEIGHT = 64;
+
+	/**
+	 * Intermediate results needed by the measure to show (see {@link ImageCompareAccumulator#results}).
+	 */
+	int results = ImageCompareAccumulator.ALL_RESULTS;
+
+	/**
+	 * Intermediate results of a previous comparison of the same original image, whose statistics of the original image are reused (null if they are computed).
+	 */
+	ImageCompareAccumulator referenceAccumulator = null;
+
+	/**
+	 * Samples of both images are integers in the range [-2^integerBits, 2^integerBits), so they are compared exactly with integers, or 0 if they are compared with doubles.
+	 * <p>
+	 * Only values from 0 to 31 allowed.
+	 */
+	int integerBits = 0;
+
+	/**
+	 * Threads used to compare the bands (when it is 1, bands are compared in the calling thread).
+	 */
+	ExecutorService executor = null;
 	
 	/**
 	 * Constructor that does all the operations to compare images.
@@ -242,14 +290,11 @@ public class ImageCompareSA{
 	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
 	 * @param variance_deprecated is no longer used because is cheap to compute and the aggregated 
 	 * variance is not trivial to compute (although not impossible if you have the energy)
+	 * @param threads number of threads used to compare the images
 	 *
 	 * @throws WarningException when image sizes are not the same
 	 */
-	public ImageCompareSA(float[][][] image1, float[][][] image2, int[] pixelBitDepth, byte[][][] mask, float[] ROIValues, int inverse, int component, int measure, double[] energy_deprecated, double[] variance_deprecated) throws WarningException{
-		
-		this.image1 = image1;
-		this.image2 = image2;
-		this.mask = mask;
+	public ImageCompareSA(float[][][] image1, float[][][] image2, int[] pixelBitDepth, byte[][][] mask, float[] ROIValues, int inverse, int[] components, int measure, double[] energy_deprecated, double[] variance_deprecated, int threads) throws WarningException{
 		
 		//Size set
 		int zSize1 = image1.length;
@@ -260,160 +305,735 @@ public class ImageCompareSA{
 		int ySize2 = image2[0].length;
 		int xSize2 = image2[0][0].length;
 		
-		//FIXME: component will be a set someday
-		if (component == -1) {	
-			for(int z = 0; z < zSize1; z++) {
-				this.components.add(z);
-			}
-		} else {
-			this.components.add(component - 1);
+		int zSize = checkSizes(zSize1, ySize1, xSize1, zSize2, ySize2, xSize2, mask, null, components);
+		
+		setMask(mask, ROIValues);
+		this.ROIValues = ROIValues;
+		this.results = getResults(measure);
+		
+		compare(image1, image2, null, null, zSize, ySize1, xSize1, threads);
+		
+		computeResults(pixelBitDepth, zSize, ySize1, xSize1);
+	}
+
+	/**
+	 * Constructor that does all the operations to compare images whose samples keep their own type. Samples are converted to double, so integer images of up to 53 bits are compared exactly.
+	 *
+	 * @param image1 the original image
+	 * @param image2 the recovered image
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param mask a 3D byte array with the mask samples (index are [z][y][x]), null if there is no mask
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 *
+	 * @throws WarningException when image sizes are not the same
+	 */
+	public ImageCompareSA(TypedImage image1, TypedImage image2, int[] pixelBitDepth, byte[][][] mask, float[] ROIValues, int inverse, int[] components, int measure, int threads) throws WarningException{
+		this(image1, image2, pixelBitDepth, mask, ROIValues, inverse, components, measure, threads, null);
+	}
+
+	/**
+	 * Constructor that compares an original image, already compared with another image, with a new one. The statistics of the original image (energy, mean and variance) are not computed again but taken from the previous comparison, so only the errors are computed.
+	 *
+	 * @param image1 the original image
+	 * @param image2 the recovered image
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param mask a 3D byte array with the mask samples (index are [z][y][x]), null if there is no mask
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 * @param reference a previous comparison of image1, with the same mask, ROIValues and components (null to compute all the statistics)
+	 *
+	 * @throws WarningException when image sizes are not the same
+	 */
+	public ImageCompareSA(TypedImage image1, TypedImage image2, int[] pixelBitDepth, byte[][][] mask, float[] ROIValues, int inverse, int[] components, int measure, int threads, ImageCompareSA reference) throws WarningException{
+		this(image1, image2, pixelBitDepth, mask, null, ROIValues, inverse, components, measure, threads, reference);
+	}
+
+	/**
+	 * Constructor that compares images whose samples keep their own type with a no-data mask packed in bits.
+	 *
+	 * @param image1 the original image
+	 * @param image2 the recovered image
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param bitMask the no-data mask (null if there is no mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 * @param reference a previous comparison of image1, with the same mask and components (null to compute all the statistics)
+	 *
+	 * @throws WarningException when image sizes are not the same
+	 */
+	public ImageCompareSA(TypedImage image1, TypedImage image2, int[] pixelBitDepth, BitMask bitMask, int inverse, int[] components, int measure, int threads, ImageCompareSA reference) throws WarningException{
+		this(image1, image2, pixelBitDepth, null, bitMask, null, inverse, components, measure, threads, reference);
+	}
+
+	/**
+	 * Compares images whose samples keep their own type (see the public constructors).
+	 *
+	 * @throws WarningException when image sizes are not the same
+	 */
+	private ImageCompareSA(TypedImage image1, TypedImage image2, int[] pixelBitDepth, byte[][][] mask, BitMask bitMask, float[] ROIValues, int inverse, int[] components, int measure, int threads, ImageCompareSA reference) throws WarningException{
+
+		//Size set
+		int zSize1 = image1.getZSize();
+		int ySize1 = image1.getYSize();
+		int xSize1 = image1.getXSize();
+
+		int zSize = checkSizes(zSize1, ySize1, xSize1, image2.getZSize(), image2.getYSize(), image2.getXSize(), mask, bitMask, components);
+
+		setMask(mask, ROIValues);
+		if(bitMask != null){
+			this.bitMask = bitMask;
 		}
+		this.ROIValues = ROIValues;
+		this.results = getResults(measure);
+		this.inverse = inverse;
+
+		integerBits = getIntegerBits(image1.getType(), image2.getType());
+		// Statistics can only be reused if they have been accumulated in the same way
+		if(reference != null && reference.accumulator.integerBits == integerBits){
+			referenceAccumulator = reference.accumulator;
+		}
+		compare(null, null, image1, image2, zSize, ySize1, xSize1, threads);
+
+		computeResults(pixelBitDepth, zSize, ySize1, xSize1);
+	}
+
+	/**
+	 * Sets the components to compare and checks that the sizes of the images and the mask are compatible.
+	 *
+	 * @param zSize1 number of components of the original image
+	 * @param ySize1 height of the original image
+	 * @param xSize1 width of the original image
+	 * @param zSize2 number of components of the recovered image
+	 * @param ySize2 height of the recovered image
+	 * @param xSize2 width of the recovered image
+	 * @param mask a 3D byte array with the mask samples (index are [z][y][x]), null if there is no mask
+	 * @param bitMask the no-data mask packed in bits, null if there is no mask or it is given as bytes
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @return number of components of the results (the compared components keep their number in the original image)
+	 *
+	 * @throws WarningException when image sizes are not the same
+	 */
+	private int checkSizes(int zSize1, int ySize1, int xSize1, int zSize2, int ySize2, int xSize2, byte[][][] mask, BitMask bitMask, int[] components) throws WarningException{
+		setComponents(components, zSize1);
 		
 		// Check if images have the same size
-		if(component == -1){
+		if(!subset){
 			if((zSize1 != zSize2) || (ySize1 != ySize2) || (xSize1 != xSize2)){
 				throw new WarningException("Image sizes must be the same to perform comparisons.");
 			}
 		}else{
+			if(!hasComponents(zSize1)){
+				throw new WarningException("The original image does not have so many components.");
+			}
+			if(!hasComponents(zSize2)){
+				throw new WarningException("The recovered image must have all the components of the original image or only the compared ones.");
+			}
 			if((ySize1 != ySize2) || (xSize1 != xSize2)){
 				throw new WarningException("Image sizes (ySize and xSize) must be the same to perform comparisons for a specific component.");
 			}
 		}
 		
-		int maskZSize = 0;
-		int maskYSize = 0;
-		int maskXSize = 0;
-		
+		checkMaskSizes(mask, bitMask, ySize2, xSize2);
+		return(this.components.isEmpty() ? zSize1 : Math.max(zSize1, this.components.last() + 1));
+	}
+
+	/**
+	 * Sets the components to compare.
+	 *
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param zSize1 number of components of the original image (when all of them are compared)
+	 *
+	 * @throws WarningException when the components are not in increasing order
+	 */
+	private void setComponents(int[] components, int zSize1) throws WarningException{
+		subset = components != null;
+		if(!subset){
+			components = new int[zSize1];
+			for(int z = 0; z < zSize1; z++){
+				components[z] = z;
+			}
+		}
+		for(int z = 0; z < components.length; z++){
+			if(components[z] < 0 || (z > 0 && components[z] <= components[z - 1])){
+				throw new WarningException("Components to compare must be different, in increasing order and not negative.");
+			}
+			this.components.add(components[z]);
+		}
+	}
+
+	/**
+	 * Checks that an image or a mask has either all the components of the original image or only the compared ones.
+	 *
+	 * @param zSize number of components of the image or the mask
+	 * @return true if it has them, false otherwise
+	 */
+	private boolean hasComponents(int zSize){
+		return(zSize == components.size() || (subset && !components.isEmpty() && zSize > components.last()));
+	}
+
+	/**
+	 * Gives the position of a compared component in an image or a mask, which has either all the components of the original image or only the compared ones.
+	 *
+	 * @param zSize number of components of the image or the mask
+	 * @param z the compared component (in the original image)
+	 * @param position position of z in the compared components
+	 * @return the position of z in the image or the mask
+	 */
+	private int getIndex(int zSize, int z, int position){
+		return(zSize > components.last() ? z : position);
+	}
+
+	/**
+	 * Checks that the mask has the same size as the recovered image and the needed components.
+	 *
+	 * @param mask a 3D byte array with the mask samples (index are [z][y][x]), null if there is no mask
+	 * @param bitMask the no-data mask packed in bits, null if there is no mask or it is given as bytes
+	 * @param ySize2 height of the recovered image
+	 * @param xSize2 width of the recovered image
+	 *
+	 * @throws WarningException when mask sizes are not the same
+	 */
+	private void checkMaskSizes(byte[][][] mask, BitMask bitMask, int ySize2, int xSize2) throws WarningException{
 		if(mask != null){
-			maskZSize = mask.length;
-			maskYSize = mask[0].length;
-			maskXSize = mask[0][0].length;
-	
 			//Check if the mask has same sizes
-			if((maskZSize != zSize2) || (maskYSize != ySize2) || (maskXSize != xSize2)){
+			if(!hasComponents(mask.length) || (mask[0].length != ySize2) || (mask[0][0].length != xSize2)){
+				throw new WarningException("Mask sizes must be the same to perform comparisons.");
+			}
+		}
+		if(bitMask != null){
+			if(!hasComponents(bitMask.getZSize()) || (bitMask.getYSize() != ySize2) || (bitMask.getXSize() != xSize2)){
 				throw new WarningException("Mask sizes must be the same to perform comparisons.");
 			}
 		}
+	}
+
+	/**
+	 * Keeps the mask. No-data masks are packed in bits, so that rows without valid samples are skipped and rows without invalid samples are compared without mask.
+	 *
+	 * @param mask a 3D byte array with the mask samples (index are [z][y][x]), null if there is no mask
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 */
+	private void setMask(byte[][][] mask, float[] ROIValues){
+		if(mask != null && ROIValues == null){
+			bitMask = new BitMask(mask);
+		}else{
+			this.mask = mask;
+		}
+	}
+
+	/**
+	 * Compares two images kept in memory, either as float arrays or as typed images.
+	 * <p>
+	 * A single pass over both images is done: each row is read from memory once and all the intermediate results (pixel count, energy, variance and errors) are updated from it while it is cached. Components are split in bands of rows that are compared in parallel and merged in order afterwards.
+	 *
+	 * @param floatImage1 the original image (null if typedImage1 is used)
+	 * @param floatImage2 the recovered image (null if typedImage2 is used)
+	 * @param typedImage1 the original image (null if floatImage1 is used)
+	 * @param typedImage2 the recovered image (null if floatImage2 is used)
+	 * @param zSize1 number of components of the results
+	 * @param ySize1 height of the original image
+	 * @param xSize1 width of the original image
+	 * @param threads number of threads used to compare the images
+	 *
+	 * @throws WarningException when the comparison of a band fails
+	 */
+	private void compare(float[][][] floatImage1, float[][][] floatImage2, TypedImage typedImage1, TypedImage typedImage2, int zSize1, int ySize1, int xSize1, int threads) throws WarningException{
+		accumulator = new ImageCompareAccumulator(zSize1, ROIValues, integerBits);
+		// Statistics of the original image are copied from the reference comparison
+		accumulator.results = referenceAccumulator == null ? results : results & ~ImageCompareAccumulator.SIGNAL_VARIANCE;
+		List<FutureTask<ImageCompareAccumulator>> bands = new ArrayList<FutureTask<ImageCompareAccumulator>>();
+		List<Integer> bandComponents = new ArrayList<Integer>();
+
+		// Images may have all the components of the original image or only the compared ones
+		int imageZSize1 = floatImage1 != null ? floatImage1.length : typedImage1.getZSize();
+		int imageZSize2 = floatImage2 != null ? floatImage2.length : typedImage2.getZSize();
 		
-		// Check for overflows
-		// We are using IEEE 754 binary64 doubles with 53 bits of mantisa 	
-		// New strategy: check for the error after it occurs		
-		int imprecisionBits = 0;
+		startThreads(threads);
+		try{
+			int position = 0;
+			for(int z: components) {
+				int z1 = getIndex(imageZSize1, z, position);
+				int z2 = getIndex(imageZSize2, z, position);
+				byte[][] maskBand = mask == null ? null : mask[getIndex(mask.length, z, position)];
+				int zMask = bitMask == null ? 0 : getIndex(bitMask.getZSize(), z, position);
 				
-		// ROI
+				for(int y = 0; y < ySize1; y += BAND_HEIGHT) {
+					int yEnd = Math.min(y + BAND_HEIGHT, ySize1);
+					if(floatImage1 != null){
+						bands.add(compareBand(new FloatBandComparison(floatImage1[z1], floatImage2[z2], maskBand, y, yEnd, xSize1, ROIValues), zMask));
+					}else{
+						bands.add(compareBand(new TypedBandComparison(typedImage1, z1, typedImage2, z2, maskBand, y, yEnd, xSize1, ROIValues), zMask));
+					}
+					bandComponents.add(z);
+				}
+				position++;
+			}
+			mergeBands(bands, bandComponents);
+			if(referenceAccumulator != null){
+				accumulator.setReferenceStatistics(referenceAccumulator);
+			}
+		}finally{
+			stopThreads();
+		}
+	}
+
+	/**
+	 * Compares two raw images reading them row by row, so that the memory needed does not depend on the image size.
+	 * <p>
+	 * Both readers must be placed at the beginning of the components to compare. When some components are compared, the original image reader must read only those components (see {@link RawImageReader#getBands}), and so must the recovered image reader.
+	 *
+	 * @param image1 reader of the original image
+	 * @param image2 reader of the recovered image
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param mask a 3D byte array with the mask samples (index are [z][y][x]), null if there is no mask
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 *
+	 * @throws WarningException when image sizes are not the same or they cannot be read
+	 */
+	public ImageCompareSA(RawImageReader image1, RawImageReader image2, int[] pixelBitDepth, byte[][][] mask, float[] ROIValues, int inverse, int[] components, int measure, int threads) throws WarningException{
+		this(image1, image2, pixelBitDepth, mask, null, null, ROIValues, inverse, components, measure, threads, null);
+	}
+
+	/**
+	 * Constructor that compares an original raw image, already compared with another image, with a new one reading them row by row. The original image is read again, but its statistics (energy, mean and variance) are not computed again but taken from the previous comparison, so only the errors are computed.
+	 *
+	 * @param image1 reader of the original image
+	 * @param image2 reader of the recovered image
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param mask a 3D byte array with the mask samples (index are [z][y][x]), null if there is no mask
+	 * @param ROIValues relationship between mask values and weights (null if the mask is a no-data mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 * @param reference a previous comparison of image1, with the same mask, ROIValues and components (null to compute all the statistics)
+	 *
+	 * @throws WarningException when image sizes are not the same or they cannot be read
+	 */
+	public ImageCompareSA(RawImageReader image1, RawImageReader image2, int[] pixelBitDepth, byte[][][] mask, float[] ROIValues, int inverse, int[] components, int measure, int threads, ImageCompareSA reference) throws WarningException{
+		this(image1, image2, pixelBitDepth, mask, null, null, ROIValues, inverse, components, measure, threads, reference);
+	}
+
+	/**
+	 * Constructor that compares two raw images reading them row by row, with a no-data mask packed in bits (see the constructor for byte masks).
+	 *
+	 * @param image1 reader of the original image
+	 * @param image2 reader of the recovered image
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param bitMask the no-data mask (null if there is no mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 *
+	 * @throws WarningException when image sizes are not the same or they cannot be read
+	 */
+	public ImageCompareSA(RawImageReader image1, RawImageReader image2, int[] pixelBitDepth, BitMask bitMask, int inverse, int[] components, int measure, int threads) throws WarningException{
+		this(image1, image2, pixelBitDepth, null, bitMask, null, null, inverse, components, measure, threads, null);
+	}
+
+	/**
+	 * Constructor that compares an original raw image, already compared with another image, with a new one reading them row by row, with a no-data mask packed in bits (see the constructor for byte masks).
+	 *
+	 * @param image1 reader of the original image
+	 * @param image2 reader of the recovered image
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param bitMask the no-data mask (null if there is no mask)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 * @param reference a previous comparison of image1, with the same mask and components (null to compute all the statistics)
+	 *
+	 * @throws WarningException when image sizes are not the same or they cannot be read
+	 */
+	public ImageCompareSA(RawImageReader image1, RawImageReader image2, int[] pixelBitDepth, BitMask bitMask, int inverse, int[] components, int measure, int threads, ImageCompareSA reference) throws WarningException{
+		this(image1, image2, pixelBitDepth, null, bitMask, null, null, inverse, components, measure, threads, reference);
+	}
+
+	/**
+	 * Constructor that compares two raw images reading them row by row, with a no-data mask generated from the no-data values of the original image while it is read (see the constructor for byte masks). Each row of the original image is read once both to generate its mask and to compare it; the generated mask is available from noDataMask afterwards.
+	 *
+	 * @param image1 reader of the original image
+	 * @param image2 reader of the recovered image
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param noDataMask generator of the no-data mask with the no-data values set, built for the sizes of the original image (all its components, also when only one is compared)
+	 * @param inverse indicates if the definition of the mask is inverted or not
+	 * @param components the components of the original image to compare (numbered from 0), in increasing order, or null to compare all of them
+	 * @param measure the measure to show
+	 * @param threads number of threads used to compare the images
+	 *
+	 * @throws WarningException when image sizes are not the same or they cannot be read
+	 */
+	public ImageCompareSA(RawImageReader image1, RawImageReader image2, int[] pixelBitDepth, GenerateMask noDataMask, int inverse, int[] components, int measure, int threads) throws WarningException{
+		this(image1, image2, pixelBitDepth, null, null, noDataMask, null, inverse, components, measure, threads, null);
+	}
+
+	/**
+	 * Compares two raw images reading them row by row (see the public constructors).
+	 *
+	 * @throws WarningException when image sizes are not the same or they cannot be read
+	 */
+	private ImageCompareSA(RawImageReader image1, RawImageReader image2, int[] pixelBitDepth, byte[][][] mask, BitMask bitMask, GenerateMask noDataMask, float[] ROIValues, int inverse, int[] components, int measure, int threads, ImageCompareSA reference) throws WarningException{
+
+		//Rows are compared component by component
+		if(image1.getLayout() != RawImageReader.BSQ || image2.getLayout() != RawImageReader.BSQ){
+			throw new WarningException("Raw images must be band sequential (BSQ) to be compared row by row.");
+		}
+
+		//Size set
+		int[] bands = image1.getBands();
+		if(components != null && !Arrays.equals(components, bands)){
+			throw new WarningException("The original image reader must read only the components to compare.");
+		}
+		setComponents(bands, 0);
+		subset = components != null;
+		int zSize1 = bands.length > 0 ? bands[bands.length - 1] + 1 : 0;
+		int ySize1 = image1.getYSize();
+		int xSize1 = image1.getXSize();
+
+		int zSize2 = image2.getZSize();
+		int ySize2 = image2.getYSize();
+		int xSize2 = image2.getXSize();
+
+		// Check if images have the same size
+		if(!subset){
+			if((zSize1 != zSize2) || (ySize1 != ySize2) || (xSize1 != xSize2)){
+				throw new WarningException("Image sizes must be the same to perform comparisons.");
+			}
+		}else{
+			if((bands.length != zSize2) || (ySize1 != ySize2) || (xSize1 != xSize2)){
+				throw new WarningException("Image sizes (ySize and xSize) must be the same to perform comparisons for a specific component.");
+			}
+		}
+
+		checkMaskSizes(mask, bitMask, ySize2, xSize2);
+		if(noDataMask != null){
+			bitMask = noDataMask.getBitMask();
+			if((bitMask.getZSize() < zSize1) || (bitMask.getYSize() != ySize1) || (bitMask.getXSize() != xSize1)){
+				throw new WarningException("Mask sizes must be the same to perform comparisons.");
+			}
+		}
+
+		setMask(mask, ROIValues);
+		if(bitMask != null){
+			this.bitMask = bitMask;
+		}
 		this.ROIValues = ROIValues;
-		
-		// Count the mask pixels		
-		imagePixels = new long[zSize1];
-		long totalImagePixels = 0;
+		this.results = getResults(measure);
+		this.inverse = inverse;
 
-		for(int z: components) {
-			if(mask != null) {
-				//Number of pixels in the foreground of the image
-				for(int y = 0; y < ySize1; y++) {
-					for(int x = 0; x < xSize1; x++) {
-						if(mask[z][y][x] == 1) {
-							imagePixels[z]++;
+		// Read both images in lock-step, one band of rows at a time. Only a few
+		// bands per thread are kept in memory while they wait to be compared
+		integerBits = getIntegerBits(LoadFile.getType(image1.getSampleType().getName()), LoadFile.getType(image2.getSampleType().getName()));
+		// Statistics can only be reused if they have been accumulated in the same way
+		if(reference != null && reference.accumulator.integerBits == integerBits){
+			referenceAccumulator = reference.accumulator;
+		}
+		accumulator = new ImageCompareAccumulator(zSize1, ROIValues, integerBits);
+		// Statistics of the original image are copied from the reference comparison
+		accumulator.results = referenceAccumulator == null ? results : results & ~ImageCompareAccumulator.SIGNAL_VARIANCE;
+		List<FutureTask<ImageCompareAccumulator>> bandTasks = new ArrayList<FutureTask<ImageCompareAccumulator>>();
+		List<Integer> bandComponents = new ArrayList<Integer>();
+		Semaphore pendingBands = new Semaphore(2 * Math.max(threads, 1));
+
+		// The rows of the recovered image are read in another thread while the rows of
+		// the original image are read, so that reading (and inflating) both files overlaps
+		// (with a single processor they are read one after the other)
+		ExecutorService reader = Runtime.getRuntime().availableProcessors() > 1 ? Executors.newSingleThreadExecutor() : null;
+		startThreads(threads);
+		try{
+			int position = 0;
+			for(int z: this.components) {
+				// No-data byte masks have been packed in this.bitMask by setMask
+				byte[][] maskBand = this.mask == null ? null : this.mask[getIndex(this.mask.length, z, position)];
+				int zMask = this.bitMask == null ? 0 : getIndex(this.bitMask.getZSize(), z, position);
+				for(int y = 0; y < ySize1; y += BAND_HEIGHT) {
+					int yEnd = Math.min(y + BAND_HEIGHT, ySize1);
+					FutureTask<double[][]> read2 = new FutureTask<double[][]>(new RowsRead(image2, yEnd - y, xSize2));
+					if(reader != null){
+						reader.execute(read2);
+					}else{
+						read2.run();
+					}
+					double[][] rows1 = new RowsRead(image1, yEnd - y, xSize1).call();
+					double[][] rows2 = null;
+					try{
+						rows2 = read2.get();
+					}catch(InterruptedException e){
+						throw new WarningException("Image comparison interrupted.");
+					}catch(ExecutionException e){
+						if(e.getCause() instanceof WarningException){
+							throw (WarningException) e.getCause();
+						}
+						if(e.getCause() instanceof RuntimeException){
+							throw (RuntimeException) e.getCause();
 						}
+						throw new WarningException("Image reading failed: " + e.getCause());
+					}
+
+					try{
+						pendingBands.acquire();
+					}catch(InterruptedException e){
+						throw new WarningException("Image comparison interrupted.");
 					}
+					BandComparison band = new ReadBandComparison(rows1, rows2, maskBand, y, yEnd, xSize1, ROIValues, pendingBands);
+					if(noDataMask != null){
+						band.noDataMask = noDataMask;
+						band.z = z;
+					}
+					bandTasks.add(compareBand(band, zMask));
+					bandComponents.add(z);
 				}
-			} else {
-				imagePixels[z] = xSize1 * ySize1;
+				position++;
 			}
-			
-			totalImagePixels += imagePixels[z];
+			mergeBands(bandTasks, bandComponents);
+			if(referenceAccumulator != null){
+				accumulator.setReferenceStatistics(referenceAccumulator);
+			}
+		}finally{
+			if(reader != null){
+				reader.shutdownNow();
+			}
+			stopThreads();
 		}
-		
-		// Do all the energy things before
+
+		computeResults(pixelBitDepth, zSize1, ySize1, xSize1);
+	}
+
+	/**
+	 * Reads the next rows of a raw image.
+	 */
+	private static class RowsRead implements Callable<double[][]>{
+
+		/**
+		 * Reader of the image.
+		 */
+		RawImageReader image;
+
+		/**
+		 * Number of rows to read.
+		 */
+		int rows;
+
+		/**
+		 * Number of samples of each row.
+		 */
+		int xSize;
+
+		RowsRead(RawImageReader image, int rows, int xSize){
+			this.image = image;
+			this.rows = rows;
+			this.xSize = xSize;
+		}
+
+		public double[][] call() throws WarningException{
+			double[][] band = new double[rows][xSize];
+			for(int row = 0; row < rows; row++) {
+				image.readRow(band[row]);
+			}
+			return(band);
+		}
+	}
+
+	/**
+	 * Decides which intermediate results are needed by a measure.
+	 *
+	 * @param measure the measure to show (as in GcompParser, 0 for all of them)
+	 * @return the intermediate results needed (flags of {@link ImageCompareAccumulator#results})
+	 */
+	static int getResults(int measure){
+		int results = 0;
+		switch(measure){
+		case 1: //MAE
+		case 10: //EQUAL
+			results = ImageCompareAccumulator.ABSOLUTE_ERROR;
+			break;
+		case 2: //PAE
+			results = ImageCompareAccumulator.PEAK_ERROR;
+			break;
+		case 3: //MSE
+		case 4: //RMSE
+		case 7: //PSNR
+		case 8: //PSNR-S
+			results = ImageCompareAccumulator.SQUARED_ERROR;
+			break;
+		case 5: //ME
+			results = ImageCompareAccumulator.MEAN_ERROR;
+			break;
+		case 6: //SNR
+			results = ImageCompareAccumulator.SQUARED_ERROR | ImageCompareAccumulator.SIGNAL_ENERGY;
+			break;
+		case 9: //SNRVAR
+			results = ImageCompareAccumulator.SQUARED_ERROR | ImageCompareAccumulator.SIGNAL_VARIANCE;
+			break;
+		default: //All
+			results = ImageCompareAccumulator.ALL_RESULTS;
+			break;
+		}
+		return(results);
+	}
+
+	/**
+	 * Decides if two images can be compared exactly with integers.
+	 *
+	 * @param type1 sample type of the original image (as returned by {@link LoadFile#getType})
+	 * @param type2 sample type of the recovered image (as returned by {@link LoadFile#getType})
+	 * @return the integerBits of both images (the smallest n such that all their samples lie in [-2^n, 2^n), so 15 for shorts and 16 for unsigned shorts), or 0 if they have to be compared with doubles (non integer samples, longs or weighted errors)
+	 */
+	private int getIntegerBits(int type1, int type2){
+		int[] bits = {1, 8, 16, 15, 31, 0, 0, 0};
+		if(ROIValues != null || type1 < 0 || type2 < 0 || bits[type1] == 0 || bits[type2] == 0){
+			return(0);
+		}
+		return(Math.max(bits[type1], bits[type2]));
+	}
+
+	/**
+	 * Creates the threads used to compare the bands.
+	 *
+	 * @param threads number of threads (when it is 1 or lower no thread is created)
+	 */
+	private void startThreads(int threads){
+		if(threads > 1){
+			executor = Executors.newFixedThreadPool(threads);
+		}
+	}
+
+	/**
+	 * Stops the threads used to compare the bands.
+	 */
+	private void stopThreads(){
+		if(executor != null){
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Compares a band, in a different thread if there are threads available or immediately otherwise.
+	 *
+	 * @param band the band to compare
+	 * @param zMask the component of the no-data mask packed in bits that belongs to the band
+	 * @return the task that computes the intermediate results of the band
+	 */
+	private FutureTask<ImageCompareAccumulator> compareBand(BandComparison band, int zMask){
+		band.integerBits = integerBits;
+		band.maskWords = bitMask == null ? null : bitMask.getWords(zMask);
+		band.results = accumulator.results;
+		FutureTask<ImageCompareAccumulator> task = new FutureTask<ImageCompareAccumulator>(band);
+		if(executor != null){
+			executor.execute(task);
+		}else{
+			task.run();
+		}
+		return(task);
+	}
+
+	/**
+	 * Waits for the comparison of all the bands and merges their intermediate results in the order they were created, so that the results do not depend on the number of threads.
+	 *
+	 * @param bands the tasks that compare each band
+	 * @param bandComponents the component each band belongs to
+	 *
+	 * @throws WarningException when the comparison of a band fails
+	 */
+	private void mergeBands(List<FutureTask<ImageCompareAccumulator>> bands, List<Integer> bandComponents) throws WarningException{
+		for(int band = 0; band < bands.size(); band++){
+			try{
+				accumulator.merge(bandComponents.get(band), bands.get(band).get());
+			}catch(InterruptedException e){
+				throw new WarningException("Image comparison interrupted.");
+			}catch(ExecutionException e){
+				if(e.getCause() instanceof RuntimeException){
+					throw (RuntimeException) e.getCause();
+				}
+				throw new WarningException("Image comparison error: " + e.getCause().getMessage());
+			}
+			// Results already merged are not needed anymore
+			bands.set(band, null);
+		}
+	}
+
+	/**
+	 * Generates the final results from the intermediate ones kept in the accumulator.
+	 *
+	 * @param pixelBitDepth number of bits for the specified image sample type (for each component)
+	 * @param zSize1 number of components of the original image
+	 * @param ySize1 height of the original image
+	 * @param xSize1 width of the original image
+	 *
+	 * @throws WarningException when totals are undefined
+	 */
+	private void computeResults(int[] pixelBitDepth, int zSize1, int ySize1, int xSize1) throws WarningException{
+		// Check for overflows
+		// We are using IEEE 754 binary64 doubles with 53 bits of mantisa 	
+		// New strategy: check for the error after it occurs		
+		int imprecisionBits = 0;
+		imagePixels = new long[zSize1];
 		energy = new double[zSize1];
 		variance = new double[zSize1];
 		totalEnergy = 0;
 		totalVariance = 0;
-		
-		double[] mean = new double[zSize1];
+
+		long totalImagePixels = 0;
 		double totalMean = 0;
 		double totalSquaredDifferenceSum = 0;
-		
-		// Two iterations are need for numerical stability
-		// It is _not_ possible to use the abbreviated formula
+		double totalSum = 0;
+
+		// Exact sums are rounded only once
+		accumulator.roundExactSums();
+
 		for(int z: components) {
-			double sum = 0;
-			double squaredSum = 0;
-			
-			for(int y = 0; y < image1[z].length; y++) {
-				for(int x = 0; x < image1[z][y].length; x++) {
-					if (mask == null || mask[z][y][x] == 1) {
-						double value = image1[z][y][x];
-						sum += value;
-						squaredSum += value * value;
-					}
-				}
-			}
-			
-			mean[z] = sum / imagePixels[z];
-			totalMean += sum;
-			
-			energy[z] = squaredSum;
+			imagePixels[z] = accumulator.pixels[z];
+			energy[z] = accumulator.energy[z];
+			variance[z] = accumulator.squaredDifferenceSum[z] / imagePixels[z];
 			totalEnergy += energy[z];
-		}
-		
-		// Overflow check
-		imprecisionBits = imprecisionBits(totalEnergy, imprecisionBits);
-		imprecisionBits = imprecisionBits(totalMean, imprecisionBits);
-		
-		totalMean /= totalImagePixels;
-		
-		for(int z: components) {
-			double squaredDifferenceSum = 0;
-			
-			for(int y = 0; y < image1[z].length; y++) {
-				for(int x = 0; x < image1[z][y].length; x++) {
-					if (mask == null || mask[z][y][x] == 1) {
-						double value = image1[z][y][x] - mean[z];
-						squaredDifferenceSum += value * value;
-						
-						double totalValue = image1[z][y][x] - totalMean;
-						totalSquaredDifferenceSum += totalValue * totalValue;
-					}
-				}
+			totalSum += accumulator.mean[z] * imagePixels[z];
+
+			// Merge the component variances
+			if(imagePixels[z] > 0){
+				long mergedPixels = totalImagePixels + imagePixels[z];
+				double delta = accumulator.mean[z] - totalMean;
+				totalMean += delta * imagePixels[z] / mergedPixels;
+				totalSquaredDifferenceSum += accumulator.squaredDifferenceSum[z] + delta * delta * ((double) totalImagePixels * imagePixels[z] / mergedPixels);
 			}
-			
-			variance[z] = squaredDifferenceSum / imagePixels[z];
+			totalImagePixels += imagePixels[z];
 		}
-		
-		// Overflow check
-		imprecisionBits = imprecisionBits(totalSquaredDifferenceSum, imprecisionBits);
-		
-		totalVariance = totalSquaredDifferenceSum / totalImagePixels;
-		
-		// Memory allocation for the intermediate results
-		double[] absoluteErrorSum = new double[zSize1];
-		double[] absoluteErrorPeak = new double[zSize1];
-		double[] squaredErrorSum = new double[zSize1];
-		double[] errorSum = new double[zSize1];
-		
-		//long[] squaredErrorSumInt = new long[zSize1];
-		
-		// Fill the intermediate results
-		for(int z: components) {
-			// Initialize (all the others are properly initialized as 0)
-			absoluteErrorPeak[z] = Double.NEGATIVE_INFINITY;
-			
-			// Main loop
-			for(int y = 0; y < image1[z].length; y++){
-				for(int x = 0; x < image1[z][y].length; x++){
-					double error = getDiff(z, y, x);
-
-					// Fill
-					absoluteErrorSum[z] += Math.abs(error);
-					absoluteErrorPeak[z] = Math.max(absoluteErrorPeak[z], Math.abs(error));
-					squaredErrorSum[z] += error * error;
-					errorSum[z] += error;
-					
-					//squaredErrorSumInt[z] += (long) error * error;
-				}
-			}
+
+		if(accumulator.isExact()){
+			// Totals are also computed from the exact sums
+			BigInteger exactSum = getExactTotal(ImageCompareAccumulator.SUM);
+			BigInteger exactEnergy = getExactTotal(ImageCompareAccumulator.ENERGY);
+			totalEnergy = exactEnergy.doubleValue();
+			totalSum = exactSum.doubleValue();
+			totalSquaredDifferenceSum = totalImagePixels > 0 ? ImageCompareAccumulator.getSquaredDifferenceSum(totalImagePixels, exactSum, exactEnergy) : 0;
+		}else{
+			// Overflow check
+			imprecisionBits = imprecisionBits(totalEnergy, imprecisionBits);
+			imprecisionBits = imprecisionBits(totalSum, imprecisionBits);
+			imprecisionBits = imprecisionBits(totalSquaredDifferenceSum, imprecisionBits);
 		}
+
+		totalVariance = totalSquaredDifferenceSum / totalImagePixels;
+
+		double[] absoluteErrorSum = accumulator.absoluteErrorSum;
+		double[] absoluteErrorPeak = accumulator.absoluteErrorPeak;
+		double[] squaredErrorSum = accumulator.squaredErrorSum;
+		double[] errorSum = accumulator.errorSum;
 		
 		// Memory allocation for the results
 		mae = new double[zSize1];
@@ -433,7 +1053,8 @@ public class ImageCompareSA{
 			double range = getRange(pixelBitDepth[z]);
 			
 			mae[z] = absoluteErrorSum[z] / imagePixels[z];
-			pae[z] = absoluteErrorPeak[z];
+			// A component without compared samples keeps the initial peak (-Infinity), its peak error is 0
+			pae[z] = Math.max(absoluteErrorPeak[z], 0);
 			mse[z] = squaredErrorSum[z] / imagePixels[z];
 			rmse[z] = Math.sqrt(mse[z]);
 			me[z] = errorSum[z] / imagePixels[z];
@@ -451,21 +1072,23 @@ public class ImageCompareSA{
 		double totalSquaredErrorSum = 0;
 		double totalErrorSum = 0;
 		
-		//long totalSquaredErrorSumInt = 0;
-		
 		for(int z: components) {
 			totalAbsoluteErrorSum += absoluteErrorSum[z];
-			totalAbsoluteErrorPeak = Math.max(totalAbsoluteErrorPeak, absoluteErrorPeak[z]);
+			totalAbsoluteErrorPeak = Math.max(totalAbsoluteErrorPeak, pae[z]);
 			totalSquaredErrorSum += squaredErrorSum[z];
 			totalErrorSum += errorSum[z];
-			
-			//totalSquaredErrorSumInt += squaredErrorSumInt[z];
 		}
 		
-		// Overflow check
-		imprecisionBits = imprecisionBits(totalAbsoluteErrorSum, imprecisionBits);
-		imprecisionBits = imprecisionBits(totalAbsoluteErrorPeak, imprecisionBits);
-		imprecisionBits = imprecisionBits(totalSquaredErrorSum, imprecisionBits);
+		if(accumulator.isExact()){
+			totalAbsoluteErrorSum = getExactTotal(ImageCompareAccumulator.ABSOLUTE_ERROR_SUM).doubleValue();
+			totalSquaredErrorSum = getExactTotal(ImageCompareAccumulator.SQUARED_ERROR_SUM).doubleValue();
+			totalErrorSum = getExactTotal(ImageCompareAccumulator.ERROR_SUM).doubleValue();
+		}else{
+			// Overflow check
+			imprecisionBits = imprecisionBits(totalAbsoluteErrorSum, imprecisionBits);
+			imprecisionBits = imprecisionBits(totalAbsoluteErrorPeak, imprecisionBits);
+			imprecisionBits = imprecisionBits(totalSquaredErrorSum, imprecisionBits);
+		}
 				
 		// Calculus of Total final results
 		double totalRange = getRange(pixelBitDepth[0]);
@@ -479,7 +1102,6 @@ public class ImageCompareSA{
 		totalMAE = totalAbsoluteErrorSum / totalImagePixels;
 		totalPAE = totalAbsoluteErrorPeak;
 		totalMSE = totalSquaredErrorSum / totalImagePixels;
-		//totalMSE = ((double) totalSquaredErrorSumInt) / (double) totalImagePixels; in case of precision doubts  
 		totalRMSE = Math.sqrt(totalMSE);
 		totalME = totalErrorSum / totalImagePixels;
 		totalSNR = 10 * Math.log10( totalEnergy  / (totalMSE * totalImagePixels) );
@@ -487,6 +1109,29 @@ public class ImageCompareSA{
 		totalPSNR = 10 * Math.log10( totalRange * totalRange / totalMSE );
 		totalPSNRSALOMON = 10 * Math.log10( (totalRange + 1)*(totalRange + 1) / (4 * totalMSE));
 		totalEQUAL = ( totalAbsoluteErrorSum == 0 );
+
+		// Measures whose intermediate results have not been computed are undefined
+		if((results & ImageCompareAccumulator.ABSOLUTE_ERROR) == 0){
+			totalMAE = undefine(mae);
+		}
+		if((results & ImageCompareAccumulator.PEAK_ERROR) == 0){
+			totalPAE = undefine(pae);
+		}
+		if((results & ImageCompareAccumulator.SQUARED_ERROR) == 0){
+			totalMSE = undefine(mse);
+			totalRMSE = undefine(rmse);
+			totalPSNR = undefine(psnr);
+			totalPSNRSALOMON = undefine(psnrSalomon);
+		}
+		if((results & ImageCompareAccumulator.MEAN_ERROR) == 0){
+			totalME = undefine(me);
+		}
+		if((results & (ImageCompareAccumulator.SQUARED_ERROR | ImageCompareAccumulator.SIGNAL_ENERGY)) != (ImageCompareAccumulator.SQUARED_ERROR | ImageCompareAccumulator.SIGNAL_ENERGY)){
+			totalSNR = undefine(snr);
+		}
+		if((results & (ImageCompareAccumulator.SQUARED_ERROR | ImageCompareAccumulator.SIGNAL_VARIANCE)) != (ImageCompareAccumulator.SQUARED_ERROR | ImageCompareAccumulator.SIGNAL_VARIANCE)){
+			totalSNRVAR = undefine(snrVar);
+		}
 		
 		// Report overflows in case they occur
 		if (imprecisionBits > 0) {
@@ -531,6 +1176,18 @@ public class ImageCompareSA{
 		}
 	}
 	
+	/**
+	 * @param sum index of the exact sum in the accumulator (ImageCompareAccumulator.SUM, ...)
+	 * @return the exact sum of all the compared components
+	 */
+	private BigInteger getExactTotal(int sum){
+		BigInteger total = BigInteger.ZERO;
+		for(int z: components) {
+			total = total.add(accumulator.getExact(sum, z));
+		}
+		return(total);
+	}
+
 	private int imprecisionBits(final double a, final int previousMax) {
 		final double largestExactDouble = 0x1FFFFFFFFFFFFFl;
 		int r = 0;
@@ -542,21 +1199,28 @@ public class ImageCompareSA{
 		return r;
 	}
 	
+	/**
+	 * Sets the results of a measure that has not been computed to NaN.
+	 *
+	 * @param values results of each component
+	 * @return the total result (NaN)
+	 */
+	private double undefine(double[] values){
+		for(int z: components){
+			values[z] = Double.NaN;
+		}
+		return(Double.NaN);
+	}
+
 	/**
 	 * @param z indicating the component
 	 * @return range for an specific component
 	 */
 	public double getRealRange(int z){
 		
-		float min = Float.MAX_VALUE;
-		float max = Float.MIN_VALUE;
-
-		for (int y = 0; y < image1[z].length; y++) {
-			for (int x = 0; x < image1[z][y].length; x++) {
-				min = Math.min(Math.min(image1[z][y][x], image2[z][y][x]), min);
-				max = Math.max(Math.max(image1[z][y][x], image2[z][y][x]), max);
-			}
-		}
+		// Extreme samples of both images, gathered during the comparison
+		double min = accumulator.min[z];
+		double max = accumulator.max[z];
 		
 		// assume signed
 		int pixelBitDepth = (int)Math.max(Math.ceil(Math.log(max + 1) / Math.log(2)), Math.ceil(Math.log(Math.abs(min)) / Math.log(2))) + 1;
@@ -600,34 +1264,6 @@ public class ImageCompareSA{
 		return(range);
 	}
 	
-	/**
-	 * @param z indicating de component
-	 * @param x 
-	 * @param y
-	 * @return difference between original and recovered, considering the factor used in prioritized distortion measures
-	 */
-	private double getDiff(int z, int y, int x){
-		double factor = 1D;
-		double diff = 0D;
-		
-		if(ROIValues != null){
-			//Difference for the P-MSE
-			for(int i = 0; i < ROIValues.length / 2; i++){
-				if(ROIValues[i*2] - 128 == mask[z][y][x]){
-					factor = ROIValues[(i*2)+1];
-					i = ROIValues.length;
-				}
-			}
-			diff = (image1[z][y][x] - image2[z][y][x]) * factor;
-		}else{
-			//Standard difference calculation
-			if(mask == null || mask[z][y][x] == 1){
-				diff = (image1[z][y][x] - image2[z][y][x]);
-			}
-		}
-		return(diff);
-	}
-
 	/**
 	 * @return mae definition in this class
 	 */
@@ -767,4 +1403,210 @@ public class ImageCompareSA{
 	public double getTotalSNRVAR(){
 		return(totalSNRVAR);
 	}
+
+	/**
+	 * Computes the intermediate results of a band of rows of a component. Subclasses give the samples of each row, converted to double.
+	 */
+	private static abstract class BandComparison implements Callable<ImageCompareAccumulator>{
+
+		/**
+		 * Mask of the component (the row y is at position y), null if there is no mask.
+		 */
+		byte[][] mask;
+
+		/**
+		 * Position of the band in the component (from yBegin to yEnd - 1).
+		 */
+		int yBegin, yEnd;
+
+		/**
+		 * Number of samples of each row.
+		 */
+		int xSize;
+
+		/**
+		 * Relationship between mask values and weights (null if the mask is a no-data mask).
+		 */
+		float[] ROIValues;
+
+		/**
+		 * Released once the band has been compared (null if not needed).
+		 */
+		Semaphore done = null;
+
+		/**
+		 * Integer range of the samples (see {@link ImageCompareSA#integerBits}).
+		 */
+		int integerBits = 0;
+
+		/**
+		 * Intermediate results that have to be computed (see {@link ImageCompareAccumulator#results}).
+		 */
+		int results = ImageCompareAccumulator.ALL_RESULTS;
+
+		/**
+		 * Words of the no-data mask packed in bits for the component (index are [y][word]), null if mask is used instead.
+		 */
+		long[][] maskWords = null;
+
+		/**
+		 * Generator of the no-data mask, when the mask of each row is generated from the original image just before the row is compared (null otherwise).
+		 */
+		GenerateMask noDataMask = null;
+
+		/**
+		 * Component the band belongs to (used to generate its mask).
+		 */
+		int z = 0;
+
+		BandComparison(byte[][] mask, int yBegin, int yEnd, int xSize, float[] ROIValues){
+			this.mask = mask;
+			this.yBegin = yBegin;
+			this.yEnd = yEnd;
+			this.xSize = xSize;
+			this.ROIValues = ROIValues;
+		}
+
+		/**
+		 * Gives the samples of a row of the original image.
+		 *
+		 * @param y the row
+		 * @param row an array of xSize positions where the samples can be stored
+		 * @return the samples of the row (row itself or an array that already contains them)
+		 */
+		abstract double[] getRow1(int y, double[] row);
+
+		/**
+		 * Gives the samples of a row of the recovered image.
+		 *
+		 * @param y the row
+		 * @param row an array of xSize positions where the samples can be stored
+		 * @return the samples of the row (row itself or an array that already contains them)
+		 */
+		abstract double[] getRow2(int y, double[] row);
+
+		public ImageCompareAccumulator call(){
+			ImageCompareAccumulator band = new ImageCompareAccumulator(1, ROIValues, integerBits);
+			band.results = results;
+			try{
+				double[] row1 = new double[xSize];
+				double[] row2 = new double[xSize];
+				int[] runs = maskWords == null ? null : new int[xSize + 1];
+				for(int y = yBegin; y < yEnd; y++){
+					if(noDataMask != null){
+						noDataMask.generateRow(z, y, getRow1(y, row1));
+					}
+					if(maskWords != null){
+						// Rows without valid samples are skipped, rows without invalid samples are compared
+						// without mask and only the runs of valid samples of the other rows are visited
+						int valid = BitMask.count(maskWords[y]);
+						if(valid == xSize){
+							band.addRow(0, getRow1(y, row1), getRow2(y, row2), null, xSize);
+						}else if(valid > 0){
+							int runCount = BitMask.getRuns(maskWords[y], xSize, runs);
+							band.addRuns(0, getRow1(y, row1), getRow2(y, row2), runs, runCount);
+						}
+					}else{
+						band.addRow(0, getRow1(y, row1), getRow2(y, row2), mask == null ? null : mask[y], xSize);
+					}
+				}
+			}finally{
+				if(done != null){
+					done.release();
+				}
+			}
+			return(band);
+		}
+	}
+
+	/**
+	 * Band of two components kept as float arrays.
+	 */
+	private static class FloatBandComparison extends BandComparison{
+
+		/**
+		 * Components of the original and recovered images (index are [y][x]).
+		 */
+		float[][] band1, band2;
+
+		FloatBandComparison(float[][] band1, float[][] band2, byte[][] mask, int yBegin, int yEnd, int xSize, float[] ROIValues){
+			super(mask, yBegin, yEnd, xSize, ROIValues);
+			this.band1 = band1;
+			this.band2 = band2;
+		}
+
+		double[] getRow1(int y, double[] row){
+			for(int x = 0; x < xSize; x++){
+				row[x] = band1[y][x];
+			}
+			return(row);
+		}
+
+		double[] getRow2(int y, double[] row){
+			for(int x = 0; x < xSize; x++){
+				row[x] = band2[y][x];
+			}
+			return(row);
+		}
+	}
+
+	/**
+	 * Band of two components of typed images.
+	 */
+	private static class TypedBandComparison extends BandComparison{
+
+		/**
+		 * Original and recovered images.
+		 */
+		TypedImage image1, image2;
+
+		/**
+		 * Compared components of the original and recovered images.
+		 */
+		int z1, z2;
+
+		TypedBandComparison(TypedImage image1, int z1, TypedImage image2, int z2, byte[][] mask, int yBegin, int yEnd, int xSize, float[] ROIValues){
+			super(mask, yBegin, yEnd, xSize, ROIValues);
+			this.image1 = image1;
+			this.z1 = z1;
+			this.image2 = image2;
+			this.z2 = z2;
+		}
+
+		double[] getRow1(int y, double[] row){
+			image1.getRow(z1, y, row);
+			return(row);
+		}
+
+		double[] getRow2(int y, double[] row){
+			image2.getRow(z2, y, row);
+			return(row);
+		}
+	}
+
+	/**
+	 * Band of rows already read from two files.
+	 */
+	private static class ReadBandComparison extends BandComparison{
+
+		/**
+		 * Rows of the original and recovered images (the row y is at position y - yBegin).
+		 */
+		double[][] rows1, rows2;
+
+		ReadBandComparison(double[][] rows1, double[][] rows2, byte[][] mask, int yBegin, int yEnd, int xSize, float[] ROIValues, Semaphore done){
+			super(mask, yBegin, yEnd, xSize, ROIValues);
+			this.rows1 = rows1;
+			this.rows2 = rows2;
+			this.done = done;
+		}
+
+		double[] getRow1(int y, double[] row){
+			return(rows1[y - yBegin]);
+		}
+
+		double[] getRow2(int y, double[] row){
+			return(rows2[y - yBegin]);
+		}
+	}
 }
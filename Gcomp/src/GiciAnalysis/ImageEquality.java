@@ -0,0 +1,183 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import GiciException.*;
+import GiciFile.*;
+
+
+/**
+ * This class checks whether two images are equal (bit-identical samples) without computing any metric. It stops at the first sample that differs and locates it by its component, row and column.<br>
+ * Raw images are compared row by row while they are read (see {@link RawImageReader#readRowBytes}). When both have the same sample type and byte order, the bytes of each pair of rows are compared with ByteBuffer.mismatch, which the JDK compares several bytes at a time (directly on the page cache for mapped files) and which gives the first byte that differs, so the sample is located without visiting the row again. Otherwise, and for images that are loaded, rows are converted to double and compared sample by sample.<br>
+ * Usage example:<br>
+ * &nbsp; construct<br>
+ * &nbsp; isEqual<br>
+ * &nbsp; getDifference<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ImageEquality{
+
+	/**
+	 * Indicates whether the images are equal.
+	 */
+	boolean equal = true;
+
+	/**
+	 * Component (of the original image), row and column of the first sample that differs (null if the images are equal).
+	 */
+	int[] difference = null;
+
+	/**
+	 * Compares two raw images while they are read. Both readers must read the same number of components, rows and columns, in the same order (both images band sequential or both interleaved).
+	 *
+	 * @param reader1 the original image
+	 * @param reader2 the recovered image
+	 *
+	 * @throws WarningException when the images cannot be read or their sizes are different
+	 */
+	public ImageEquality(RawImageReader reader1, RawImageReader reader2) throws WarningException{
+		int zSize = reader1.getZSize();
+		int ySize = reader1.getYSize();
+		int xSize = reader1.getXSize();
+		if(reader2.getZSize() != zSize || reader2.getYSize() != ySize || reader2.getXSize() != xSize){
+			throw new WarningException("Image sizes must be the same to perform comparisons.");
+		}
+		boolean bsq = reader1.getLayout() == RawImageReader.BSQ;
+		if(zSize > 1 && bsq != (reader2.getLayout() == RawImageReader.BSQ)){
+			throw new WarningException("Raw images must be both band sequential or both interleaved to be compared row by row.");
+		}
+
+		//Bytes are compared only when the same samples have the same bytes
+		boolean sameBytes = reader1.getSampleType() == reader2.getSampleType() && reader1.getByteOrder() == reader2.getByteOrder();
+		int sampleBytes = RawImageReader.getSampleBytes(LoadFile.getType(reader1.getSampleType().getName()));
+		double[] row1 = sameBytes ? null : new double[xSize];
+		double[] row2 = sameBytes ? null : new double[xSize];
+
+		for(long row = 0; row < (long) zSize * ySize && equal; row++){
+			int x = -1;
+			if(sameBytes){
+				int position = reader1.readRowBytes().mismatch(reader2.readRowBytes());
+				x = position < 0 ? -1 : position / sampleBytes;
+			}else{
+				reader1.readRow(row1);
+				reader2.readRow(row2);
+				x = mismatch(row1, row2, xSize);
+			}
+			if(x >= 0){
+				int z = bsq ? (int) (row / ySize) : (int) (row % zSize);
+				int y = bsq ? (int) (row % ySize) : (int) (row / zSize);
+				setDifference(reader1.getBands()[z], y, x);
+			}
+		}
+	}
+
+	/**
+	 * Compares two loaded images. The recovered image may have all the components of the original image or only the compared ones.
+	 *
+	 * @param image1 the original image
+	 * @param image2 the recovered image
+	 * @param components the components to compare, in increasing order (null to compare all of them)
+	 *
+	 * @throws WarningException when the sizes of the images are different
+	 */
+	public ImageEquality(TypedImage image1, TypedImage image2, int[] components) throws WarningException{
+		int zSize = image1.getZSize();
+		int ySize = image1.getYSize();
+		int xSize = image1.getXSize();
+		if(image2.getYSize() != ySize || image2.getXSize() != xSize){
+			throw new WarningException("Image sizes must be the same to perform comparisons.");
+		}
+		if(components == null){
+			components = RawImageReader.getBandRange(0, zSize);
+		}
+		if(components.length > 0 && components[components.length - 1] >= zSize){
+			throw new WarningException("The original image does not have so many components.");
+		}
+		boolean all = image2.getZSize() == zSize;
+		if(!all && image2.getZSize() != components.length){
+			throw new WarningException("The recovered image must have all the components of the original image or only the compared ones.");
+		}
+
+		double[] row1 = new double[xSize];
+		double[] row2 = new double[xSize];
+		for(int position = 0; position < components.length && equal; position++){
+			int z = components[position];
+			for(int y = 0; y < ySize && equal; y++){
+				image1.getRow(z, y, row1);
+				image2.getRow(all ? z : position, y, row2);
+				int x = mismatch(row1, row2, xSize);
+				if(x >= 0){
+					setDifference(z, y, x);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the first sample that differs in two rows. Samples are compared by their bits, so NaN samples are equal and 0.0 differs from -0.0.
+	 *
+	 * @param row1 the first row
+	 * @param row2 the second row
+	 * @param xSize number of samples of the rows
+	 * @return position of the first sample that differs, or -1 if the rows are equal
+	 */
+	static public int mismatch(double[] row1, double[] row2, int xSize){
+		for(int x = 0; x < xSize; x++){
+			if(Double.doubleToLongBits(row1[x]) != Double.doubleToLongBits(row2[x])){
+				return(x);
+			}
+		}
+		return(-1);
+	}
+
+	/**
+	 * Sets the first sample that differs.
+	 *
+	 * @param z the component (of the original image)
+	 * @param y the row
+	 * @param x the column
+	 */
+	private void setDifference(int z, int y, int x){
+		equal = false;
+		difference = new int[]{z, y, x};
+	}
+
+	/**
+	 * @return equal definition in this class
+	 */
+	public boolean isEqual(){
+		return(equal);
+	}
+
+	/**
+	 * @return difference definition in this class
+	 */
+	public int[] getDifference(){
+		return(difference);
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis.jUnits;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import GiciAnalysis.*;
+import GiciException.*;
+import GiciFile.*;
+import GiciMask.*;
+
+
+/**
+ * This class checks that ImageCompareSA, which accumulates all its statistics in a single pass, gives the same results as the previous three-pass implementation (see {@link ImageCompareReference}). Images of all the sample types are compared without mask, with a no-data mask (also one that leaves a whole component and a whole row without valid samples) and with a ROI mask, for all the components and for each one of them, through all the constructors of ImageCompareSA. Results are compared with the precision in which Gcomp shows them (floats), allowing a difference in their last bit (in the last bit of MAE for ME), because errors are summed in another order (by bands of rows). Results with different numbers of threads must be exactly the same.
+ * <p>
+ * Usage: java GiciAnalysis.jUnits.ImageCompareSATest (exits with status 1 if some result differs).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ImageCompareSATest{
+
+	/**
+	 * Names of the measures, numbered as in Gcomp (see {@link Gcomp.GcompParser}).
+	 */
+	static final String[] MEASURES = {"", "MAE", "PAE", "MSE", "RMSE", "ME", "SNR", "PSNR", "PSNRSALOMON", "SNRVAR", "EQUAL"};
+
+	/**
+	 * Names of the masks used in the tests.
+	 */
+	static final String[] MASKS = {"no mask", "no-data mask", "ROI mask", "no-data mask without valid samples in component 1 and a row of component 2"};
+
+	/**
+	 * Relationship between mask values and weights of the ROI mask (mask values are the even positions minus 128).
+	 */
+	static final float[] ROI_VALUES = {128, 0.5f, 129, 1, 130, 2, 131, 4};
+
+	/**
+	 * Image sizes. The height is greater than two bands of rows (see ImageCompareSA.BAND_HEIGHT, 64 rows), and not a multiple of them, so components are split in several bands that are merged afterwards. The width is not a multiple of 64 to check the last words of bit masks.
+	 */
+	static final int Z_SIZE = 3, Y_SIZE = 150, X_SIZE = 71;
+
+	/**
+	 * Numbers of threads used to compare the images, whose results must be exactly the same.
+	 */
+	static final int[] THREADS = {1, 4};
+
+	/**
+	 * Number of results compared.
+	 */
+	static int checks = 0;
+
+	/**
+	 * Number of results that differ.
+	 */
+	static int failures = 0;
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args unused
+	 *
+	 * @throws Exception when some image cannot be compared or saved
+	 */
+	public static void main(String[] args) throws Exception{
+		// Both implementations warn about the precision of large images in the error output
+		System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+		File directory = File.createTempFile("ImageCompareSATest", "");
+		directory.delete();
+		directory.mkdir();
+
+		for(int type = 0; type <= 7; type++){
+			float[][][] image1 = generate(type, 1000 + type, null);
+			float[][][] image2 = generate(type, 2000 + type, image1);
+			int[] pixelBitDepth = new int[Z_SIZE];
+			for(int z = 0; z < Z_SIZE; z++){
+				pixelBitDepth[z] = LoadFile.getPixelBitDepth(LoadFile.getClass(type));
+			}
+			TypedImage typed1 = TypedImage.fromFloat(image1, type);
+			TypedImage typed2 = TypedImage.fromFloat(image2, type);
+			String file1 = new File(directory, "image1.raw").getPath();
+			String file2 = new File(directory, "image2.raw").getPath();
+			SaveFile.SaveFileRaw(image1, file1, type, 0);
+			SaveFile.SaveFileRaw(image2, file2, type, 0);
+
+			for(int maskType = 0; maskType < MASKS.length; maskType++){
+				byte[][][] mask = maskType == 0 ? null : generateMask(maskType == 2 ? 4 : 2, 3000 + type);
+				if(maskType == 3){
+					for(int y = 0; y < Y_SIZE; y++){
+						Arrays.fill(mask[0][y], (byte) 0);
+					}
+					Arrays.fill(mask[1][Y_SIZE / 2], (byte) 0);
+				}
+				float[] ROIValues = maskType == 2 ? ROI_VALUES : null;
+
+				for(int component = -1; component <= Z_SIZE; component++){
+					if(component == 0){
+						continue;
+					}
+					int[] components = component == -1 ? null : new int[]{component - 1};
+					String test = "type " + type + ", " + MASKS[maskType] + ", " + (component == -1 ? "all components" : "component " + component) + ", ";
+					ImageCompareReference reference = new ImageCompareReference(image1, image2, pixelBitDepth, mask, ROIValues, 0, component, 0, null, null);
+
+					check(test + "float images", reference, new ImageCompareSA(image1, image2, pixelBitDepth, mask, ROIValues, 0, components, 0, null, null, 1), component, 0);
+					ImageCompareSA[] ics = new ImageCompareSA[THREADS.length];
+					for(int i = 0; i < THREADS.length; i++){
+						ics[i] = new ImageCompareSA(typed1, typed2, pixelBitDepth, mask, ROIValues, 0, components, 0, THREADS[i]);
+					}
+					check(test + "typed images", reference, ics, component);
+					for(int i = 0; i < THREADS.length; i++){
+						ics[i] = new ImageCompareSA(open(file1, type, components), open(file2, type, components), pixelBitDepth, mask, ROIValues, 0, components, 0, THREADS[i]);
+					}
+					check(test + "raw images", reference, ics, component);
+					if(ROIValues == null && mask != null){
+						for(int i = 0; i < THREADS.length; i++){
+							ics[i] = new ImageCompareSA(typed1, typed2, pixelBitDepth, new BitMask(mask), 0, components, 0, THREADS[i], null);
+						}
+						check(test + "typed images, bit mask", reference, ics, component);
+						for(int i = 0; i < THREADS.length; i++){
+							ics[i] = new ImageCompareSA(open(file1, type, components), open(file2, type, components), pixelBitDepth, new BitMask(mask), 0, components, 0, THREADS[i]);
+						}
+						check(test + "raw images, bit mask", reference, ics, component);
+					}
+					for(int measure = 1; measure < MEASURES.length; measure++){
+						check(test + "typed images, only " + MEASURES[measure], reference, new ImageCompareSA(typed1, typed2, pixelBitDepth, mask, ROIValues, 0, components, measure, 1), component, measure);
+					}
+				}
+			}
+			new File(file1).delete();
+			new File(file2).delete();
+		}
+		directory.delete();
+
+		System.out.println(checks + " results checked, " + failures + " differ.");
+		if(failures > 0){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Generates a test image that fits in the range of its sample type. Integer samples of 4 and 8 bytes are kept in (-2^24, 2^24), where the three-pass implementation subtracts them exactly (it subtracts floats).
+	 *
+	 * @param type sample type as returned by {@link LoadFile#getType}
+	 * @param seed seed of the samples
+	 * @param original null to generate an original image, otherwise the original image from which a recovered image is generated (its last component is equal to the original one)
+	 * @return a 3D float array with the image samples (index are [z][y][x])
+	 */
+	static float[][][] generate(int type, long seed, float[][][] original){
+		double low, high;
+		switch(type){
+		case 0: low = 0; high = 1; break;
+		case 1: low = 0; high = 255; break;
+		case 2: low = 0; high = 65535; break;
+		case 3: low = -32768; high = 32767; break;
+		case 4:
+		case 5: low = -(1 << 23); high = (1 << 23) - 1; break;
+		default: low = -1000; high = 1000;
+		}
+		double error = type == 0 ? 1 : (high - low) / 64;
+		Random random = new Random(seed);
+		float[][][] image = new float[Z_SIZE][Y_SIZE][X_SIZE];
+		for(int z = 0; z < Z_SIZE; z++){
+			for(int y = 0; y < Y_SIZE; y++){
+				for(int x = 0; x < X_SIZE; x++){
+					double sample;
+					if(original == null){
+						sample = low + random.nextDouble() * (high - low);
+					}else if(z == Z_SIZE - 1){
+						sample = original[z][y][x];
+					}else{
+						sample = Math.min(high, Math.max(low, original[z][y][x] + (random.nextDouble() * 2 - 1) * error));
+					}
+					image[z][y][x] = (float) (type < 6 ? Math.rint(sample) : sample);
+				}
+			}
+		}
+		return(image);
+	}
+
+	/**
+	 * Generates a test mask.
+	 *
+	 * @param values number of mask values (from 0 to values - 1)
+	 * @param seed seed of the mask samples
+	 * @return a 3D byte array with the mask samples (index are [z][y][x])
+	 */
+	static byte[][][] generateMask(int values, long seed){
+		Random random = new Random(seed);
+		byte[][][] mask = new byte[Z_SIZE][Y_SIZE][X_SIZE];
+		for(int z = 0; z < Z_SIZE; z++){
+			for(int y = 0; y < Y_SIZE; y++){
+				for(int x = 0; x < X_SIZE; x++){
+					mask[z][y][x] = (byte) random.nextInt(values);
+				}
+			}
+		}
+		return(mask);
+	}
+
+	/**
+	 * Checks that a comparison gives the same results as the reference, for each compared component and for all of them.
+	 *
+	 * @param test description of the test
+	 * @param reference results of the three-pass implementation
+	 * @param ic results of ImageCompareSA
+	 * @param component compared component (numbered from 1), -1 if all of them are compared
+	 * @param measure the only measure to check, 0 to check all of them
+	 */
+	static void check(String test, ImageCompareReference reference, ImageCompareSA ic, int component, int measure){
+		for(int z = -1; z < Z_SIZE; z++){
+			if(z != -1 && component != -1 && z != component - 1){
+				continue;
+			}
+			for(int m = 1; m < MEASURES.length; m++){
+				if(measure != 0 && m != measure){
+					continue;
+				}
+				float expected = (float) getResult(reference, m, z);
+				float result = (float) getResult(ic, m, z);
+				// ME sums errors of both signs, so its rounding is relative to the absolute errors
+				float allowed = m == 5 ? Math.max(Math.ulp(expected), Math.ulp((float) getResult(reference, 1, z))) : Math.ulp(expected);
+				checks++;
+				if(Float.floatToIntBits(expected) != Float.floatToIntBits(result) && !(Math.abs(result - expected) <= allowed)){
+					failures++;
+					System.out.println(test + ", " + MEASURES[m] + (z == -1 ? " of all components" : " of component " + (z + 1)) + " is " + result + " instead of " + expected);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that comparisons with different numbers of threads give the same results as the reference, and exactly the same results among them (all the bits of the doubles).
+	 *
+	 * @param test description of the test
+	 * @param reference results of the three-pass implementation
+	 * @param ics results of ImageCompareSA with each number of threads in {@link #THREADS}
+	 * @param component compared component (numbered from 1), -1 if all of them are compared
+	 */
+	static void check(String test, ImageCompareReference reference, ImageCompareSA[] ics, int component){
+		for(int i = 0; i < ics.length; i++){
+			check(test + ", " + THREADS[i] + " threads", reference, ics[i], component, 0);
+		}
+		for(int i = 1; i < ics.length; i++){
+			for(int z = -1; z < Z_SIZE; z++){
+				if(z != -1 && component != -1 && z != component - 1){
+					continue;
+				}
+				for(int m = 1; m < MEASURES.length; m++){
+					double expected = getResult(ics[0], m, z);
+					double result = getResult(ics[i], m, z);
+					checks++;
+					if(Double.doubleToLongBits(expected) != Double.doubleToLongBits(result)){
+						failures++;
+						System.out.println(test + ", " + MEASURES[m] + (z == -1 ? " of all components" : " of component " + (z + 1)) + " is " + result + " with " + THREADS[i] + " threads instead of " + expected + " with " + THREADS[0]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens a raw test image.
+	 *
+	 * @param file the image file
+	 * @param type sample type as returned by {@link LoadFile#getType}
+	 * @param components components to read (null to read all of them)
+	 * @return a reader of the image
+	 *
+	 * @throws WarningException when the image cannot be opened
+	 */
+	static RawImageReader open(String file, int type, int[] components) throws WarningException{
+		return(new RawImageReader(file, Z_SIZE, Y_SIZE, X_SIZE, LoadFile.getClass(type), 0, components, null));
+	}
+
+	/**
+	 * @param reference results of the three-pass implementation
+	 * @param measure the measure (numbered as in Gcomp)
+	 * @param z the component (numbered from 0), -1 for the result of all the components
+	 * @return the result (1 or 0 for EQUAL)
+	 */
+	static double getResult(ImageCompareReference reference, int measure, int z){
+		switch(measure){
+		case 1: return(z == -1 ? reference.getTotalMAE() : reference.getMAE()[z]);
+		case 2: return(z == -1 ? reference.getTotalPAE() : reference.getPAE()[z]);
+		case 3: return(z == -1 ? reference.getTotalMSE() : reference.getMSE()[z]);
+		case 4: return(z == -1 ? reference.getTotalRMSE() : reference.getRMSE()[z]);
+		case 5: return(z == -1 ? reference.getTotalME() : reference.getME()[z]);
+		case 6: return(z == -1 ? reference.getTotalSNR() : reference.getSNR()[z]);
+		case 7: return(z == -1 ? reference.getTotalPSNR() : reference.getPSNR()[z]);
+		case 8: return(z == -1 ? reference.getTotalPSNRSALOMON() : reference.getPSNRSALOMON()[z]);
+		case 9: return(z == -1 ? reference.getTotalSNRVAR() : reference.getSNRVAR()[z]);
+		default: return((z == -1 ? reference.getTotalEQUAL() : reference.getEQUAL()[z]) ? 1 : 0);
+		}
+	}
+
+	/**
+	 * @param ic results of ImageCompareSA
+	 * @param measure the measure (numbered as in Gcomp)
+	 * @param z the component (numbered from 0), -1 for the result of all the components
+	 * @return the result (1 or 0 for EQUAL)
+	 */
+	static double getResult(ImageCompareSA ic, int measure, int z){
+		switch(measure){
+		case 1: return(z == -1 ? ic.getTotalMAE() : ic.getMAE()[z]);
+		case 2: return(z == -1 ? ic.getTotalPAE() : ic.getPAE()[z]);
+		case 3: return(z == -1 ? ic.getTotalMSE() : ic.getMSE()[z]);
+		case 4: return(z == -1 ? ic.getTotalRMSE() : ic.getRMSE()[z]);
+		case 5: return(z == -1 ? ic.getTotalME() : ic.getME()[z]);
+		case 6: return(z == -1 ? ic.getTotalSNR() : ic.getSNR()[z]);
+		case 7: return(z == -1 ? ic.getTotalPSNR() : ic.getPSNR()[z]);
+		case 8: return(z == -1 ? ic.getTotalPSNRSALOMON() : ic.getPSNRSALOMON()[z]);
+		case 9: return(z == -1 ? ic.getTotalSNRVAR() : ic.getSNRVAR()[z]);
+		default: return((z == -1 ? ic.getTotalEQUAL() : ic.getEQUAL()[z]) ? 1 : 0);
+		}
+	}
+}
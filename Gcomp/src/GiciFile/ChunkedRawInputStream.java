@@ -0,0 +1,344 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import GiciException.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * This class reads the samples of some components of a chunked compressed raw file (see {@link ChunkedRawWriter} for the format) as the stream of bytes of the equivalent raw file. The chunks of the first component read are located with the index, so previous components are neither read nor inflated, and the next chunks are inflated in parallel while the current one is being read.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ChunkedRawInputStream extends InputStream{
+
+	/**
+	 * Name of the file being read.
+	 */
+	String imageFile;
+
+	/**
+	 * File being read.
+	 */
+	RandomAccessFile raf;
+
+	/**
+	 * Channel of raf, which is read from several threads at fixed positions.
+	 */
+	FileChannel channel;
+
+	/**
+	 * Position of each chunk in the file.
+	 */
+	long[] chunkPositions;
+
+	/**
+	 * Compressed length of each chunk.
+	 */
+	int[] chunkLengths;
+
+	/**
+	 * Inflated length of each chunk.
+	 */
+	int[] chunkBytes;
+
+	/**
+	 * Next chunk to be inflated.
+	 */
+	int nextChunk;
+
+	/**
+	 * Chunk after the last one to be read.
+	 */
+	int endChunk;
+
+	/**
+	 * Chunks being inflated, in order.
+	 */
+	ArrayDeque<FutureTask<byte[]>> pending = new ArrayDeque<FutureTask<byte[]>>();
+
+	/**
+	 * Threads that inflate the chunks.
+	 */
+	ExecutorService executor;
+
+	/**
+	 * Maximum number of chunks being inflated at the same time.
+	 */
+	int maxPending;
+
+	/**
+	 * Inflated chunk being read (null before the first one).
+	 */
+	byte[] chunk = null;
+
+	/**
+	 * Next byte to read in chunk.
+	 */
+	int chunkPosition = 0;
+
+	/**
+	 * Opens a chunked compressed raw file and checks that it has the given geometry.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize number of components to read
+	 * @param ySize image height
+	 * @param rowBytes row size in bytes
+	 * @param zBegin first component to read
+	 *
+	 * @throws WarningException when the file cannot be opened or does not have the given geometry
+	 */
+	public ChunkedRawInputStream(String imageFile, int zSize, int ySize, int rowBytes, int zBegin) throws WarningException{
+		this.imageFile = imageFile;
+		try{
+			raf = new RandomAccessFile(imageFile, "r");
+		}catch(FileNotFoundException e){
+			throw new WarningException("File \"" + imageFile + "\" not found.");
+		}
+		channel = raf.getChannel();
+
+		try{
+			readIndex(zSize, ySize, rowBytes, zBegin);
+		}catch(IOException e){
+			closeFile();
+			throw new WarningException("File \"" + imageFile + "\" may be corrupted (or not in chunked raw format).");
+		}catch(WarningException e){
+			closeFile();
+			throw e;
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		executor = Executors.newFixedThreadPool(threads, new ChunkedRawWriter.DaemonThreadFactory());
+		maxPending = 2 * threads;
+		fillPending();
+	}
+
+	/**
+	 * Reads the index of the file and sets the chunks to be read.
+	 *
+	 * @param zSize number of components to read
+	 * @param ySize image height
+	 * @param rowBytes row size in bytes
+	 * @param zBegin first component to read
+	 *
+	 * @throws IOException when the index cannot be read
+	 * @throws WarningException when the file does not have the given geometry
+	 */
+	private void readIndex(int zSize, int ySize, int rowBytes, int zBegin) throws IOException, WarningException{
+		byte[] magic = ChunkedRawWriter.MAGIC;
+		long length = raf.length();
+		if(length < 2 * magic.length + 8 + 16){
+			throw new IOException();
+		}
+		raf.seek(length - magic.length - 8);
+		long indexPosition = raf.readLong();
+		byte[] trailer = new byte[magic.length];
+		raf.readFully(trailer);
+		if(!Arrays.equals(trailer, magic) || indexPosition < magic.length || indexPosition > length - magic.length - 8 - 16){
+			throw new IOException();
+		}
+
+		raf.seek(indexPosition);
+		int fileZSize = raf.readInt();
+		int fileYSize = raf.readInt();
+		int fileRowBytes = raf.readInt();
+		int chunkRows = raf.readInt();
+		if(fileZSize < 0 || fileYSize < 0 || fileRowBytes <= 0 || chunkRows <= 0){
+			throw new IOException();
+		}
+		if(fileYSize != ySize || fileRowBytes != rowBytes || fileZSize < zBegin + zSize){
+			throw new WarningException("File \"" + imageFile + "\" does not match the image geometry (it has " + fileZSize + " components of " + fileYSize + " rows of " + fileRowBytes + " bytes).");
+		}
+		int componentChunks = (ySize + chunkRows - 1) / chunkRows;
+		long chunkCount = (long) fileZSize * componentChunks;
+		if(length - magic.length - 8 - 16 - indexPosition != chunkCount * 12){
+			throw new IOException();
+		}
+
+		nextChunk = zBegin * componentChunks;
+		endChunk = (zBegin + zSize) * componentChunks;
+		int readChunks = endChunk - nextChunk;
+		chunkPositions = new long[readChunks];
+		chunkLengths = new int[readChunks];
+		chunkBytes = new int[readChunks];
+		byte[] entries = new byte[readChunks * 12];
+		raf.seek(indexPosition + 16 + (long) nextChunk * 12);
+		raf.readFully(entries);
+		ByteBuffer index = ByteBuffer.wrap(entries);
+		for(int chunk = 0; chunk < readChunks; chunk++){
+			chunkPositions[chunk] = index.getLong();
+			chunkLengths[chunk] = index.getInt();
+			if(chunkPositions[chunk] < magic.length || chunkLengths[chunk] < 0 || chunkPositions[chunk] + chunkLengths[chunk] > indexPosition){
+				throw new IOException();
+			}
+			int y = (chunk % componentChunks) * chunkRows;
+			chunkBytes[chunk] = Math.min(chunkRows, ySize - y) * rowBytes;
+		}
+		// Positions in the arrays start at the first chunk read
+		endChunk -= nextChunk;
+		nextChunk = 0;
+	}
+
+	/**
+	 * Starts inflating the next chunks, up to maxPending.
+	 */
+	private void fillPending(){
+		while(pending.size() < maxPending && nextChunk < endChunk){
+			FutureTask<byte[]> task = new FutureTask<byte[]>(new ChunkInflation(nextChunk));
+			executor.execute(task);
+			pending.add(task);
+			nextChunk++;
+		}
+	}
+
+	/**
+	 * Moves to the next inflated chunk.
+	 *
+	 * @return false if there are no chunks left
+	 *
+	 * @throws IOException when the chunk cannot be read or inflated
+	 */
+	private boolean nextChunk() throws IOException{
+		if(pending.isEmpty()){
+			return(false);
+		}
+		try{
+			chunk = pending.remove().get();
+		}catch(InterruptedException e){
+			throw new InterruptedIOException();
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+		chunkPosition = 0;
+		fillPending();
+		return(true);
+	}
+
+	public int read() throws IOException{
+		byte[] one = new byte[1];
+		return(read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF);
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException{
+		if(len == 0){
+			return(0);
+		}
+		while(chunk == null || chunkPosition == chunk.length){
+			if(!nextChunk()){
+				return(-1);
+			}
+		}
+		int bytes = Math.min(len, chunk.length - chunkPosition);
+		System.arraycopy(chunk, chunkPosition, b, off, bytes);
+		chunkPosition += bytes;
+		return(bytes);
+	}
+
+	public void close() throws IOException{
+		if(executor != null){
+			executor.shutdownNow();
+		}
+		pending.clear();
+		raf.close();
+	}
+
+	/**
+	 * Closes the file ignoring errors (used when the file cannot be opened).
+	 */
+	private void closeFile(){
+		try{
+			raf.close();
+		}catch(IOException e){
+		}
+	}
+
+	/**
+	 * Reads and inflates a chunk.
+	 */
+	private class ChunkInflation implements Callable<byte[]>{
+
+		/**
+		 * Chunk to inflate (index in the chunk arrays).
+		 */
+		int chunk;
+
+		ChunkInflation(int chunk){
+			this.chunk = chunk;
+		}
+
+		public byte[] call() throws IOException{
+			ByteBuffer compressed = ByteBuffer.allocate(chunkLengths[chunk]);
+			long position = chunkPositions[chunk];
+			while(compressed.hasRemaining()){
+				if(channel.read(compressed, position + compressed.position()) < 0){
+					throw new EOFException();
+				}
+			}
+
+			byte[] inflated = new byte[chunkBytes[chunk]];
+			Inflater inflater = new Inflater();
+			try{
+				inflater.setInput(compressed.array());
+				//Inflation goes on until the end of the stream, so that its checksum is verified
+				byte[] extra = new byte[1];
+				int bytes = 0;
+				while(!inflater.finished()){
+					int inflatedBytes = bytes < inflated.length ? inflater.inflate(inflated, bytes, inflated.length - bytes) : inflater.inflate(extra);
+					if(inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+						throw new IOException("File \"" + imageFile + "\" may be corrupted (chunk too short).");
+					}
+					if(bytes == inflated.length && inflatedBytes > 0){
+						throw new IOException("File \"" + imageFile + "\" may be corrupted (chunk too long).");
+					}
+					bytes += inflatedBytes;
+				}
+				if(bytes != inflated.length){
+					throw new IOException("File \"" + imageFile + "\" may be corrupted (chunk too short).");
+				}
+			}catch(DataFormatException e){
+				throw new IOException("File \"" + imageFile + "\" may be corrupted (" + e.getMessage() + ").");
+			}finally{
+				inflater.end();
+			}
+			return(inflated);
+		}
+	}
+}
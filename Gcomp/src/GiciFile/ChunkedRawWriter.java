@@ -0,0 +1,331 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import GiciException.*;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+
+/**
+ * This class writes a raw data image in the chunked compressed raw format (extension ".rawz"), compressing the chunks in parallel.<br>
+ * The samples are stored as in a raw file (band sequential, in the byte order of the geometry), but split in chunks of whole rows of a single component that are deflated (zlib) independently, so that they can be inflated in parallel and any component or row can be read without inflating the previous ones (see {@link ChunkedRawInputStream}). The file is made of:<br>
+ * &nbsp; the magic number "GICIRAWZ" (8 bytes)<br>
+ * &nbsp; the compressed chunks, in order (first the chunks of the first component, and so on)<br>
+ * &nbsp; the index: zSize, ySize, bytes of each row and rows of each chunk (4 byte integers), and then the position (8 bytes) and the compressed length (4 bytes) of each chunk<br>
+ * &nbsp; the position of the index (8 bytes) and the magic number again<br>
+ * All the integers are big endian.<br>
+ * Usage example:<br>
+ * &nbsp; construct<br>
+ * &nbsp; writeRow (zSize * ySize times)<br>
+ * &nbsp; close<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ChunkedRawWriter{
+
+	/**
+	 * Magic number at the beginning and at the end of the files.
+	 */
+	static final byte[] MAGIC = {'G', 'I', 'C', 'I', 'R', 'A', 'W', 'Z'};
+
+	/**
+	 * Approximate size of the chunks before compression, in bytes (chunks have at least one row).
+	 */
+	static final int CHUNK_BYTES = 1024 * 1024;
+
+	/**
+	 * Name of the file being written.
+	 */
+	String imageFile;
+
+	/**
+	 * Number of image components.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int zSize;
+
+	/**
+	 * Image height.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int ySize;
+
+	/**
+	 * Row size in bytes.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowBytes;
+
+	/**
+	 * Number of rows of each chunk (the last chunk of each component may have less).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int chunkRows;
+
+	/**
+	 * Stream where the file is written.
+	 */
+	DataOutputStream dos;
+
+	/**
+	 * Number of bytes already written.
+	 */
+	long position = 0;
+
+	/**
+	 * Position and compressed length of each chunk already written.
+	 */
+	List<long[]> index = new ArrayList<long[]>();
+
+	/**
+	 * Chunk being filled.
+	 */
+	byte[] chunk = null;
+
+	/**
+	 * Number of rows in chunk.
+	 */
+	int rowsInChunk = 0;
+
+	/**
+	 * Number of rows already written.
+	 */
+	long rowsWritten = 0;
+
+	/**
+	 * Chunks being compressed, in order.
+	 */
+	ArrayDeque<FutureTask<byte[]>> pending = new ArrayDeque<FutureTask<byte[]>>();
+
+	/**
+	 * Threads that compress the chunks.
+	 */
+	ExecutorService executor;
+
+	/**
+	 * Maximum number of chunks being compressed at the same time.
+	 */
+	int maxPending;
+
+	/**
+	 * Creates a chunked compressed raw file.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param rowBytes row size in bytes
+	 *
+	 * @throws WarningException when the file cannot be created
+	 */
+	public ChunkedRawWriter(String imageFile, int zSize, int ySize, int rowBytes) throws WarningException{
+		this.imageFile = imageFile;
+		this.zSize = zSize;
+		this.ySize = ySize;
+		this.rowBytes = rowBytes;
+		chunkRows = Math.max(1, Math.min(ySize, CHUNK_BYTES / rowBytes));
+
+		try{
+			dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(imageFile), 1024*1024));
+			dos.write(MAGIC);
+			position = MAGIC.length;
+		}catch(FileNotFoundException e){
+			throw new WarningException("File \"" + imageFile + "\" can not be open.");
+		}catch(IOException e){
+			throw new WarningException("I/O error saving file \"" + imageFile + "\".");
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+		maxPending = 2 * threads;
+	}
+
+	/**
+	 * Writes the next row of the image.
+	 *
+	 * @param row an array with (at least) the bytes of a row
+	 *
+	 * @throws WarningException when the row cannot be written
+	 */
+	public void writeRow(byte[] row) throws WarningException{
+		writeRow(row, 0);
+	}
+
+	/**
+	 * Writes the next row of the image.
+	 *
+	 * @param bytes an array with the bytes of the row
+	 * @param offset position of the first byte of the row
+	 *
+	 * @throws WarningException when the row cannot be written
+	 */
+	public void writeRow(byte[] bytes, int offset) throws WarningException{
+		if(rowsWritten >= (long) zSize * ySize){
+			throw new WarningException("File writing error (all the rows of \"" + imageFile + "\" have already been written).");
+		}
+		int chunkRowCount = getChunkRowCount((int) (rowsWritten % ySize));
+		if(chunk == null){
+			chunk = new byte[chunkRowCount * rowBytes];
+		}
+		System.arraycopy(bytes, offset, chunk, rowsInChunk * rowBytes, rowBytes);
+		rowsInChunk++;
+		rowsWritten++;
+		if(rowsInChunk == chunkRowCount){
+			FutureTask<byte[]> task = new FutureTask<byte[]>(new ChunkCompression(chunk));
+			executor.execute(task);
+			pending.add(task);
+			chunk = null;
+			rowsInChunk = 0;
+			while(pending.size() > maxPending){
+				writeChunk();
+			}
+		}
+	}
+
+	/**
+	 * @param y a row
+	 * @return number of rows of the chunk that contains the row
+	 */
+	int getChunkRowCount(int y){
+		return(Math.min(chunkRows, ySize - y / chunkRows * chunkRows));
+	}
+
+	/**
+	 * Waits until the oldest pending chunk is compressed and writes it.
+	 *
+	 * @throws WarningException when the chunk cannot be compressed or written
+	 */
+	private void writeChunk() throws WarningException{
+		byte[] compressed = null;
+		try{
+			compressed = pending.remove().get();
+		}catch(InterruptedException e){
+			throw new WarningException("File writing interrupted.");
+		}catch(ExecutionException e){
+			throw new WarningException("Chunk compression failed: " + e.getCause());
+		}
+		try{
+			dos.write(compressed);
+		}catch(IOException e){
+			throw new WarningException("I/O file writing error.");
+		}
+		index.add(new long[]{position, compressed.length});
+		position += compressed.length;
+	}
+
+	/**
+	 * Writes the pending chunks and the index and closes the file.
+	 *
+	 * @throws WarningException when not all the rows have been written or the file cannot be written
+	 */
+	public void close() throws WarningException{
+		try{
+			if(rowsWritten != (long) zSize * ySize){
+				throw new WarningException("File writing error (only " + rowsWritten + " rows of \"" + imageFile + "\" have been written).");
+			}
+			while(!pending.isEmpty()){
+				writeChunk();
+			}
+			try{
+				long indexPosition = position;
+				dos.writeInt(zSize);
+				dos.writeInt(ySize);
+				dos.writeInt(rowBytes);
+				dos.writeInt(chunkRows);
+				for(long[] entry: index){
+					dos.writeLong(entry[0]);
+					dos.writeInt((int) entry[1]);
+				}
+				dos.writeLong(indexPosition);
+				dos.write(MAGIC);
+				dos.close();
+			}catch(IOException e){
+				throw new WarningException("Error closing file \"" + imageFile + "\".");
+			}
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Compresses a chunk.
+	 */
+	private static class ChunkCompression implements Callable<byte[]>{
+
+		/**
+		 * Bytes of the chunk.
+		 */
+		byte[] chunk;
+
+		ChunkCompression(byte[] chunk){
+			this.chunk = chunk;
+		}
+
+		public byte[] call(){
+			Deflater deflater = new Deflater();
+			try{
+				deflater.setInput(chunk);
+				deflater.finish();
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(chunk.length / 2 + 64);
+				byte[] buffer = new byte[64 * 1024];
+				while(!deflater.finished()){
+					int bytes = deflater.deflate(buffer);
+					compressed.write(buffer, 0, bytes);
+				}
+				return(compressed.toByteArray());
+			}finally{
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Creates daemon threads, so that the threads of a file that is not closed do not keep the application running.
+	 */
+	static class DaemonThreadFactory implements ThreadFactory{
+
+		public Thread newThread(Runnable runnable){
+			Thread thread = new Thread(runnable, "GiciFile chunked raw");
+			thread.setDaemon(true);
+			return(thread);
+		}
+	}
+}
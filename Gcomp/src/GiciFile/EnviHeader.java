@@ -0,0 +1,322 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import GiciException.*;
+
+import java.io.*;
+import java.util.HashMap;
+
+
+/**
+ * This class reads the ENVI header of a raw data image (a text sidecar file, ".hdr"), which describes the geometry of the image: samples, lines, bands, data type, byte order, interleave and header offset. The geometry is checked against the length of the image file before anything is read, so a wrong header is rejected without loading the image.<br>
+ * The header of "image.raw" is "image.raw.hdr" or "image.hdr" (compressed images, like "image.raw.gz", use the header of the uncompressed name).<br>
+ * Usage example:<br>
+ * &nbsp; find<br>
+ * &nbsp; checkFileLength<br>
+ * &nbsp; getImageGeometry<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class EnviHeader{
+
+	/**
+	 * Name of the header file.
+	 */
+	String headerFile;
+
+	/**
+	 * Number of image components ("bands").
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int zSize;
+
+	/**
+	 * Image height ("lines").
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int ySize;
+
+	/**
+	 * Image width ("samples").
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int xSize;
+
+	/**
+	 * Sample type as returned by {@link LoadFile#getType} ("data type").
+	 */
+	int sampleType;
+
+	/**
+	 * 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN ("byte order", which is 0 for little endian files in ENVI headers).
+	 */
+	int byteOrder;
+
+	/**
+	 * Layout of the samples ({@link RawImageReader#BSQ}, {@link RawImageReader#BIL} or {@link RawImageReader#BIP}, "interleave").
+	 */
+	int layout;
+
+	/**
+	 * Number of bytes before the samples ("header offset").
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int headerOffset;
+
+	/**
+	 * Reads an ENVI header. Fields other than the geometry ones are ignored.
+	 *
+	 * @param headerFile an string that contains the name of the header file
+	 *
+	 * @throws WarningException when the file cannot be read, it is not an ENVI header or its geometry is not valid
+	 */
+	public EnviHeader(String headerFile) throws WarningException{
+		this.headerFile = headerFile;
+		HashMap<String, String> fields = new HashMap<String, String>();
+
+		BufferedReader reader = null;
+		try{
+			reader = new BufferedReader(new FileReader(headerFile));
+			String line = reader.readLine();
+			if(line == null || !line.trim().startsWith("ENVI")){
+				throw new WarningException("File \"" + headerFile + "\" is not an ENVI header.");
+			}
+			while((line = reader.readLine()) != null){
+				int equalPos = line.indexOf("=");
+				if(equalPos < 0){
+					continue;
+				}
+				String key = line.substring(0, equalPos).trim().toLowerCase();
+				String value = line.substring(equalPos + 1).trim();
+				//Values in braces can span several lines
+				if(value.startsWith("{")){
+					StringBuilder braces = new StringBuilder(value);
+					while(braces.indexOf("}") < 0 && (line = reader.readLine()) != null){
+						braces.append(" ").append(line.trim());
+					}
+					value = braces.toString();
+				}
+				fields.put(key, value);
+			}
+		}catch(FileNotFoundException e){
+			throw new WarningException("File \"" + headerFile + "\" not found.");
+		}catch(IOException e){
+			throw new WarningException("File \"" + headerFile + "\" cannot be read.");
+		}finally{
+			if(reader != null){
+				//The header has been read (or an exception is already thrown), so a
+				//failed close is ignored instead of replacing that exception
+				try{
+					reader.close();
+				}catch(IOException e){
+				}
+			}
+		}
+
+		xSize = getField(fields, "samples", -1);
+		ySize = getField(fields, "lines", -1);
+		zSize = getField(fields, "bands", -1);
+		if(xSize <= 0 || ySize <= 0 || zSize <= 0){
+			throw new WarningException("Header \"" + headerFile + "\" must give positive samples, lines and bands.");
+		}
+
+		int dataType = getField(fields, "data type", -1);
+		sampleType = getType(dataType);
+		if(sampleType < 0){
+			throw new WarningException("ENVI data type " + dataType + " of header \"" + headerFile + "\" is not supported.");
+		}
+
+		//Byte order is needed unless samples are single bytes
+		int enviByteOrder = getField(fields, "byte order", RawImageReader.getSampleBytes(sampleType) == 1 ? 0 : -1);
+		if(enviByteOrder != 0 && enviByteOrder != 1){
+			throw new WarningException("Header \"" + headerFile + "\" must give a byte order of 0 (little endian) or 1 (big endian).");
+		}
+		byteOrder = enviByteOrder == 0 ? 1 : 0;
+
+		String interleave = fields.get("interleave");
+		layout = interleave == null ? RawImageReader.BSQ : getLayout(interleave);
+		if(layout < 0){
+			throw new WarningException("Interleave \"" + interleave + "\" of header \"" + headerFile + "\" unrecognized.");
+		}
+
+		headerOffset = getField(fields, "header offset", 0);
+		if(headerOffset < 0){
+			throw new WarningException("Header offset of header \"" + headerFile + "\" must be positive.");
+		}
+	}
+
+	/**
+	 * Looks for the ENVI header of a raw data image.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @return the name of the header file, or null if the image has no header
+	 */
+	static public String getHeaderFile(String imageFile){
+		String name = imageFile;
+		if(name.toLowerCase().endsWith(".gz")){
+			name = name.substring(0, name.length() - 3);
+		}
+		String headerFile = name + ".hdr";
+		if(!new File(headerFile).isFile()){
+			int dotPos = name.lastIndexOf(".");
+			if(dotPos > name.lastIndexOf(File.separator)){
+				headerFile = name.substring(0, dotPos) + ".hdr";
+			}
+			if(!new File(headerFile).isFile()){
+				headerFile = null;
+			}
+		}
+		return(headerFile);
+	}
+
+	/**
+	 * Reads the ENVI header of a raw data image.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @return the header, or null if the image has no header
+	 *
+	 * @throws WarningException when the header cannot be read or its geometry is not valid
+	 */
+	static public EnviHeader find(String imageFile) throws WarningException{
+		String headerFile = getHeaderFile(imageFile);
+		return(headerFile == null ? null : new EnviHeader(headerFile));
+	}
+
+	/**
+	 * Checks that the length of an uncompressed image file is the one described by the header (compressed files cannot be checked without inflating them, so they are not checked).
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 *
+	 * @throws WarningException when the file does not exist or its length is not the one of the header
+	 */
+	public void checkFileLength(String imageFile) throws WarningException{
+		String name = imageFile.toLowerCase();
+		if(name.endsWith(".gz") || name.endsWith(".rawz")){
+			return;
+		}
+		File file = new File(imageFile);
+		if(!file.isFile()){
+			throw new WarningException("File \"" + imageFile + "\" not found.");
+		}
+		long expected = headerOffset + (long) zSize * ySize * xSize * RawImageReader.getSampleBytes(sampleType);
+		if(file.length() != expected){
+			throw new WarningException("File \"" + imageFile + "\" has " + file.length() + " bytes, but header \"" + headerFile + "\" describes " + expected + " bytes.");
+		}
+	}
+
+	/**
+	 * Converts an ENVI data type to a sample type.
+	 *
+	 * @param dataType ENVI data type (1 byte, 2 short, 3 int, 4 float, 5 double, 12 unsigned short, 14 long)
+	 * @return the sample type as returned by {@link LoadFile#getType}, or -1 if the type is not supported (complex and unsigned 32 and 64 bit types)
+	 */
+	static public int getType(int dataType){
+		int type = -1;
+		switch(dataType){
+		case 1: //byte
+			type = 1;
+			break;
+		case 2: //short
+			type = 3;
+			break;
+		case 3: //int
+			type = 4;
+			break;
+		case 4: //float
+			type = 6;
+			break;
+		case 5: //double
+			type = 7;
+			break;
+		case 12: //unsigned short
+			type = 2;
+			break;
+		case 14: //long
+			type = 5;
+			break;
+		}
+		return(type);
+	}
+
+	/**
+	 * Converts an ENVI interleave to a layout.
+	 *
+	 * @param interleave "bsq", "bil" or "bip" (in any case)
+	 * @return {@link RawImageReader#BSQ}, {@link RawImageReader#BIL} or {@link RawImageReader#BIP}, or -1 if the interleave is not recognized
+	 */
+	static public int getLayout(String interleave){
+		int layout = -1;
+		if(interleave.equalsIgnoreCase("bsq"))      layout = RawImageReader.BSQ;
+		else if(interleave.equalsIgnoreCase("bil")) layout = RawImageReader.BIL;
+		else if(interleave.equalsIgnoreCase("bip")) layout = RawImageReader.BIP;
+		return(layout);
+	}
+
+	/**
+	 * Gives an integer field of the header.
+	 *
+	 * @param fields fields of the header (keys in lower case)
+	 * @param key name of the field
+	 * @param defaultValue value when the field is not in the header (-1 if it is mandatory)
+	 * @return the value of the field
+	 *
+	 * @throws WarningException when the field is mandatory and it is not in the header, or it is not an integer
+	 */
+	private int getField(HashMap<String, String> fields, String key, int defaultValue) throws WarningException{
+		String value = fields.get(key);
+		if(value == null){
+			if(defaultValue == -1){
+				throw new WarningException("Header \"" + headerFile + "\" does not give the " + key + ".");
+			}
+			return(defaultValue);
+		}
+		try{
+			return(Integer.parseInt(value));
+		}catch(NumberFormatException e){
+			throw new WarningException("Value \"" + value + "\" of " + key + " in header \"" + headerFile + "\" is not an integer.");
+		}
+	}
+
+	/**
+	 * @return the geometry of the image: zSize, ySize, xSize, sample type (as returned by {@link LoadFile#getType}), byte order (0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN), layout and header offset
+	 */
+	public int[] getImageGeometry(){
+		return(new int[]{zSize, ySize, xSize, sampleType, byteOrder, layout, headerOffset});
+	}
+
+	/**
+	 * @return headerFile definition in this class
+	 */
+	public String getHeaderFile(){
+		return(headerFile);
+	}
+}
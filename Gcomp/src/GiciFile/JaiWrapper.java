@@ -2,6 +2,7 @@ package GiciFile;
 
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferFloat;
 import java.awt.image.Raster;
@@ -49,6 +50,69 @@ public class JaiWrapper {
 		return buffImage;
 	}
 
+	/**
+	 * Loads an image without copying it to a BufferedImage, so that its samples can be read
+	 * tile by tile as the codec decodes them. The image must be released with jaiDispose.
+	 */
+	static RenderedImage jaiLoadTiled(String imageFile) throws WarningException {
+		RenderedImage img = null;
+
+		try {
+			Method JaiCreate = Class.forName("javax.media.jai.JAI").getMethod("create", String.class, Object.class);
+
+			//RenderedOp img = JAI.create("FileLoad", imageFile);
+			img = (RenderedImage) JaiCreate.invoke(null, "FileLoad", imageFile);
+		} catch (ClassNotFoundException e){
+			throw new Error("Java Advanced Imaging API (JAI) must be installed in order to be able to operate with this specific file format.");
+		} catch (InvocationTargetException e) {
+			throw new WarningException(e.getTargetException().getMessage());
+		} catch (Exception e){
+			e.printStackTrace();
+			throw new Error("JAI error: " + e.getMessage());
+		}
+
+		return img;
+	}
+
+	static void jaiDispose(RenderedImage img) throws WarningException {
+		try {
+			Method dispose = Class.forName("javax.media.jai.RenderedOp").getMethod("dispose");
+
+			//img.dispose();
+			dispose.invoke(img);
+		} catch (ClassNotFoundException e){
+			throw new Error("Java Advanced Imaging API (JAI) must be installed in order to be able to operate with this specific file format.");
+		} catch (InvocationTargetException e) {
+			throw new WarningException(e.getTargetException().getMessage());
+		} catch (Exception e){
+			e.printStackTrace();
+			throw new Error("JAI error: " + e.getMessage());
+		}
+	}
+
+	static ColorModel createColorModel (SampleModel sm) throws WarningException {
+		ColorModel cm = null;
+
+		try {
+			Method createColorModel = Class.forName("javax.media.jai.PlanarImage").getMethod("createColorModel", SampleModel.class);
+
+			//ColorModel cm = PlanarImage.createColorModel(sm);
+			cm = (ColorModel) createColorModel.invoke(null, sm);
+		} catch (ClassNotFoundException e){
+			throw new Error("Java Advanced Imaging API (JAI) must be installed in order to be able to operate with this specific file format.");
+		} catch (InvocationTargetException e) {
+			throw new WarningException(e.getTargetException().getMessage());
+		} catch (Exception e){
+			e.printStackTrace();
+			throw new Error("JAI error: " + e.getMessage());
+		}
+		if (cm == null) {
+			throw new WarningException("Unrecognized color model.");
+		}
+
+		return cm;
+	}
+
 	static Raster createRaster (int xSize, int ySize, int zSize, DataBufferFloat dbf) throws WarningException {
 		Raster r = null;
 
@@ -98,6 +162,18 @@ public class JaiWrapper {
 		return buffImage;
 	}
 	
+	static RenderedImage jaiLoadTiled(String imageFile) {
+		return JAI.create("FileLoad", imageFile);
+	}
+	
+	static void jaiDispose(RenderedImage img) {
+		((RenderedOp) img).dispose();
+	}
+	
+	static ColorModel createColorModel (SampleModel sm) {
+		return PlanarImage.createColorModel(sm);
+	}
+	
 	static Raster createRaster (int xSize, int ySize, int zSize, DataBufferFloat dbf) {
 		SampleModel sm = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, xSize, ySize, zSize);
 		Raster r = RasterFactory.createRaster(sm, dbf, new Point(0,0));
@@ -27,11 +27,10 @@
 package GiciFile;
 import GiciException.*;
 
-import java.io.*;
-import java.nio.*;
-import java.util.zip.GZIPInputStream;
-
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.io.File;
+import java.util.Arrays;
 
 
 /**
@@ -39,7 +38,7 @@ import java.awt.image.*;
  * The image file can be a standard format or raw data. Size and data type must be specified if we use raw data loading.<br>
  * Usage example:<br>
  * &nbsp; construct<br>
- * &nbsp; getImage<br>
+ * &nbsp; getImage or getTypedImage<br>
  * &nbsp; getTypes<br>
  * &nbsp; getRGBComponents<br>
  *
@@ -49,11 +48,18 @@ import java.awt.image.*;
 public class LoadFile{
 	
 	/**
-	 * Image samples (index meaning [z][y][x]).
+	 * Image samples (index meaning [z][y][x]). Raw and pgm images are only converted to float when they are requested.
 	 * <p>
 	 * All values allowed.
 	 */
 	float[][][] imageSamples = null;
+
+	/**
+	 * Image samples with their own type (raw and pgm images are loaded here).
+	 * <p>
+	 * All values allowed.
+	 */
+	TypedImage typedSamples = null;
 	
 	
 	/**
@@ -100,6 +106,11 @@ public class LoadFile{
 	 * Indicates whether pixels are signed 
 	 */
 	int[] signedPixels = null;
+
+	/**
+	 * Data type of the samples of an image loaded with JAI, as given by its sample model (one of the DataBuffer TYPE constants, -1 for the other images).
+	 */
+	int jaiDataType = -1;
 	
 	/**
 	 * Loads a pgm image.
@@ -110,138 +121,33 @@ public class LoadFile{
 	 */
 	public void LoadPGM(String imageFile) throws WarningException{
 		try{
-			// test for .gz and read on the fly with GZIPInputStream
-			String extension = "";
-			int dotPos = imageFile.lastIndexOf(".");
-			
-			if(dotPos >= 0){
-				extension = imageFile.substring(dotPos + 1, imageFile.length());
-			} 
-			
-			BufferedReader br = null;
-
-			if (extension.compareToIgnoreCase("gz") == 0){
-				br = new BufferedReader(new InputStreamReader(
-						new GZIPInputStream(new FileInputStream(imageFile))));
-			} else {
-				br = new BufferedReader(new FileReader(imageFile));
-			}
-						
-			String pgmHeader = null;
-			String sizeHeader = null;
-			String classHeader = null;
-			int headerLength = 0;
-			
-			do {
-				pgmHeader = br.readLine();
-				headerLength += pgmHeader.length()+1;
-			} while(pgmHeader.startsWith("#"));
-			
-			if (!(pgmHeader.equals("P5") || pgmHeader.equals("P2"))){
-				throw new WarningException("File \"" + imageFile + "\" can not be loaded. Problems with the magic number"); 
-			}
-			
-			do{
-				sizeHeader = br.readLine();
-				headerLength += sizeHeader.length()+1;
-			} while(sizeHeader.startsWith("#"));
-			
-			String xS = sizeHeader.substring(0,sizeHeader.indexOf(" "));
-			String yS = sizeHeader.substring(sizeHeader.indexOf(" ") + 1, sizeHeader.length());
-			xSize = Integer.parseInt(xS); 
-			ySize = Integer.parseInt(yS);
+			//The file is opened once, the header is read from the same stream as the samples
+			PGMReader reader = new PGMReader(imageFile);
+			xSize = reader.getXSize();
+			ySize = reader.getYSize();
 			zSize = 1;
-			do{
-				classHeader = br.readLine();
-				headerLength += classHeader.length()+1;
-			}while(classHeader.startsWith("#"));
-			int maxValue = Integer.parseInt(classHeader);
+			int maxValue = reader.getMaxValue();
 			
-			imageSamples = new float[zSize][ySize][xSize];
 			samplesType = new Class[zSize];
 			if(maxValue<=255){
 				samplesType[0] = Byte.TYPE;
+				typedSamples = new TypedImage(zSize, ySize, xSize, 1);
 			} else {
+				//Samples are unsigned
 				samplesType[0] = Short.TYPE;
+				typedSamples = new TypedImage(zSize, ySize, xSize, 2);
 			}
 			
-			if (pgmHeader.equals("P5")){
-				DataInputStream dis = null;
-				
-				if (extension.compareToIgnoreCase("gz") == 0){
-					dis = new DataInputStream(new GZIPInputStream(new FileInputStream(imageFile)));
-				} else {
-					dis = new DataInputStream(new FileInputStream(imageFile));	
-				}
-				
-				for(int k=0;k<headerLength;k++){
-					dis.readByte();
-				}
-				if (samplesType[0]==Byte.TYPE){
-					ByteBuffer buffer = ByteBuffer.allocate(xSize);
-					for(int y=0;y<ySize;y++){
-						int bytes_read = 0;
-						int buffer_fill = 0;
-						
-						try{
-							// Keep trying till we get enough
-							byte[] b = buffer.array();
-							do {
-								buffer_fill += bytes_read;
-								bytes_read = dis.read(b, buffer_fill, xSize - buffer_fill);
-							} while (bytes_read >= 0 && bytes_read + buffer_fill < xSize);
-							
-							if (bytes_read >= 0) {
-								bytes_read += buffer_fill;
-							}
-						}catch(IOException e){
-							throw new WarningException("I/O file reading error.");
-						}
-						
-						if(bytes_read < 0) {
-							throw new WarningException("File reading error (end of file reached before the full file has been read).");
-						}
-						
-						if(bytes_read != xSize){
-							throw new WarningException("File reading error (" + bytes_read + " bytes read, but " + xSize + " needed).");
-						}
-						
-						for(int x=0;x<xSize;x++){
-							imageSamples[0][y][x] = buffer.get(x) & 0xff;
-						}
-						
-						buffer.clear();
-					}
-				} else {
-					//FIXME this is really slow! it must be as the byte case
-					
-					for(int y=0;y<ySize;y++){
-						for(int x=0;x<xSize;x++){							
-							imageSamples[0][y][x] = dis.readChar();
-						}
-					}
-				} 
-				dis = null;
-			} else {//pgm contains data stored in ascii
-				String line = br.readLine();
-				int[] integerArray = getIntegerArray(line);
-				int arrayPosition = 0;
+			try{
+				//Binary samples (8 or 16 bit) are read a whole row at a time and ascii
+				//samples are parsed straight to the image
 				for(int y=0;y<ySize;y++){
-					for(int x=0;x<xSize;x++){
-						if (arrayPosition==integerArray.length){
-							arrayPosition = 0;
-							line = br.readLine();
-							integerArray = getIntegerArray(line);
-						}
-						imageSamples[0][y][x] = integerArray[arrayPosition];
-						arrayPosition++;
-						
-					}
+					reader.readRow(typedSamples, 0, y);
 				}
-				
+			}finally{
+				reader.close();
 			}
 			
-			br = null;
 			this.signedPixels = new int[zSize];
 			for(int z=0;z<zSize;z++){
 				this.signedPixels[z] = 0;
@@ -251,26 +157,6 @@ public class LoadFile{
 		}
 	}
 	
-	/**
-	 * Receives a String that contains a sequence of integer numbers and returns an array with the integers in the String
-	 *  
-	 * @param line String containing integers separated by blank spaces
-	 * 
-	 * @return an array of integers containing the numbers of the String in the same order
-	 */
-	int[] getIntegerArray(String line){
-		int[] array=null;
-		if (line!=null){
-			
-			String values[] = line.split(" ");
-			array = new int[values.length];
-			for(int k=0;k<array.length;k++){
-				array[k] = Integer.parseInt(values[k]);
-			}
-		}
-		return array;
-	}
-	
 	/**
 	 * Loads an image (JAI loading).
 	 *
@@ -294,13 +180,22 @@ public class LoadFile{
 		}
 		
 		if (extension.compareToIgnoreCase("pgm") != 0){
-			//Image load with JAI
-			BufferedImage buffImage = JaiWrapper.jaiLoad(imageFile);
+			//Image load with JAI (tiles are decoded when they are requested)
+			RenderedImage image = JaiWrapper.jaiLoadTiled(imageFile);
 			
 			//Get size
-			zSize = buffImage.getRaster().getNumBands();
-			ySize = buffImage.getHeight();
-			xSize = buffImage.getWidth();
+			zSize = image.getSampleModel().getNumBands();
+			jaiDataType = image.getSampleModel().getDataType();
+			ySize = image.getHeight();
+			xSize = image.getWidth();
+			
+			//A one pixel image with the same color and sample models gives the
+			//type that the image would have if it was copied to a BufferedImage
+			ColorModel colorModel = image.getColorModel();
+			if(colorModel == null){
+				colorModel = JaiWrapper.createColorModel(image.getSampleModel());
+			}
+			BufferedImage buffImage = new BufferedImage(colorModel, Raster.createWritableRaster(image.getSampleModel().createCompatibleSampleModel(1, 1), null), colorModel.isAlphaPremultiplied(), null);
 			
 			//Memory allocation
 			imageSamples = new float[zSize][ySize][xSize];
@@ -379,21 +274,35 @@ public class LoadFile{
 				}
 			}
 			
-			//Set the samples
-			float pixel[] = new float[zSize];
-			for(int y = buffImage.getMinY(); y < buffImage.getMinY() + ySize; y++){
-				for(int x = buffImage.getMinX(); x < buffImage.getMinX() + xSize; x++){
-					buffImage.getRaster().getPixel(x,y,pixel);
+			//Set the samples, a whole tile row of each band at a time
+			try{
+				float[] tileRow = null;
+				for(int tileY = image.getMinTileY(); tileY < image.getMinTileY() + image.getNumYTiles(); tileY++){
+				for(int tileX = image.getMinTileX(); tileX < image.getMinTileX() + image.getNumXTiles(); tileX++){
+					Raster tile = image.getTile(tileX, tileY);
+					Rectangle bounds = tile.getBounds().intersection(new Rectangle(image.getMinX(), image.getMinY(), xSize, ySize));
+					int xBegin = bounds.x - image.getMinX();
 					for(int z = 0; z < zSize; z++){
-						imageSamples[z][y][x] = pixel[z];
+						for(int y = bounds.y; y < bounds.y + bounds.height; y++){
+							float[] row = imageSamples[z][y - image.getMinY()];
+							if(bounds.width == xSize){
+								//Tiles as wide as the image (untiled images and strips) are read in place
+								tile.getSamples(bounds.x, y, bounds.width, 1, z, row);
+							}else{
+								if(tileRow == null || tileRow.length < bounds.width){
+									tileRow = new float[bounds.width];
+								}
+								tile.getSamples(bounds.x, y, bounds.width, 1, z, tileRow);
+								System.arraycopy(tileRow, 0, row, xBegin, bounds.width);
+							}
+						}
 					}
-				}
+				}}
+			}finally{
+				//Free JAI memory
+				JaiWrapper.jaiDispose(image);
 			}
-			//Free JAI memory
-			buffImage.flush();
-//			img.dispose();
-			buffImage = null;
-			//img = null;
+			image = null;
 		} else {//the pgm is loaded
 			LoadPGM(imageFile);
 		}
@@ -435,6 +344,149 @@ public class LoadFile{
 		this.zBegin = zBegin;
 		rawLoad(imageFile, zSize, ySize, xSize, getClass(sampleType), byteOrder,RGBComponents);
 	}
+
+	/**
+	 * Interface to call raw data image load reading only some components and a window of them. Uncompressed files are read only at the bytes of the window (see {@link RawImageReader}).
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize number of components of the file
+	 * @param ySize height of the file
+	 * @param xSize width of the file
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param bands components of the file to load, in increasing order (null to load all of them)
+	 * @param window xBegin, yBegin, width and height of the window to load (null to load whole components)
+	 *
+	 * @throws WarningException when the file cannot be load or the components or the window are not in the file
+	 */
+	public LoadFile(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, boolean RGBComponents, int[] bands, int[] window) throws WarningException{
+		this(imageFile, zSize, ySize, xSize, sampleType, byteOrder, RawImageReader.BSQ, RGBComponents, bands, window);
+	}
+
+	/**
+	 * Interface to call raw data image load of a file stored in any layout, reading only some components and a window of them. Samples of BIL and BIP files are transposed to components while they are read (see {@link RawImageReader}).
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize number of components of the file
+	 * @param ySize height of the file
+	 * @param xSize width of the file
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param layout layout of the samples in the file ({@link RawImageReader#BSQ}, {@link RawImageReader#BIL} or {@link RawImageReader#BIP})
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param bands components of the file to load, in increasing order (null to load all of them)
+	 * @param window xBegin, yBegin, width and height of the window to load (null to load whole components)
+	 *
+	 * @throws WarningException when the file cannot be load or the components or the window are not in the file
+	 */
+	public LoadFile(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, int layout, boolean RGBComponents, int[] bands, int[] window) throws WarningException{
+		setSignedPixels(sampleType, bands == null ? zSize : bands.length);
+		rawLoad(new RawImageReader(imageFile, zSize, ySize, xSize, getClass(sampleType), byteOrder, layout, bands, window), getClass(sampleType), RGBComponents);
+	}
+
+	/**
+	 * Interface to call raw data image load with the geometry given by an array (as given by {@link #getHeaderGeometry}), reading only some components and a window of them.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param imageGeometry zSize, ySize, xSize, sample type, byte order (0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN) and, optionally, layout (BSQ if not given) and header offset (0 if not given) of the file
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param bands components of the file to load, in increasing order (null to load all of them)
+	 * @param window xBegin, yBegin, width and height of the window to load (null to load whole components)
+	 *
+	 * @throws WarningException when the file cannot be load or the components or the window are not in the file
+	 */
+	public LoadFile(String imageFile, int[] imageGeometry, boolean RGBComponents, int[] bands, int[] window) throws WarningException{
+		setSignedPixels(imageGeometry[3], bands == null ? imageGeometry[0] : bands.length);
+		rawLoad(new RawImageReader(imageFile, imageGeometry, bands, window), getClass(imageGeometry[3]), RGBComponents);
+	}
+
+	/**
+	 * Checks that an uncompressed raw data image file is long enough for a geometry (compressed files cannot be checked without inflating them, so they are not checked). It only looks at the length of the file, so a wrong geometry is rejected before anything is allocated or read.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param imageGeometry zSize, ySize, xSize, sample type, byte order and, optionally, layout and header offset of the file
+	 *
+	 * @throws WarningException when the file does not exist or it is shorter than its geometry
+	 */
+	static public void checkRawLength(String imageFile, int[] imageGeometry) throws WarningException{
+		String name = imageFile.toLowerCase();
+		if(name.endsWith(".gz") || name.endsWith(".rawz")){
+			return;
+		}
+		File file = new File(imageFile);
+		if(!file.isFile()){
+			throw new WarningException("File \"" + imageFile + "\" not found.");
+		}
+		long needed = (imageGeometry.length > 6 ? imageGeometry[6] : 0)
+			+ (long) imageGeometry[0] * imageGeometry[1] * imageGeometry[2] * RawImageReader.getSampleBytes(imageGeometry[3]);
+		if(file.length() < needed){
+			throw new WarningException("File \"" + imageFile + "\" has " + file.length() + " bytes, but its geometry needs " + needed + " bytes.");
+		}
+	}
+
+	/**
+	 * Gives the geometry of a raw data image described by its ENVI header (see {@link EnviHeader}). The length of uncompressed files is checked against the header, so that a wrong header is rejected before anything is allocated or read.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @return zSize, ySize, xSize, sample type, byte order, layout and header offset of the file, or null if it has no header
+	 *
+	 * @throws WarningException when the header cannot be read or it does not describe the file
+	 */
+	static public int[] getHeaderGeometry(String imageFile) throws WarningException{
+		EnviHeader header = EnviHeader.find(imageFile);
+		if(header == null){
+			return(null);
+		}
+		header.checkFileLength(imageFile);
+		return(header.getImageGeometry());
+	}
+
+	/**
+	 * Loads an image (JAI loading) and keeps only some components and a window of them. The whole image is decoded before the rest is discarded.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param bands components to keep, in increasing order (null to keep all of them)
+	 * @param window xBegin, yBegin, width and height of the window to keep (null to keep whole components)
+	 *
+	 * @throws WarningException when the file cannot be load or the components or the window are not in the image
+	 */
+	public LoadFile(String imageFile, int[] bands, int[] window) throws WarningException{
+		this(imageFile);
+		if(bands == null){
+			bands = RawImageReader.getBandRange(0, zSize);
+		}
+		if(window == null){
+			window = new int[]{0, 0, xSize, ySize};
+		}
+		RawImageReader.checkSubset(zSize, ySize, xSize, bands, window);
+
+		if(typedSamples != null){
+			typedSamples = typedSamples.crop(bands, window);
+		}
+		if(imageSamples != null){
+			float[][][] cropped = new float[bands.length][window[3]][];
+			for(int z = 0; z < bands.length; z++){
+				for(int y = 0; y < window[3]; y++){
+					cropped[z][y] = Arrays.copyOfRange(imageSamples[bands[z]][window[1] + y], window[0], window[0] + window[2]);
+				}
+			}
+			imageSamples = cropped;
+		}
+		Class[] croppedTypes = new Class[bands.length];
+		int[] croppedSigned = signedPixels == null ? null : new int[bands.length];
+		for(int z = 0; z < bands.length; z++){
+			croppedTypes[z] = samplesType[bands[z]];
+			if(croppedSigned != null){
+				croppedSigned[z] = signedPixels[bands[z]];
+			}
+		}
+		samplesType = croppedTypes;
+		signedPixels = croppedSigned;
+		zSize = bands.length;
+		ySize = window[3];
+		xSize = window[2];
+	}
 	
 	/**
 	 * Interface to call raw data image load.
@@ -482,11 +534,11 @@ public class LoadFile{
 	public static boolean isRaw(final String fileName) {
 		// By now with this we do
 		return (fileName.endsWith(".raw") || fileName.endsWith(".img") || fileName.endsWith(".rawl")
-				|| fileName.endsWith(".raw.gz") || fileName.endsWith(".img.gz"));
+				|| fileName.endsWith(".rawz") || fileName.endsWith(".raw.gz") || fileName.endsWith(".img.gz"));
 	}
 	
 	/**
-	 * Loads a raw data image.
+	 * Loads a raw data image from the component zBegin.
 	 *
 	 * @param imageFile an string that contains the name of the image file
 	 * @param zSize an integer of image depth
@@ -499,186 +551,53 @@ public class LoadFile{
 	 * @throws WarningException when the file cannot be load
 	 */
 	public void rawLoad(String imageFile, int zSize, int ySize, int xSize, Class sampleType, int byteOrder, boolean RGBComponents) throws WarningException{
-		
-		assert (imageFile != null);
+		rawLoad(new RawImageReader(imageFile, zBegin + zSize, ySize, xSize, sampleType, byteOrder, RawImageReader.getBandRange(zBegin, zSize), null), sampleType, RGBComponents);
+	}
+
+	/**
+	 * Loads the components and the window of a raw data image opened by a reader (only their bytes are read).
+	 *
+	 * @param reader the opened image
+	 * @param sampleType a Class of image samples type
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 *
+	 * @throws WarningException when the file cannot be load
+	 */
+	private void rawLoad(RawImageReader reader, Class sampleType, boolean RGBComponents) throws WarningException{
 		
 		//Size set
-		this.zSize = zSize;
-		this.ySize = ySize;
-		this.xSize = xSize;
+		this.zSize = reader.getZSize();
+		this.ySize = reader.getYSize();
+		this.xSize = reader.getXSize();
+		this.zBegin = reader.getZBegin();
 
 		//Memory allocation
-		imageSamples = new float[zSize][ySize][xSize];
-		samplesType = new Class[zSize];
+		typedSamples = new TypedImage(this.zSize, this.ySize, this.xSize, getType(sampleType.getName()));
+		samplesType = new Class[this.zSize];
 
 		//Sample type set
-		for(int z = 0; z < zSize; z++){
+		for(int z = 0; z < this.zSize; z++){
 			this.samplesType[z] = sampleType;
 		}
 		this.RGBComponents = RGBComponents;
 
-		//Test first for .gz
-		boolean fileIsAGZ = false;
-		int dotPos = imageFile.lastIndexOf(".");
-		
-		if(dotPos >= 0){
-			fileIsAGZ = imageFile.substring(dotPos + 1, imageFile.length()).compareToIgnoreCase("gz") == 0;
-		} 
-		
-		//Open file and loads it
-		InputStream fis = null;
-		try{
-			if (fileIsAGZ) {
-				fis = new GZIPInputStream(new FileInputStream(imageFile), 1024*1024);
-			} else {
-				fis = new BufferedInputStream(new FileInputStream(imageFile), 1024*1024);
-			}
-		}catch(FileNotFoundException e){
-			throw new WarningException("File \"" + imageFile + "\" not found.");
-		}catch(IOException e) {
-			throw new WarningException("File \"" + imageFile + "\" may be corrupted (or not in gzip format).");
-		}
-		
-		DataInputStream dis = new DataInputStream(fis);
-
-		//Buffer to perform data conversion
-		ByteBuffer buffer;
-		//Line size in bytes
-		int byte_xSize;
-		int t = getType(sampleType.getName());
-
-		//Set correct line size
-		switch(t){
-		case 0: //boolean - 1 byte
-			byte_xSize = xSize;
-			break;
-		case 1: //byte
-			byte_xSize = xSize;
-			break;
-		case 2: //char
-			byte_xSize = 2 * xSize;
-			break;
-		case 3: //short
-			byte_xSize = 2 * xSize;
-			break;
-		case 4: //int
-			byte_xSize = 4 * xSize;
-			break;
-		case 5: //long
-			byte_xSize = 8 * xSize;
-			break;
-		case 6: //float
-			byte_xSize = 4 * xSize;
-			break;
-		case 7: //double
-			byte_xSize = 8 * xSize;
-			break;
-		default:
-			throw new WarningException("Sample type unrecognized.");
-		}
-		buffer = ByteBuffer.allocate(byte_xSize);
-
-		switch(byteOrder){
-		case 0: //BIG ENDIAN
-			buffer = buffer.order(ByteOrder.BIG_ENDIAN);
-			break;
-		case 1: //LITTLE ENDIAN
-			buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
-			break;
-		}
-
-		//Read image
-		//Further speed improvements can be achieved in the worst case where image width is little by fixing a min read size and not reading less than it
-		if (zBegin != 0){
-			try{
-				dis.skip(zBegin * ySize * byte_xSize);
-			}catch(IOException e){
-				throw new WarningException("I/O file skipping error.");
-			}
-		}
-		
-		for(int z = 0; z < zSize; z++){
-			for(int y = 0; y < ySize; y++){
-				
-				int bytes_read = 0;
-				int buffer_fill = 0;
-				
-				try{
-					// Keep trying till we get enough
-					do {
-						buffer_fill += bytes_read;
-						bytes_read = dis.read(buffer.array(), buffer_fill, byte_xSize - buffer_fill);
-					} while (bytes_read >= 0 && bytes_read + buffer_fill < byte_xSize);
-					
-					if (bytes_read >= 0) {
-						bytes_read += buffer_fill;
-					}
-				}catch(IOException e){
-					throw new WarningException("I/O file reading error.");
-				}
-				
-				if(bytes_read < 0) {
-					throw new WarningException("File reading error (end of file reached before the full file has been read).");
-				}
-				
-				if(bytes_read != byte_xSize){
-					throw new WarningException("File reading error (" + bytes_read + " bytes read, but " + byte_xSize + " needed).");
+		//Read image (rows are read in the order they are stored)
+		if(reader.getLayout() == RawImageReader.BSQ){
+			for(int z = 0; z < this.zSize; z++){
+				for(int y = 0; y < this.ySize; y++){
+					reader.readRow(typedSamples, z, y);
 				}
-				
-				switch(t){
-				case 0: //boolean (1 byte)
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = buffer.get(x) == 0 ? 0.0F : 1.0F;
-					}
-					break;
-				case 1: //unsigned int (1 byte)
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = buffer.get(x) & 0xff;
-					}
-					break;
-				case 2: //unsigned int (2 bytes)
-					CharBuffer cb = buffer.asCharBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = cb.get(x) & 0xffff;
-					}
-					break;
-				case 3: //signed short (2 bytes)
-					ShortBuffer sb = buffer.asShortBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = sb.get(x);
-					}
-					break;
-				case 4: //signed int (4 bytes)
-					IntBuffer ib = buffer.asIntBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = ib.get(x);
-					}
-					break;
-				case 5: //signed long (8 bytes)
-					LongBuffer lb = buffer.asLongBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = lb.get(x);
-					}
-					break;
-				case 6: //float (4 bytes)
-					buffer.asFloatBuffer().get(imageSamples[z][y]);
-					break;
-				case 7: //double (8 bytes) - lost of precision
-					DoubleBuffer db = buffer.asDoubleBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = (float) db.get(x);
-					}
-					break;
+			}
+		}else{
+			for(int y = 0; y < this.ySize; y++){
+				for(int z = 0; z < this.zSize; z++){
+					reader.readRow(typedSamples, z, y);
 				}
 			}
 		}
 
 		//Close .raw file
-		try{
-			fis.close();
-		}catch(IOException e){
-			throw new WarningException("Error closing file \"" + imageFile + "\".");
-		}
+		reader.close();
 	}
 
 	/**
@@ -687,9 +606,46 @@ public class LoadFile{
 	 * @return a 3D float array that contains image samples
 	 */
 	public float[][][] getImage(){
+		if(imageSamples == null){
+			imageSamples = typedSamples.getImage();
+		}
 		return(imageSamples);
 	}
 
+	/**
+	 * Returns the samples of the image with their own type (images loaded with JAI are converted from float the first time).
+	 *
+	 * @return the image samples
+	 *
+	 * @throws WarningException when the components are too large to be kept in a typed image
+	 */
+	public TypedImage getTypedImage() throws WarningException{
+		if(typedSamples == null){
+			//The type is the one of the raster (samplesType is only the size of
+			//the samples, so it does not tell float from integer nor signed from unsigned)
+			int type = 6;
+			switch(jaiDataType){
+			case DataBuffer.TYPE_BYTE:
+				type = 1;
+				break;
+			case DataBuffer.TYPE_USHORT:
+				type = 2;
+				break;
+			case DataBuffer.TYPE_SHORT:
+				type = 3;
+				break;
+			case DataBuffer.TYPE_INT:
+				type = 4;
+				break;
+			case DataBuffer.TYPE_DOUBLE:
+				type = 7;
+				break;
+			}
+			typedSamples = TypedImage.fromFloat(imageSamples, type);
+		}
+		return(typedSamples);
+	}
+
 	/**
 	 * Returns the type of the image components.
 	 *
@@ -716,18 +672,29 @@ public class LoadFile{
 	public int[] getPixelBitDepth(){
 		int[] pixelBitDepth = new int[zSize];
 		for(int z = 0; z < zSize; z++){
-			//int bitDepth=0;
-			if(samplesType[z] == Byte.TYPE)           pixelBitDepth[z] = 8;
-			else if(samplesType[z] == Character.TYPE) pixelBitDepth[z] = 16;
-			else if(samplesType[z] == Short.TYPE)     pixelBitDepth[z] = 16;
-			else if(samplesType[z] == Integer.TYPE)   pixelBitDepth[z] = 32;
-			else if(samplesType[z] == Long.TYPE)      pixelBitDepth[z] = 64;
-			else if(samplesType[z] == Float.TYPE)     pixelBitDepth[z] = 32;
-			else if(samplesType[z] == Double.TYPE)    pixelBitDepth[z] = 64;
+			pixelBitDepth[z] = getPixelBitDepth(samplesType[z]);
 		}
 		return(pixelBitDepth);
 	}
 
+	/**
+	 * Indicates the bit depth of a sample type.
+	 *
+	 * @param sampleType a Class of image samples type
+	 * @return the bit depth of the sample type (0 if it is not recognized)
+	 */
+	static public int getPixelBitDepth(Class sampleType){
+		int bitDepth = 0;
+		if(sampleType == Byte.TYPE)           bitDepth = 8;
+		else if(sampleType == Character.TYPE) bitDepth = 16;
+		else if(sampleType == Short.TYPE)     bitDepth = 16;
+		else if(sampleType == Integer.TYPE)   bitDepth = 32;
+		else if(sampleType == Long.TYPE)      bitDepth = 64;
+		else if(sampleType == Float.TYPE)     bitDepth = 32;
+		else if(sampleType == Double.TYPE)    bitDepth = 64;
+		return(bitDepth);
+	}
+
 	/**
 	 * Indicates if the loaded image has signed pixels.
 	 *
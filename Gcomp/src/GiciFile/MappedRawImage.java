@@ -0,0 +1,287 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import GiciException.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * This class maps an uncompressed raw data image in memory, so that its samples are read directly from the operating system page cache without being copied (and processes working with the same file share one physical copy of it).<br>
+ * Each component is mapped separately and can be accessed through a typed view of its samples (in the byte order of the file), or converted to double row by row.<br>
+ * Usage example:<br>
+ * &nbsp; construct<br>
+ * &nbsp; getFloatView / getShortView / ... or getRow<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class MappedRawImage{
+
+	/**
+	 * Number of mapped image components.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int zSize;
+
+	/**
+	 * Image height.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int ySize;
+
+	/**
+	 * Image width.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int xSize;
+
+	/**
+	 * Type of the samples (byte, float, etc).
+	 * <p>
+	 * Only class types allowed.
+	 */
+	Class sampleType;
+
+	/**
+	 * Sample type as returned by {@link LoadFile#getType}.
+	 */
+	int type;
+
+	/**
+	 * Mapped bytes of each component (index is [z]), already in the byte order of the file.
+	 */
+	ByteBuffer[] components;
+
+	/**
+	 * Maps the components of a raw data image.
+	 *
+	 * @param imageFile an string that contains the name of the image file (it cannot be compressed)
+	 * @param zSize number of components to map
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType a Class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param zBegin first component of the file that is mapped
+	 *
+	 * @throws WarningException when the file cannot be mapped
+	 */
+	public MappedRawImage(String imageFile, int zSize, int ySize, int xSize, Class sampleType, int byteOrder, int zBegin) throws WarningException{
+		this(imageFile, RawImageReader.getBandRange(zBegin, zSize), ySize, xSize, sampleType, byteOrder);
+	}
+
+	/**
+	 * Maps some components of a raw data image (the other ones are not mapped, so they are never read).
+	 *
+	 * @param imageFile an string that contains the name of the image file (it cannot be compressed)
+	 * @param bands components of the file to map, in increasing order (they are numbered from 0 in this class)
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType a Class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 *
+	 * @throws WarningException when the file cannot be mapped
+	 */
+	public MappedRawImage(String imageFile, int[] bands, int ySize, int xSize, Class sampleType, int byteOrder) throws WarningException{
+		this(imageFile, 0, bands, ySize, xSize, sampleType, byteOrder);
+	}
+
+	/**
+	 * Maps some components of a raw data image whose samples follow a header of headerOffset bytes.
+	 *
+	 * @param imageFile an string that contains the name of the image file (it cannot be compressed)
+	 * @param headerOffset number of bytes before the samples
+	 * @param bands components of the file to map, in increasing order (they are numbered from 0 in this class)
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType a Class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 *
+	 * @throws WarningException when the file cannot be mapped
+	 */
+	public MappedRawImage(String imageFile, long headerOffset, int[] bands, int ySize, int xSize, Class sampleType, int byteOrder) throws WarningException{
+
+		assert (imageFile != null);
+
+		this.zSize = bands.length;
+		this.ySize = ySize;
+		this.xSize = xSize;
+		this.sampleType = sampleType;
+
+		type = LoadFile.getType(sampleType.getName());
+		int sampleBytes = RawImageReader.getSampleBytes(type);
+		if(sampleBytes < 0){
+			throw new WarningException("Sample type unrecognized.");
+		}
+		if(!canMap(ySize, xSize, sampleType)){
+			throw new WarningException("Components of \"" + imageFile + "\" are too large to be mapped in memory.");
+		}
+		long componentBytes = (long) ySize * xSize * sampleBytes;
+
+		ByteOrder order = byteOrder == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		components = new ByteBuffer[zSize];
+
+		//Map file (the mapping remains valid once the channel is closed)
+		RandomAccessFile file = null;
+		try{
+			file = new RandomAccessFile(imageFile, "r");
+			if(zSize > 0 && file.length() < headerOffset + (bands[zSize - 1] + 1) * componentBytes){
+				throw new WarningException("File reading error (end of file reached before the full file has been read).");
+			}
+
+			FileChannel channel = file.getChannel();
+			for(int z = 0; z < zSize; z++){
+				components[z] = channel.map(FileChannel.MapMode.READ_ONLY, headerOffset + bands[z] * componentBytes, componentBytes).order(order);
+			}
+		}catch(FileNotFoundException e){
+			throw new WarningException("File \"" + imageFile + "\" not found.");
+		}catch(IOException e){
+			throw new WarningException("File \"" + imageFile + "\" cannot be mapped in memory.");
+		}finally{
+			if(file != null){
+				try{
+					file.close();
+				}catch(IOException e){
+					throw new WarningException("Error closing file \"" + imageFile + "\".");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if the components of an image are small enough to be mapped (a mapping cannot be larger than 2 GB).
+	 *
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType a Class of image samples type
+	 * @return true if each component can be mapped, false otherwise
+	 */
+	static public boolean canMap(int ySize, int xSize, Class sampleType){
+		int sampleBytes = RawImageReader.getSampleBytes(LoadFile.getType(sampleType.getName()));
+		return(sampleBytes > 0 && (long) ySize * xSize * sampleBytes <= Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Converts a row of the image to double reading it directly from the mapping.
+	 *
+	 * @param z the component (relative to the first mapped one)
+	 * @param y the row
+	 * @param row an array of (at least) xSize positions where the samples are stored
+	 */
+	public void getRow(int z, int y, double[] row){
+		RawImageReader.convertRow(components[z], y * xSize * RawImageReader.getSampleBytes(type), type, row, xSize);
+	}
+
+	/**
+	 * @param z the component (relative to the first mapped one)
+	 * @return the mapped bytes of the component (positions are independent of the ones of this class)
+	 */
+	public ByteBuffer getBytes(int z){
+		return(components[z].duplicate().order(components[z].order()));
+	}
+
+	/**
+	 * @param z the component (relative to the first mapped one)
+	 * @return a view of the component as unsigned 2 bytes samples
+	 */
+	public CharBuffer getCharView(int z){
+		return(components[z].asCharBuffer());
+	}
+
+	/**
+	 * @param z the component (relative to the first mapped one)
+	 * @return a view of the component as signed 2 bytes samples
+	 */
+	public ShortBuffer getShortView(int z){
+		return(components[z].asShortBuffer());
+	}
+
+	/**
+	 * @param z the component (relative to the first mapped one)
+	 * @return a view of the component as signed 4 bytes samples
+	 */
+	public IntBuffer getIntView(int z){
+		return(components[z].asIntBuffer());
+	}
+
+	/**
+	 * @param z the component (relative to the first mapped one)
+	 * @return a view of the component as signed 8 bytes samples
+	 */
+	public LongBuffer getLongView(int z){
+		return(components[z].asLongBuffer());
+	}
+
+	/**
+	 * @param z the component (relative to the first mapped one)
+	 * @return a view of the component as float samples
+	 */
+	public FloatBuffer getFloatView(int z){
+		return(components[z].asFloatBuffer());
+	}
+
+	/**
+	 * @param z the component (relative to the first mapped one)
+	 * @return a view of the component as double samples
+	 */
+	public DoubleBuffer getDoubleView(int z){
+		return(components[z].asDoubleBuffer());
+	}
+
+	/**
+	 * @return zSize definition in this class
+	 */
+	public int getZSize(){
+		return(zSize);
+	}
+
+	/**
+	 * @return ySize definition in this class
+	 */
+	public int getYSize(){
+		return(ySize);
+	}
+
+	/**
+	 * @return xSize definition in this class
+	 */
+	public int getXSize(){
+		return(xSize);
+	}
+
+	/**
+	 * @return sampleType definition in this class
+	 */
+	public Class getSampleType(){
+		return(sampleType);
+	}
+}
@@ -0,0 +1,481 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import GiciException.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * This class reads a pgm image (binary P5 or ascii P2) row by row. The file is opened only once: the header is parsed byte by byte from the same stream the samples are read from afterwards.<br>
+ * The header is made of the magic number, the width, the height and the maximum value, separated by whitespace (blanks, tabs, carriage returns or line feeds) and comments (from "#" to the end of the line). Binary samples take 1 byte when the maximum value is lower than 256 and 2 bytes (big endian) otherwise, and are read one whole row at a time. The samples of uncompressed binary files are mapped in memory after the header (as {@link MappedRawImage} does with raw images), so rows are converted directly from the page cache. Ascii samples are parsed straight from a byte buffer to the image, without creating strings (they can be separated by any whitespace and comments, and rows need not match lines).<br>
+ * Usage example:<br>
+ * &nbsp; construct<br>
+ * &nbsp; readRow (ySize times)<br>
+ * &nbsp; close<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class PGMReader{
+
+	/**
+	 * Name of the file being read.
+	 */
+	String imageFile;
+
+	/**
+	 * Magic number of the file ("P5" or "P2").
+	 */
+	String magicNumber;
+
+	/**
+	 * Image height.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int ySize;
+
+	/**
+	 * Image width.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int xSize;
+
+	/**
+	 * Maximum sample value.
+	 * <p>
+	 * Only values from 1 to 65535 allowed.
+	 */
+	int maxValue;
+
+	/**
+	 * Row size in bytes (of binary images).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int byte_xSize;
+
+	/**
+	 * Number of bytes of the header.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	long headerLength = 0;
+
+	/**
+	 * Buffer where the bytes of one row are read (big endian).
+	 */
+	ByteBuffer buffer = null;
+
+	/**
+	 * Mapping of the samples of the file (null when the file is read through a stream).
+	 */
+	ByteBuffer mapped = null;
+
+	/**
+	 * Bytes of an ascii image read from the stream and not parsed yet (from textPosition to textLength - 1).
+	 */
+	byte[] text = null;
+
+	/**
+	 * Position of the next byte to parse in text.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int textPosition = 0;
+
+	/**
+	 * Number of bytes in text.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int textLength = 0;
+
+	/**
+	 * Number of rows already read.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowsRead = 0;
+
+	/**
+	 * Stream where the header and the samples are read from.
+	 */
+	InputStream fis;
+
+	/**
+	 * Opens a pgm image and reads its header.
+	 *
+	 * @param imageFile an string that contains the name of the image file (it can be compressed with gzip if its extension is ".gz")
+	 *
+	 * @throws WarningException when the file cannot be opened or its header is not valid
+	 */
+	public PGMReader(String imageFile) throws WarningException{
+
+		assert (imageFile != null);
+
+		this.imageFile = imageFile;
+
+		//Test first for .gz
+		boolean fileIsAGZ = false;
+		int dotPos = imageFile.lastIndexOf(".");
+
+		if(dotPos >= 0){
+			fileIsAGZ = imageFile.substring(dotPos + 1, imageFile.length()).compareToIgnoreCase("gz") == 0;
+		}
+
+		//Open file (the header of uncompressed files is read through the channel that is mapped later)
+		FileChannel channel = null;
+		try{
+			if (fileIsAGZ) {
+				fis = new BufferedInputStream(ReadAheadInputStream.wrap(new GZIPInputStream(new FileInputStream(imageFile), 1024*1024)), 64*1024);
+			} else {
+				channel = new RandomAccessFile(imageFile, "r").getChannel();
+				fis = new BufferedInputStream(Channels.newInputStream(channel), 64*1024);
+			}
+		}catch(FileNotFoundException e){
+			throw new WarningException("File \"" + imageFile + "\" not found.");
+		}catch(IOException e) {
+			throw new WarningException("File \"" + imageFile + "\" may be corrupted (or not in gzip format).");
+		}
+
+		try{
+			readHeader();
+		}catch(WarningException e){
+			close();
+			throw e;
+		}
+
+		if(isBinary()){
+			byte_xSize = (maxValue > 255 ? 2 : 1) * xSize;
+			long rasterBytes = (long) ySize * byte_xSize;
+			if(channel != null && rasterBytes <= Integer.MAX_VALUE){
+				//Map the samples (the mapping remains valid once the channel is closed)
+				try{
+					if(channel.size() < headerLength + rasterBytes){
+						throw new WarningException("File reading error (end of file reached before the full file has been read).");
+					}
+					mapped = channel.map(FileChannel.MapMode.READ_ONLY, headerLength, rasterBytes).order(ByteOrder.BIG_ENDIAN);
+				}catch(IOException e){
+					throw new WarningException("File \"" + imageFile + "\" cannot be mapped in memory.");
+				}finally{
+					close();
+				}
+			}else{
+				buffer = ByteBuffer.allocate(byte_xSize).order(ByteOrder.BIG_ENDIAN);
+			}
+		}else{
+			text = new byte[64*1024];
+		}
+	}
+
+	/**
+	 * Reads the header of the image.
+	 *
+	 * @throws WarningException when the header is not valid
+	 */
+	private void readHeader() throws WarningException{
+		int first = readByte();
+		int second = readByte();
+		if(first != 'P' || (second != '5' && second != '2')){
+			throw new WarningException("File \"" + imageFile + "\" can not be loaded. Problems with the magic number");
+		}
+		magicNumber = "P" + (char) second;
+
+		xSize = readHeaderInteger();
+		ySize = readHeaderInteger();
+		maxValue = readHeaderInteger();
+		if(xSize <= 0 || ySize <= 0){
+			throw new WarningException("File \"" + imageFile + "\" can not be loaded. Image sizes must be positive.");
+		}
+		if(maxValue <= 0 || maxValue > 65535){
+			throw new WarningException("File \"" + imageFile + "\" can not be loaded. The maximum value must be from 1 to 65535.");
+		}
+		//A single whitespace character (already read) separates the header from the samples
+	}
+
+	/**
+	 * Reads an integer of the header, skipping the whitespace and comments before it. The whitespace character that ends the integer is also read.
+	 *
+	 * @return the integer
+	 *
+	 * @throws WarningException when there is no integer
+	 */
+	private int readHeaderInteger() throws WarningException{
+		int b = readByte();
+		while(isWhitespace(b) || b == '#'){
+			if(b == '#'){
+				while(b != '\n' && b != '\r'){
+					b = readByte();
+				}
+			}
+			b = readByte();
+		}
+		if(b < '0' || b > '9'){
+			throw new WarningException("File \"" + imageFile + "\" can not be loaded. Problems with the header.");
+		}
+		long value = 0;
+		while(b >= '0' && b <= '9'){
+			value = value * 10 + (b - '0');
+			if(value > Integer.MAX_VALUE){
+				throw new WarningException("File \"" + imageFile + "\" can not be loaded. Problems with the header.");
+			}
+			b = readByte();
+		}
+		if(!isWhitespace(b)){
+			throw new WarningException("File \"" + imageFile + "\" can not be loaded. Problems with the header.");
+		}
+		return((int) value);
+	}
+
+	/**
+	 * @param b a byte of the file
+	 * @return true if the byte is a whitespace character of the pgm format
+	 */
+	static boolean isWhitespace(int b){
+		return(b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == 0x0b || b == 0x0c);
+	}
+
+	/**
+	 * Reads a byte of the header.
+	 *
+	 * @return the byte (from 0 to 255)
+	 *
+	 * @throws WarningException when the end of the file is reached or the file cannot be read
+	 */
+	private int readByte() throws WarningException{
+		int b;
+		try{
+			b = fis.read();
+		}catch(IOException e){
+			throw new WarningException("I/O file reading error.");
+		}
+		if(b < 0){
+			throw new WarningException("File reading error (end of file reached before the full file has been read).");
+		}
+		headerLength++;
+		return(b);
+	}
+
+	/**
+	 * Reads the next row of the image and stores it in a typed image (binary samples are not converted).
+	 *
+	 * @param image an image of the same width whose type is 1 (byte) if the maximum value is lower than 256 or 2 (char) otherwise
+	 * @param z component of the image where the row is stored
+	 * @param y row of the image where the row is stored
+	 *
+	 * @throws WarningException when the row cannot be read
+	 */
+	public void readRow(TypedImage image, int z, int y) throws WarningException{
+		if(rowsRead >= ySize){
+			throw new WarningException("File reading error (all the rows of \"" + imageFile + "\" have already been read).");
+		}
+		rowsRead++;
+		if(!isBinary()){
+			readTextRow(image, z, y);
+			return;
+		}
+		if(mapped != null){
+			image.setRow(z, y, mapped, (rowsRead - 1) * byte_xSize);
+			return;
+		}
+		int bytes_read = 0;
+		int buffer_fill = 0;
+
+		try{
+			// Keep trying till we get enough
+			do {
+				buffer_fill += bytes_read;
+				bytes_read = fis.read(buffer.array(), buffer_fill, byte_xSize - buffer_fill);
+			} while (bytes_read >= 0 && bytes_read + buffer_fill < byte_xSize);
+
+			if (bytes_read >= 0) {
+				bytes_read += buffer_fill;
+			}
+		}catch(IOException e){
+			throw new WarningException("I/O file reading error.");
+		}
+
+		if(bytes_read < 0) {
+			throw new WarningException("File reading error (end of file reached before the full file has been read).");
+		}
+
+		if(bytes_read != byte_xSize){
+			throw new WarningException("File reading error (" + bytes_read + " bytes read, but " + byte_xSize + " needed).");
+		}
+
+		image.setRow(z, y, buffer, 0);
+	}
+
+	/**
+	 * Parses the samples of a row of an ascii image.
+	 *
+	 * @param image an image of the same width
+	 * @param z component of the image where the row is stored
+	 * @param y row of the image where the row is stored
+	 *
+	 * @throws WarningException when the row cannot be read
+	 */
+	private void readTextRow(TypedImage image, int z, int y) throws WarningException{
+		int begin = y * xSize;
+		switch(image.getType()){
+		case 1: //unsigned int (1 byte)
+			byte[] byteSamples = image.getByteSamples(z);
+			for(int x = begin; x < begin + xSize; x++){
+				byteSamples[x] = (byte) readTextInteger();
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			char[] charSamples = image.getCharSamples(z);
+			for(int x = begin; x < begin + xSize; x++){
+				charSamples[x] = (char) readTextInteger();
+			}
+			break;
+		default:
+			for(int x = 0; x < xSize; x++){
+				image.setSample(z, y, x, readTextInteger());
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Parses the next integer of an ascii image, skipping the whitespace and comments before it.
+	 *
+	 * @return the integer
+	 *
+	 * @throws WarningException when there is no integer
+	 */
+	private int readTextInteger() throws WarningException{
+		int b = readTextByte();
+		while(isWhitespace(b) || b == '#'){
+			if(b == '#'){
+				while(b != '\n' && b != '\r' && b >= 0){
+					b = readTextByte();
+				}
+			}
+			b = readTextByte();
+		}
+		if(b < 0){
+			throw new WarningException("File reading error (end of file reached before the full file has been read).");
+		}
+		boolean negative = b == '-';
+		if(negative){
+			b = readTextByte();
+		}
+		if(b < '0' || b > '9'){
+			throw new WarningException("File \"" + imageFile + "\" can not be loaded. Sample " + (char) b + " is not an integer.");
+		}
+		int value = 0;
+		do{
+			value = value * 10 + (b - '0');
+			b = readTextByte();
+		}while(b >= '0' && b <= '9');
+		if(b >= 0 && !isWhitespace(b) && b != '#'){
+			throw new WarningException("File \"" + imageFile + "\" can not be loaded. Sample " + value + (char) b + " is not an integer.");
+		}
+		if(b == '#'){
+			//The comment is skipped with the whitespace before the next integer
+			textPosition--;
+		}
+		return(negative ? -value : value);
+	}
+
+	/**
+	 * Gives the next byte of an ascii image, reading the stream when all the bytes of text have been parsed.
+	 *
+	 * @return the byte (from 0 to 255), or -1 at the end of the file
+	 *
+	 * @throws WarningException when the file cannot be read
+	 */
+	private int readTextByte() throws WarningException{
+		if(textPosition == textLength){
+			try{
+				textLength = fis.read(text, 0, text.length);
+			}catch(IOException e){
+				throw new WarningException("I/O file reading error.");
+			}
+			textPosition = 0;
+			if(textLength <= 0){
+				textLength = 0;
+				return(-1);
+			}
+		}
+		return(text[textPosition++] & 0xff);
+	}
+
+	/**
+	 * Closes the image file.
+	 *
+	 * @throws WarningException when the file cannot be closed
+	 */
+	public void close() throws WarningException{
+		if(fis == null){
+			return;
+		}
+		try{
+			fis.close();
+			fis = null;
+		}catch(IOException e){
+			throw new WarningException("Error closing file \"" + imageFile + "\".");
+		}
+	}
+
+	/**
+	 * @return true if the samples are stored in binary (P5), false if they are stored in ascii (P2)
+	 */
+	public boolean isBinary(){
+		return(magicNumber.equals("P5"));
+	}
+
+	/**
+	 * @return ySize definition in this class
+	 */
+	public int getYSize(){
+		return(ySize);
+	}
+
+	/**
+	 * @return xSize definition in this class
+	 */
+	public int getXSize(){
+		return(xSize);
+	}
+
+	/**
+	 * @return maxValue definition in this class
+	 */
+	public int getMaxValue(){
+		return(maxValue);
+	}
+}
@@ -0,0 +1,847 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import GiciException.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * This class reads a raw data image row by row, so that its samples can be processed without keeping the whole image in memory.<br>
+ * Uncompressed files are mapped in memory (see {@link MappedRawImage}) and rows are converted directly from the page cache; gzipped ones are read through a stream that is read ahead in another thread (see {@link ReadAheadInputStream}), and chunked compressed ones (".rawz", see {@link ChunkedRawWriter}) through a stream that inflates several chunks in parallel (see {@link ChunkedRawInputStream}).<br>
+ * Rows are returned in the order they are stored. Band sequential (BSQ) files return all the rows of the first component, then the rows of the second one, and so on; band interleaved by line (BIL) and by pixel (BIP) files return the first row of each component, then the second row of each component, and so on. The pixels of each row of a BIP file are read at once and transposed in blocks to rows of components (interleaved files are never mapped).<br>
+ * Usage example:<br>
+ * &nbsp; construct<br>
+ * &nbsp; readRow (zSize * ySize times)<br>
+ * &nbsp; close<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class RawImageReader{
+
+	/**
+	 * Band sequential layout: the rows of the first component, then the ones of the second component, and so on (index is [z][y][x]).
+	 */
+	public static final int BSQ = 0;
+
+	/**
+	 * Band interleaved by line layout: the first row of each component, then the second row of each component, and so on (index is [y][z][x]).
+	 */
+	public static final int BIL = 1;
+
+	/**
+	 * Band interleaved by pixel layout: the components of the first pixel, then the ones of the second pixel, and so on (index is [y][x][z]).
+	 */
+	public static final int BIP = 2;
+
+	/**
+	 * Name of the file being read.
+	 */
+	String imageFile;
+
+	/**
+	 * Number of image components that will be read (the number of components of bands).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int zSize;
+
+	/**
+	 * Height of the window read (the image height when the whole components are read).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int ySize;
+
+	/**
+	 * Width of the window read (the image width when the whole components are read).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int xSize;
+
+	/**
+	 * First component of the file that is read (the previous ones are not read).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int zBegin;
+
+	/**
+	 * Components of the file that are read (zBegin is the first one).
+	 */
+	int[] bands;
+
+	/**
+	 * First column of the file that is read.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int xBegin;
+
+	/**
+	 * First row of the file that is read.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int yBegin;
+
+	/**
+	 * Height of the components of the file (ySize is the height of the window read).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int fileYSize;
+
+	/**
+	 * Row size of the file in bytes.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int fileRowBytes;
+
+	/**
+	 * Number of bytes of each sample.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int sampleBytes;
+
+	/**
+	 * Position of the stream in the file (when the file is read through a stream), as if it was uncompressed.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long filePosition = 0;
+
+	/**
+	 * Number of bytes at the beginning of the file before the samples (a header that is skipped). Chunked compressed files store only the samples, so their header offset is not used.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long headerOffset = 0;
+
+	/**
+	 * Layout of the samples in the file ({@link #BSQ}, {@link #BIL} or {@link #BIP}).
+	 */
+	int layout = BSQ;
+
+	/**
+	 * Number of components of the file.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int fileZSize;
+
+	/**
+	 * Bytes of the pixels of a row of a BIP file (all their components), which are transposed to the buffer (null for the other layouts).
+	 */
+	byte[] pixels = null;
+
+	/**
+	 * Side of the blocks of samples transposed at once, so that the source and the target blocks fit in the first level cache.
+	 */
+	static final int TRANSPOSE_BLOCK = 32;
+
+	/**
+	 * Type of the samples (byte, float, etc).
+	 * <p>
+	 * Only class types allowed.
+	 */
+	Class sampleType;
+
+	/**
+	 * Sample type as returned by {@link LoadFile#getType}.
+	 */
+	int type;
+
+	/**
+	 * 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN.
+	 */
+	int byteOrder;
+
+	/**
+	 * Row size in bytes.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int byte_xSize;
+
+	/**
+	 * Buffer used to perform the data conversion of one row.
+	 */
+	ByteBuffer buffer;
+
+	/**
+	 * Stream where the samples are read from.
+	 */
+	InputStream fis;
+
+	/**
+	 * Data stream over fis.
+	 */
+	DataInputStream dis;
+
+	/**
+	 * Mapping of the file (null when the file is read through a stream).
+	 */
+	MappedRawImage mapped = null;
+
+	/**
+	 * Number of rows already read.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	long rowsRead = 0;
+
+	/**
+	 * Opens a raw data image and places it at the beginning of the component zBegin.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize number of components to read
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType a Class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param zBegin first component where the image is begun to be read
+	 *
+	 * @throws WarningException when the file cannot be opened
+	 */
+	public RawImageReader(String imageFile, int zSize, int ySize, int xSize, Class sampleType, int byteOrder, int zBegin) throws WarningException{
+		this(imageFile, zBegin + zSize, ySize, xSize, sampleType, byteOrder, getBandRange(zBegin, zSize), null);
+	}
+
+	/**
+	 * Opens a raw data image to read only some of its components and a window of them. Uncompressed files are accessed directly at the bytes of the window, so the other components and rows are never read; compressed ones are inflated up to the last component read (chunked compressed files from the first one read).
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize number of components of the file
+	 * @param ySize height of the file
+	 * @param xSize width of the file
+	 * @param sampleType a Class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param bands components of the file to read, in increasing order (null to read all of them)
+	 * @param window xBegin, yBegin, width and height of the window to read (null to read whole components)
+	 *
+	 * @throws WarningException when the file cannot be opened or the components or the window are not in the file
+	 */
+	public RawImageReader(String imageFile, int zSize, int ySize, int xSize, Class sampleType, int byteOrder, int[] bands, int[] window) throws WarningException{
+		this(imageFile, zSize, ySize, xSize, sampleType, byteOrder, BSQ, bands, window);
+	}
+
+	/**
+	 * Opens a raw data image stored in any layout to read only some of its components and a window of them (see the constructor for BSQ files). Rows of BIL files are read directly at their bytes; whole rows (the pixels of the window) of BIP files are read at once.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize number of components of the file
+	 * @param ySize height of the file
+	 * @param xSize width of the file
+	 * @param sampleType a Class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param layout layout of the samples in the file ({@link #BSQ}, {@link #BIL} or {@link #BIP})
+	 * @param bands components of the file to read, in increasing order (null to read all of them)
+	 * @param window xBegin, yBegin, width and height of the window to read (null to read whole components)
+	 *
+	 * @throws WarningException when the file cannot be opened or the components or the window are not in the file
+	 */
+	public RawImageReader(String imageFile, int zSize, int ySize, int xSize, Class sampleType, int byteOrder, int layout, int[] bands, int[] window) throws WarningException{
+		this(imageFile, zSize, ySize, xSize, sampleType, byteOrder, layout, 0, bands, window);
+	}
+
+	/**
+	 * Opens a raw data image whose samples follow a header of headerOffset bytes (as described by an ENVI header, see {@link EnviHeader}) to read only some of its components and a window of them (see the other constructors).
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param imageGeometry zSize, ySize, xSize, sample type (as returned by {@link LoadFile#getType}), byte order (0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN) and, optionally, layout (BSQ if not given) and header offset (0 if not given) of the file
+	 * @param bands components of the file to read, in increasing order (null to read all of them)
+	 * @param window xBegin, yBegin, width and height of the window to read (null to read whole components)
+	 *
+	 * @throws WarningException when the file cannot be opened or the components or the window are not in the file
+	 */
+	public RawImageReader(String imageFile, int[] imageGeometry, int[] bands, int[] window) throws WarningException{
+		this(imageFile, imageGeometry[0], imageGeometry[1], imageGeometry[2], LoadFile.getClass(imageGeometry[3]), imageGeometry[4],
+			imageGeometry.length > 5 ? imageGeometry[5] : BSQ, imageGeometry.length > 6 ? imageGeometry[6] : 0, bands, window);
+	}
+
+	/**
+	 * Opens a raw data image stored in any layout, whose samples follow a header of headerOffset bytes, to read only some of its components and a window of them.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize number of components of the file
+	 * @param ySize height of the file
+	 * @param xSize width of the file
+	 * @param sampleType a Class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param layout layout of the samples in the file ({@link #BSQ}, {@link #BIL} or {@link #BIP})
+	 * @param headerOffset number of bytes before the samples
+	 * @param bands components of the file to read, in increasing order (null to read all of them)
+	 * @param window xBegin, yBegin, width and height of the window to read (null to read whole components)
+	 *
+	 * @throws WarningException when the file cannot be opened or the components or the window are not in the file
+	 */
+	public RawImageReader(String imageFile, int zSize, int ySize, int xSize, Class sampleType, int byteOrder, int layout, long headerOffset, int[] bands, int[] window) throws WarningException{
+
+		assert (imageFile != null);
+
+		if(headerOffset < 0){
+			throw new WarningException("Header offset must be positive.");
+		}
+
+		if((layout != BSQ) && (layout != BIL) && (layout != BIP)){
+			throw new WarningException("Sample layout unrecognized.");
+		}
+
+		if(bands == null){
+			bands = getBandRange(0, zSize);
+		}
+		if(window == null){
+			window = new int[]{0, 0, xSize, ySize};
+		}
+		checkSubset(zSize, ySize, xSize, bands, window);
+
+		this.imageFile = imageFile;
+		this.bands = bands;
+		this.zSize = bands.length;
+		this.zBegin = bands.length > 0 ? bands[0] : 0;
+		this.xBegin = window[0];
+		this.yBegin = window[1];
+		this.xSize = window[2];
+		this.ySize = window[3];
+		this.fileYSize = ySize;
+		this.fileZSize = zSize;
+		this.layout = layout;
+		this.headerOffset = headerOffset;
+		this.sampleType = sampleType;
+		this.byteOrder = byteOrder;
+
+		//Test first for .gz and .rawz
+		boolean fileIsAGZ = false;
+		boolean fileIsChunked = false;
+		int dotPos = imageFile.lastIndexOf(".");
+
+		if(dotPos >= 0){
+			fileIsAGZ = imageFile.substring(dotPos + 1, imageFile.length()).compareToIgnoreCase("gz") == 0;
+			fileIsChunked = imageFile.substring(dotPos + 1, imageFile.length()).compareToIgnoreCase("rawz") == 0;
+		}
+
+		//Set correct line size
+		type = LoadFile.getType(sampleType.getName());
+		sampleBytes = getSampleBytes(type);
+		if(sampleBytes < 0){
+			throw new WarningException("Sample type unrecognized.");
+		}
+		byte_xSize = sampleBytes * this.xSize;
+		fileRowBytes = sampleBytes * xSize;
+
+		//Uncompressed files are mapped
+		if(layout == BSQ && !fileIsAGZ && !fileIsChunked && MappedRawImage.canMap(ySize, xSize, sampleType)){
+			mapped = new MappedRawImage(imageFile, headerOffset, bands, ySize, xSize, sampleType, byteOrder);
+			return;
+		}
+
+		//Components read one after the other are read ahead, otherwise uncompressed
+		//files are read only at the needed bytes (the pixels of a BIP row are read at once)
+		int lastBand = bands.length > 0 ? bands[bands.length - 1] : 0;
+		boolean contiguous = lastBand - zBegin + 1 == bands.length && byte_xSize == fileRowBytes && this.ySize == ySize;
+		int readBytes = byte_xSize;
+		if(layout != BSQ){
+			contiguous &= bands.length == zSize;
+			lastBand = zSize - 1;
+		}
+		if(layout == BIP){
+			pixels = new byte[zSize * byte_xSize];
+			readBytes = pixels.length;
+		}
+		int firstBand = layout == BSQ ? zBegin : 0;
+
+		//Open file (the next blocks are read, and inflated, while the previous rows are converted)
+		try{
+			if (fileIsChunked) {
+				//Chunks are located with the index, so the components before zBegin are not read
+				fis = new ChunkedRawInputStream(imageFile, lastBand - firstBand + 1, ySize, fileRowBytes, firstBand);
+				filePosition = this.headerOffset + (long) firstBand * ySize * fileRowBytes;
+			} else if (fileIsAGZ) {
+				fis = ReadAheadInputStream.wrap(new GZIPInputStream(new FileInputStream(imageFile), 1024*1024));
+			} else if (contiguous) {
+				fis = ReadAheadInputStream.wrap(new BufferedInputStream(new FileInputStream(imageFile), 1024*1024));
+			} else {
+				fis = new BufferedInputStream(new FileInputStream(imageFile), Math.max(1, Math.min(readBytes, 1024*1024)));
+			}
+		}catch(FileNotFoundException e){
+			throw new WarningException("File \"" + imageFile + "\" not found.");
+		}catch(IOException e) {
+			throw new WarningException("File \"" + imageFile + "\" may be corrupted (or not in gzip format).");
+		}
+
+		dis = new DataInputStream(fis);
+
+		buffer = ByteBuffer.allocate(layout == BIP ? pixels.length : byte_xSize);
+
+		switch(byteOrder){
+		case 0: //BIG ENDIAN
+			buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+			break;
+		case 1: //LITTLE ENDIAN
+			buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+			break;
+		}
+
+		//Uncompressed files can be checked before reading anything
+		if(!fileIsAGZ && !fileIsChunked && bands.length > 0 && new File(imageFile).length() < headerOffset + (long) (lastBand + 1) * ySize * fileRowBytes){
+			close();
+			throw new WarningException("File reading error (end of file reached before the full file has been read).");
+		}
+	}
+
+	/**
+	 * Gives the components from zBegin to zBegin + zSize - 1.
+	 *
+	 * @param zBegin first component
+	 * @param zSize number of components
+	 * @return the components in increasing order
+	 */
+	static public int[] getBandRange(int zBegin, int zSize){
+		int[] bands = new int[Math.max(zSize, 0)];
+		for(int z = 0; z < bands.length; z++){
+			bands[z] = zBegin + z;
+		}
+		return(bands);
+	}
+
+	/**
+	 * Checks that some components and a window are inside an image.
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param bands components, that must be in increasing order
+	 * @param window xBegin, yBegin, width and height of the window
+	 *
+	 * @throws WarningException when the components or the window are not inside the image
+	 */
+	static public void checkSubset(int zSize, int ySize, int xSize, int[] bands, int[] window) throws WarningException{
+		for(int z = 0; z < bands.length; z++){
+			if(bands[z] < 0 || bands[z] >= zSize || (z > 0 && bands[z] <= bands[z - 1])){
+				throw new WarningException("Components must be different, in increasing order and between 0 and " + (zSize - 1) + ".");
+			}
+		}
+		if(window.length != 4 || window[0] < 0 || window[1] < 0 || window[2] <= 0 || window[3] <= 0
+			|| (long) window[0] + window[2] > xSize || (long) window[1] + window[3] > ySize){
+			throw new WarningException("The window must be inside the image (" + xSize + "x" + ySize + ").");
+		}
+	}
+
+	/**
+	 * Number of bytes used by each sample of a data type.
+	 *
+	 * @param type a number representing data type according to function {@link LoadFile#getType}
+	 * @return the number of bytes of the sample, or -1 if the type is not recognized
+	 */
+	static public int getSampleBytes(int type){
+		int bytes = -1;
+		switch(type){
+		case 0: //boolean - 1 byte
+		case 1: //byte
+			bytes = 1;
+			break;
+		case 2: //char
+		case 3: //short
+			bytes = 2;
+			break;
+		case 4: //int
+		case 6: //float
+			bytes = 4;
+			break;
+		case 5: //long
+		case 7: //double
+			bytes = 8;
+			break;
+		}
+		return(bytes);
+	}
+
+	/**
+	 * Reads the next row of the image and converts it to double. Integer samples of up to 53 bits are converted exactly.
+	 *
+	 * @param row an array of (at least) xSize positions where the samples are stored
+	 *
+	 * @throws WarningException when the row cannot be read
+	 */
+	public void readRow(double[] row) throws WarningException{
+		checkRowsLeft();
+
+		if(mapped != null){
+			convertRow(mapped.components[getRowBand()], getMappedOffset(), type, row, xSize);
+		}else{
+			convertRow(buffer, fillBuffer(), type, row, xSize);
+		}
+		rowsRead++;
+	}
+
+	/**
+	 * Reads the next row of the image and stores it in a typed image, without converting the samples.
+	 *
+	 * @param image an image of the same sample type and width
+	 * @param z component of the image where the row is stored
+	 * @param y row of the image where the row is stored
+	 *
+	 * @throws WarningException when the row cannot be read
+	 */
+	public void readRow(TypedImage image, int z, int y) throws WarningException{
+		checkRowsLeft();
+
+		if(mapped != null){
+			image.setRow(z, y, mapped.components[getRowBand()], getMappedOffset());
+		}else{
+			image.setRow(z, y, buffer, fillBuffer());
+		}
+		rowsRead++;
+	}
+
+	/**
+	 * Reads the next row of the image without converting its samples. The bytes of mapped files are not copied.
+	 *
+	 * @return a read only buffer, in the byte order of the file, whose remaining bytes are the ones of the row (it is valid until the next row is read)
+	 *
+	 * @throws WarningException when the row cannot be read
+	 */
+	public ByteBuffer readRowBytes() throws WarningException{
+		checkRowsLeft();
+
+		ByteBuffer rowBytes = null;
+		int offset = 0;
+		if(mapped != null){
+			rowBytes = mapped.components[getRowBand()];
+			offset = getMappedOffset();
+		}else{
+			rowBytes = buffer;
+			offset = fillBuffer();
+		}
+		rowsRead++;
+		ByteBuffer row = rowBytes.asReadOnlyBuffer().order(rowBytes.order());
+		row.limit(offset + byte_xSize).position(offset);
+		return(row);
+	}
+
+	/**
+	 * Checks that there are rows left to be read.
+	 *
+	 * @throws WarningException when all the rows have been read
+	 */
+	private void checkRowsLeft() throws WarningException{
+		if(rowsRead >= (long) zSize * ySize){
+			throw new WarningException("File reading error (all the rows of \"" + imageFile + "\" have already been read).");
+		}
+	}
+
+	/**
+	 * @return position in bands of the component of the next row
+	 */
+	private int getRowBand(){
+		return(layout == BSQ ? (int) (rowsRead / ySize) : (int) (rowsRead % zSize));
+	}
+
+	/**
+	 * @return row of the window of the next row
+	 */
+	private int getRowY(){
+		return(layout == BSQ ? (int) (rowsRead % ySize) : (int) (rowsRead / zSize));
+	}
+
+	/**
+	 * @return position of the next row in the mapping of its component
+	 */
+	private int getMappedOffset(){
+		int rowY = yBegin + getRowY();
+		return(rowY * fileRowBytes + xBegin * sampleBytes);
+	}
+
+	/**
+	 * Reads the bytes of the next row from the stream to the buffer, skipping the bytes of the file that are not read. The pixels of a BIP row are read and transposed with the first component of the row.
+	 *
+	 * @return position of the row in the buffer in bytes
+	 *
+	 * @throws WarningException when the row cannot be read
+	 */
+	private int fillBuffer() throws WarningException{
+		int band = getRowBand();
+		long rowZ = bands[band];
+		long rowY = yBegin + getRowY();
+
+		switch(layout){
+		case BIL:
+			readBytes((rowY * fileZSize + rowZ) * fileRowBytes + (long) xBegin * sampleBytes, buffer.array(), byte_xSize);
+			return(0);
+		case BIP:
+			if(band == 0){
+				readBytes((rowY * fileRowBytes + (long) xBegin * sampleBytes) * fileZSize, pixels, pixels.length);
+				transpose(pixels, buffer.array(), xSize, fileZSize, sampleBytes);
+			}
+			return((int) rowZ * byte_xSize);
+		default:
+			readBytes((rowZ * fileYSize + rowY) * fileRowBytes + (long) xBegin * sampleBytes, buffer.array(), byte_xSize);
+			return(0);
+		}
+	}
+
+	/**
+	 * Transposes a matrix of samples in square blocks, so that the rows of the source and of the target block that are visited stay in the cache.
+	 *
+	 * @param source samples of the matrix (index are [row][column])
+	 * @param target an array of (at least) the same size where the transposed matrix is stored (index are [column][row])
+	 * @param rows number of rows of the matrix
+	 * @param columns number of columns of the matrix
+	 * @param sampleBytes number of bytes of each sample
+	 */
+	static void transpose(byte[] source, byte[] target, int rows, int columns, int sampleBytes){
+		for(int rowBlock = 0; rowBlock < rows; rowBlock += TRANSPOSE_BLOCK){
+			int rowEnd = Math.min(rowBlock + TRANSPOSE_BLOCK, rows);
+			for(int columnBlock = 0; columnBlock < columns; columnBlock += TRANSPOSE_BLOCK){
+				int columnEnd = Math.min(columnBlock + TRANSPOSE_BLOCK, columns);
+				int stride = columns * sampleBytes;
+				for(int column = columnBlock; column < columnEnd; column++){
+					int to = (column * rows + rowBlock) * sampleBytes;
+					int from = (rowBlock * columns + column) * sampleBytes;
+					int end = to + (rowEnd - rowBlock) * sampleBytes;
+					//Samples are copied with a loop for each size, so that the copy of each sample is unrolled
+					switch(sampleBytes){
+					case 1:
+						for(; to < end; to++, from += stride){
+							target[to] = source[from];
+						}
+						break;
+					case 2:
+						for(; to < end; to += 2, from += stride){
+							target[to] = source[from];
+							target[to + 1] = source[from + 1];
+						}
+						break;
+					case 4:
+						for(; to < end; to += 4, from += stride){
+							target[to] = source[from];
+							target[to + 1] = source[from + 1];
+							target[to + 2] = source[from + 2];
+							target[to + 3] = source[from + 3];
+						}
+						break;
+					default:
+						for(; to < end; to += sampleBytes, from += stride){
+							System.arraycopy(source, from, target, to, sampleBytes);
+						}
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads bytes of the file from the stream, skipping the bytes before them.
+	 *
+	 * @param position position of the first byte after the header (from the current position of the stream)
+	 * @param bytes array where the bytes are stored
+	 * @param length number of bytes to read
+	 *
+	 * @throws WarningException when the bytes cannot be read
+	 */
+	private void readBytes(long position, byte[] bytes, int length) throws WarningException{
+		int bytes_read = 0;
+		int buffer_fill = 0;
+
+		long rowPosition = headerOffset + position;
+		try{
+			long toSkip = rowPosition - filePosition;
+			while(toSkip > 0){
+				long skipped = dis.skip(toSkip);
+				if(skipped <= 0){
+					throw new WarningException("File reading error (end of file reached before the full file has been read).");
+				}
+				toSkip -= skipped;
+			}
+		}catch(IOException e){
+			throw new WarningException("I/O file skipping error.");
+		}
+		filePosition = rowPosition + length;
+
+		try{
+			// Keep trying till we get enough
+			do {
+				buffer_fill += bytes_read;
+				bytes_read = dis.read(bytes, buffer_fill, length - buffer_fill);
+			} while (bytes_read >= 0 && bytes_read + buffer_fill < length);
+
+			if (bytes_read >= 0) {
+				bytes_read += buffer_fill;
+			}
+		}catch(IOException e){
+			throw new WarningException("I/O file reading error.");
+		}
+
+		if(bytes_read < 0) {
+			throw new WarningException("File reading error (end of file reached before the full file has been read).");
+		}
+
+		if(bytes_read != length){
+			throw new WarningException("File reading error (" + bytes_read + " bytes read, but " + length + " needed).");
+		}
+	}
+
+	/**
+	 * Converts a row of raw data to double.
+	 *
+	 * @param bytes raw data with (at least) xSize samples from the offset, in its own byte order
+	 * @param offset position of the first byte of the row in bytes
+	 * @param type a number representing data type according to function {@link LoadFile#getType}
+	 * @param row an array of (at least) xSize positions where the samples are stored
+	 * @param xSize number of samples of the row
+	 */
+	static void convertRow(ByteBuffer bytes, int offset, int type, double[] row, int xSize){
+		ByteBuffer rowBytes = bytes.duplicate().order(bytes.order());
+		rowBytes.position(offset);
+
+		switch(type){
+		case 0: //boolean (1 byte)
+			for(int x = 0; x < xSize; x++){
+				row[x] = rowBytes.get(offset + x) == 0 ? 0.0 : 1.0;
+			}
+			break;
+		case 1: //unsigned int (1 byte)
+			for(int x = 0; x < xSize; x++){
+				row[x] = rowBytes.get(offset + x) & 0xff;
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			CharBuffer cb = rowBytes.asCharBuffer();
+			for(int x = 0; x < xSize; x++){
+				row[x] = cb.get(x) & 0xffff;
+			}
+			break;
+		case 3: //signed short (2 bytes)
+			ShortBuffer sb = rowBytes.asShortBuffer();
+			for(int x = 0; x < xSize; x++){
+				row[x] = sb.get(x);
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			IntBuffer ib = rowBytes.asIntBuffer();
+			for(int x = 0; x < xSize; x++){
+				row[x] = ib.get(x);
+			}
+			break;
+		case 5: //signed long (8 bytes)
+			LongBuffer lb = rowBytes.asLongBuffer();
+			for(int x = 0; x < xSize; x++){
+				row[x] = lb.get(x);
+			}
+			break;
+		case 6: //float (4 bytes)
+			FloatBuffer fb = rowBytes.asFloatBuffer();
+			for(int x = 0; x < xSize; x++){
+				row[x] = fb.get(x);
+			}
+			break;
+		case 7: //double (8 bytes)
+			rowBytes.asDoubleBuffer().get(row, 0, xSize);
+			break;
+		}
+	}
+
+	/**
+	 * Closes the image file.
+	 *
+	 * @throws WarningException when the file cannot be closed
+	 */
+	public void close() throws WarningException{
+		if(fis == null){
+			return;
+		}
+		try{
+			fis.close();
+		}catch(IOException e){
+			throw new WarningException("Error closing file \"" + imageFile + "\".");
+		}
+	}
+
+	/**
+	 * @return zSize definition in this class
+	 */
+	public int getZSize(){
+		return(zSize);
+	}
+
+	/**
+	 * @return ySize definition in this class
+	 */
+	public int getYSize(){
+		return(ySize);
+	}
+
+	/**
+	 * @return xSize definition in this class
+	 */
+	public int getXSize(){
+		return(xSize);
+	}
+
+	/**
+	 * @return zBegin definition in this class
+	 */
+	public int getZBegin(){
+		return(zBegin);
+	}
+
+	/**
+	 * @return bands definition in this class
+	 */
+	public int[] getBands(){
+		return(bands);
+	}
+
+	/**
+	 * @return layout definition in this class
+	 */
+	public int getLayout(){
+		return(layout);
+	}
+
+	/**
+	 * @return sampleType definition in this class
+	 */
+	public Class getSampleType(){
+		return(sampleType);
+	}
+
+	/**
+	 * @return byteOrder definition in this class
+	 */
+	public int getByteOrder(){
+		return(byteOrder);
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * This class reads a stream ahead in another thread, so that reading (or inflating) the next blocks of a file overlaps with the processing of the bytes already read.<br>
+ * A producer thread fills blocks of blockBytes bytes and queues up to depth of them; the consumer takes them in order. Blocks are reused once they have been consumed, so no memory is allocated while the stream is read.<br>
+ * Usage example:<br>
+ * &nbsp; wrap<br>
+ * &nbsp; read (as any other stream)<br>
+ * &nbsp; close<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ReadAheadInputStream extends InputStream{
+
+	/**
+	 * Default size of the blocks in bytes (the system property GiciFile.readAheadBlock overrides it).
+	 */
+	public static final int DEFAULT_BLOCK_BYTES = 1024 * 1024;
+
+	/**
+	 * Default number of blocks read ahead (the system property GiciFile.readAheadDepth overrides it, 0 disables the read-ahead).
+	 */
+	public static final int DEFAULT_DEPTH = 2;
+
+	/**
+	 * Stream read by the producer thread.
+	 */
+	InputStream in;
+
+	/**
+	 * Blocks already read, in order.
+	 */
+	BlockingQueue<Block> filled;
+
+	/**
+	 * Blocks that can be filled.
+	 */
+	BlockingQueue<Block> empty;
+
+	/**
+	 * Block being consumed (null before the first read).
+	 */
+	Block current = null;
+
+	/**
+	 * Position of the next byte of current to consume.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int position = 0;
+
+	/**
+	 * Thread that reads the blocks.
+	 */
+	Thread producer;
+
+	/**
+	 * Block of bytes read from the stream.
+	 */
+	static class Block{
+
+		/**
+		 * Bytes of the block.
+		 */
+		byte[] bytes;
+
+		/**
+		 * Number of bytes read in the block (-1 at the end of the stream).
+		 */
+		int length = 0;
+
+		/**
+		 * Error found reading the block (null if there is none).
+		 */
+		IOException error = null;
+
+		Block(int blockBytes){
+			bytes = new byte[blockBytes];
+		}
+	}
+
+	/**
+	 * Starts reading a stream ahead.
+	 *
+	 * @param in the stream to read
+	 * @param blockBytes size of the blocks in bytes
+	 * @param depth number of blocks read ahead (at least 1)
+	 */
+	public ReadAheadInputStream(InputStream in, int blockBytes, int depth){
+		this.in = in;
+		filled = new ArrayBlockingQueue<Block>(depth + 1);
+		empty = new ArrayBlockingQueue<Block>(depth + 1);
+		//One more block than the depth is the one being consumed
+		for(int block = 0; block < depth + 1; block++){
+			empty.add(new Block(blockBytes));
+		}
+		producer = new Thread(new Producer(), "GiciFile read-ahead");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Reads a stream ahead if the system properties GiciFile.readAheadBlock and GiciFile.readAheadDepth (or their default values) allow it and there are several processors, since with a single one both threads would only take turns.
+	 *
+	 * @param in the stream to read
+	 * @return a stream that reads in ahead, or in itself
+	 */
+	public static InputStream wrap(InputStream in){
+		int blockBytes = Integer.getInteger("GiciFile.readAheadBlock", DEFAULT_BLOCK_BYTES);
+		int depth = Integer.getInteger("GiciFile.readAheadDepth", DEFAULT_DEPTH);
+		if(blockBytes <= 0 || depth <= 0 || Runtime.getRuntime().availableProcessors() < 2){
+			return(in);
+		}
+		return(new ReadAheadInputStream(in, blockBytes, depth));
+	}
+
+	/**
+	 * Fills blocks until the end of the stream (or an error) is reached.
+	 */
+	private class Producer implements Runnable{
+
+		public void run(){
+			try{
+				boolean end = false;
+				while(!end){
+					Block block = empty.take();
+					block.length = 0;
+					try{
+						// Keep trying till the block is full
+						int bytes_read = 0;
+						while(block.length < block.bytes.length && bytes_read >= 0){
+							bytes_read = in.read(block.bytes, block.length, block.bytes.length - block.length);
+							if(bytes_read > 0){
+								block.length += bytes_read;
+							}
+						}
+						end = bytes_read < 0;
+					}catch(IOException e){
+						block.error = e;
+						end = true;
+					}
+					if(block.length == 0 && block.error == null){
+						block.length = -1;
+					}
+					filled.put(block);
+					if(end && block.length > 0){
+						//The end of the stream is queued after the last bytes
+						Block last = empty.take();
+						last.length = -1;
+						filled.put(last);
+					}
+				}
+			}catch(InterruptedException e){
+				//The stream has been closed
+			}
+		}
+	}
+
+	/**
+	 * Takes the next block when all the bytes of the current one have been consumed.
+	 *
+	 * @return false at the end of the stream
+	 *
+	 * @throws IOException when the block could not be read
+	 */
+	private boolean nextBlock() throws IOException{
+		if(current != null && (current.length < 0 || current.error != null)){
+			if(current.error != null){
+				throw current.error;
+			}
+			return(false);
+		}
+		if(current == null || position == current.length){
+			if(current != null){
+				empty.add(current);
+			}
+			try{
+				current = filled.take();
+			}catch(InterruptedException e){
+				throw new InterruptedIOException("Read-ahead interrupted.");
+			}
+			position = 0;
+			if(current.error != null){
+				throw current.error;
+			}
+		}
+		return(current.length > 0);
+	}
+
+	public int read() throws IOException{
+		if(!nextBlock()){
+			return(-1);
+		}
+		return(current.bytes[position++] & 0xff);
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException{
+		if(len == 0){
+			return(0);
+		}
+		if(!nextBlock()){
+			return(-1);
+		}
+		int bytes = Math.min(len, current.length - position);
+		System.arraycopy(current.bytes, position, b, off, bytes);
+		position += bytes;
+		return(bytes);
+	}
+
+	public int available(){
+		return(current == null || current.length < 0 ? 0 : current.length - position);
+	}
+
+	/**
+	 * Stops the producer thread and closes the stream.
+	 *
+	 * @throws IOException when the stream cannot be closed
+	 */
+	public void close() throws IOException{
+		producer.interrupt();
+		try{
+			//The producer finishes the block it is reading before the stream is closed
+			producer.join();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		in.close();
+	}
+}
@@ -138,27 +138,75 @@ public class SaveFile{
 	 * @throws WarningException when the file cannot be saved (incorrect number of components, file format unrecognized, etc.)
 	 */
 	public static void SaveFileRaw(float[][][] imageSamples, String imageFile, int sampleType, int byteOrder) throws WarningException{
-		//Image sizes
-		int zSize = imageSamples.length;
-		int ySize = imageSamples[0].length;
-		int xSize = imageSamples[0][0].length;
+		saveRaw(imageSamples, null, imageFile, sampleType, byteOrder, RawImageReader.BSQ);
+	}
 
-		//Open file
-		File newFile = new File(imageFile);
-		FileOutputStream fos = null;
-		try{
-			if(newFile.exists()){
-				newFile.delete();
-				newFile.createNewFile();
-			}
-			fos = new FileOutputStream(newFile);
-		}catch(FileNotFoundException e){
-			throw new WarningException("File \"" + imageFile + "\" can not be open.");
-		}catch(IOException e){
-			throw new WarningException("I/O error saving file \"" + imageFile + "\".");
+	/**
+	 * Saves image samples in raw data stored in a given layout.
+	 *
+	 * @param imageSamples a 3D float array that contains image samples
+	 * @param imageFile file name where raw data will be stored
+	 * @param sampleType an integer representing the class of image samples type (see {@link #SaveFileRaw(float[][][], String, int, int)})
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param layout layout of the samples in the file ({@link RawImageReader#BSQ}, {@link RawImageReader#BIL} or {@link RawImageReader#BIP})
+	 *
+	 * @throws WarningException when the file cannot be saved (incorrect number of components, file format unrecognized, etc.)
+	 */
+	public static void SaveFileRaw(float[][][] imageSamples, String imageFile, int sampleType, int byteOrder, int layout) throws WarningException{
+		saveRaw(imageSamples, null, imageFile, sampleType, byteOrder, layout);
+	}
+
+	/**
+	 * Saves typed image samples in raw data. When the sample type of the file is the same as the one of the image, samples are written without any conversion.
+	 *
+	 * @param image the image samples
+	 * @param imageFile file name where raw data will be stored
+	 * @param sampleType an integer representing the class of image samples type (see {@link #SaveFileRaw(float[][][], String, int, int)})
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 *
+	 * @throws WarningException when the file cannot be saved (incorrect number of components, file format unrecognized, etc.)
+	 */
+	public static void SaveFileRaw(TypedImage image, String imageFile, int sampleType, int byteOrder) throws WarningException{
+		saveRaw(null, image, imageFile, sampleType, byteOrder, RawImageReader.BSQ);
+	}
+
+	/**
+	 * Saves typed image samples in raw data stored in a given layout (see {@link #SaveFileRaw(TypedImage, String, int, int)}).
+	 *
+	 * @param image the image samples
+	 * @param imageFile file name where raw data will be stored
+	 * @param sampleType an integer representing the class of image samples type (see {@link #SaveFileRaw(float[][][], String, int, int)})
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param layout layout of the samples in the file ({@link RawImageReader#BSQ}, {@link RawImageReader#BIL} or {@link RawImageReader#BIP})
+	 *
+	 * @throws WarningException when the file cannot be saved (incorrect number of components, file format unrecognized, etc.)
+	 */
+	public static void SaveFileRaw(TypedImage image, String imageFile, int sampleType, int byteOrder, int layout) throws WarningException{
+		saveRaw(null, image, imageFile, sampleType, byteOrder, layout);
+	}
+
+	/**
+	 * Saves float or typed image samples in raw data.
+	 *
+	 * @param imageSamples a 3D float array that contains image samples (null if image is used)
+	 * @param image the image samples (null if imageSamples is used)
+	 * @param imageFile file name where raw data will be stored
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param layout layout of the samples in the file ({@link RawImageReader#BSQ}, {@link RawImageReader#BIL} or {@link RawImageReader#BIP})
+	 *
+	 * @throws WarningException when the file cannot be saved (incorrect number of components, file format unrecognized, etc.)
+	 */
+	private static void saveRaw(float[][][] imageSamples, TypedImage image, String imageFile, int sampleType, int byteOrder, int layout) throws WarningException{
+		if((layout != RawImageReader.BSQ) && (layout != RawImageReader.BIL) && (layout != RawImageReader.BIP)){
+			throw new WarningException("Sample layout unrecognized.");
 		}
 
-		DataOutputStream dos = new DataOutputStream(fos);
+		//Image sizes
+		int zSize = image == null ? imageSamples.length : image.getZSize();
+		int ySize = image == null ? imageSamples[0].length : image.getYSize();
+		int xSize = image == null ? imageSamples[0][0].length : image.getXSize();
+		float[] row = new float[xSize];
 
 		String extension = "";
 		int dotPos = imageFile.lastIndexOf(".");
@@ -167,6 +215,30 @@ public class SaveFile{
 			extension = imageFile.substring(imageFile.lastIndexOf(".") + 1, imageFile.length());
 		} 
 
+		//Chunked compressed raw files are written by ChunkedRawWriter
+		boolean chunked = extension.compareToIgnoreCase("rawz") == 0;
+		ChunkedRawWriter chunkedWriter = null;
+
+		//Open file
+		FileOutputStream fos = null;
+		DataOutputStream dos = null;
+		if(!chunked){
+			File newFile = new File(imageFile);
+			try{
+				if(newFile.exists()){
+					newFile.delete();
+					newFile.createNewFile();
+				}
+				fos = new FileOutputStream(newFile);
+			}catch(FileNotFoundException e){
+				throw new WarningException("File \"" + imageFile + "\" can not be open.");
+			}catch(IOException e){
+				throw new WarningException("I/O error saving file \"" + imageFile + "\".");
+			}
+
+			dos = new DataOutputStream(fos);
+		}
+
 		if (extension.compareToIgnoreCase("pgm") == 0){
 			String header = "P5\n"+String.valueOf(xSize)+" "+String.valueOf(ySize)+"\n";
 			if (sampleType==1){
@@ -225,94 +297,163 @@ public class SaveFile{
 			break;
 		}
 
-		//Save image
+		if(chunked){
+			chunkedWriter = new ChunkedRawWriter(imageFile, zSize, ySize, byte_xSize);
+		}
+
+		//Rows of BIP files are kept as rows of components and transposed in blocks to pixels
+		byte[] components = null;
+		byte[] pixels = null;
+		if(layout == RawImageReader.BIP){
+			components = new byte[zSize * byte_xSize];
+			pixels = new byte[zSize * byte_xSize];
+		}
+
+		//Save image (interleaved files are written row by row, with all the components of each row)
 		//Further speed improvements can be achieved in the worst case where image width is little by fixing a min read size and not reading less than it
-		for(int z = 0; z < zSize; z++){
-			for(int y = 0; y < ySize; y++){
+		int outerSize = layout == RawImageReader.BSQ ? zSize : ySize;
+		int innerSize = layout == RawImageReader.BSQ ? ySize : zSize;
+		for(int outer = 0; outer < outerSize; outer++){
+			for(int inner = 0; inner < innerSize; inner++){
+				int z = layout == RawImageReader.BSQ ? outer : inner;
+				int y = layout == RawImageReader.BSQ ? inner : outer;
 
-				switch(sampleType){
-				case 0: //boolean (1 byte)
-					for(int x = 0; x < xSize; x++){
-						buffer.put(x, (byte)(imageSamples[z][y][x] == 0 ? 0 : 1));
-					}
-					break;
-				case 1: //unsigned int (1 byte)
-					for(int x = 0; x < xSize; x++){
-						if (imageSamples[z][y][x] > 255 || imageSamples[z][y][x] < 0) {
-							System.err.println("Pixel out of range: " + imageSamples[z][y][x] + " not in [0, 255]");
-							//throw new WarningException("Pixel out of range: " + imageSamples[z][y][x] + " not in [0, 255]");
-						}
-						
-						byte out = (byte) (Math.max(Math.min(imageSamples[z][y][x], 255), 0));
-						buffer.put(x, out);
-					}
-					break;
-				case 2: //unsigned int (2 bytes)
-					CharBuffer cb = buffer.asCharBuffer();
-					for(int x = 0; x < xSize; x++){
-						if (imageSamples[z][y][x] > Character.MAX_VALUE || imageSamples[z][y][x] < Character.MIN_VALUE) {
-							System.err.println("Pixel out of range: " + imageSamples[z][y][x] + " not in [" + Character.MIN_VALUE + ", " + Character.MAX_VALUE + "]");
-							//throw new WarningException("Pixel out of range: " + imageSamples[z][y][x] + " not in [" + Character.MIN_VALUE + ", " + Character.MAX_VALUE + "]");
-						}						
-						
-						char out = (char) Math.max(Math.min(imageSamples[z][y][x], Character.MAX_VALUE), Character.MIN_VALUE);
-						cb.put(x, out);
-					}
-					break;
-				case 3: //signed short (2 bytes)
-					ShortBuffer sb = buffer.asShortBuffer();
-					for(int x = 0; x < xSize; x++){
-						if (imageSamples[z][y][x] > Short.MAX_VALUE || imageSamples[z][y][x] < Short.MIN_VALUE) {
-							System.err.println("Pixel out of range: " + imageSamples[z][y][x] + " not in [" + Short.MIN_VALUE + ", " + Short.MAX_VALUE + "]");
-							//throw new WarningException("Pixel out of range: " + imageSamples[z][y][x] + " not in [" + Short.MIN_VALUE + ", " + Short.MAX_VALUE + "]");
-						}
-						
-						short out = (short) Math.max(Math.min(imageSamples[z][y][x], Short.MAX_VALUE), Short.MIN_VALUE);
-						sb.put(x, out);
-					}
-					break;
-				case 4: //signed int (4 bytes)
-					IntBuffer ib = buffer.asIntBuffer();
-					for(int x = 0; x < xSize; x++){
-						if (imageSamples[z][y][x] > 2 << 20 || imageSamples[z][y][x] < -2 << 20) {
-							System.err.println("Pixel probably out of range.");
-							//throw new WarningException("Pixel probably out of range.");
-						}
-						
-						ib.put(x, (int)imageSamples[z][y][x]);
-					}
-					break;
-				case 5: //signed long (8 bytes)
-					LongBuffer lb = buffer.asLongBuffer();
-					for(int x = 0; x < xSize; x++){
-						lb.put(x, (long)imageSamples[z][y][x]);
-					}
-					break;
-				case 6: //float (4 bytes)
-					buffer.asFloatBuffer().put(imageSamples[z][y]);
-					break;
-				case 7: //double (8 bytes) - lost of precision
-					DoubleBuffer db = buffer.asDoubleBuffer();
-					for(int x = 0; x < xSize; x++){
-						db.put(x, (double)imageSamples[z][y][x]);
+				if(image != null && image.getType() == sampleType){
+					image.putRow(z, y, buffer);
+				}else{
+					if(image != null){
+						image.getRow(z, y, row);
+					}else{
+						row = imageSamples[z][y];
 					}
-					break;
+					putRow(row, buffer, sampleType, xSize);
 				}
 
-				try{
-					dos.write(buffer.array(), 0, byte_xSize);
-				}catch(IOException e){
-					throw new WarningException("I/O file writing error.");
+				if(layout == RawImageReader.BIP){
+					System.arraycopy(buffer.array(), 0, components, z * byte_xSize, byte_xSize);
+				}else{
+					writeBytes(buffer.array(), 0, byte_xSize, dos, chunkedWriter);
+				}
+			}
+			if(layout == RawImageReader.BIP){
+				RawImageReader.transpose(components, pixels, zSize, xSize, RawImageReader.getSampleBytes(sampleType));
+				for(int z = 0; z < zSize; z++){
+					writeBytes(pixels, z * byte_xSize, byte_xSize, dos, chunkedWriter);
 				}
-
 			}
 		}
 
 		//Close file
-		try{
-			fos.close();
-		}catch(IOException e){
-			throw new WarningException("Error closing file \"" + imageFile + "\".");
+		if(chunked){
+			chunkedWriter.close();
+		}else{
+			try{
+				fos.close();
+			}catch(IOException e){
+				throw new WarningException("Error closing file \"" + imageFile + "\".");
+			}
+		}
+	}
+
+	/**
+	 * Writes some bytes to a raw data file.
+	 *
+	 * @param bytes an array with the bytes
+	 * @param offset position of the first byte
+	 * @param length number of bytes (the size of a row when the file is written by a ChunkedRawWriter)
+	 * @param dos stream where the bytes are written (null if chunkedWriter is used)
+	 * @param chunkedWriter writer of a chunked compressed file (null if dos is used)
+	 *
+	 * @throws WarningException when the bytes cannot be written
+	 */
+	private static void writeBytes(byte[] bytes, int offset, int length, DataOutputStream dos, ChunkedRawWriter chunkedWriter) throws WarningException{
+		if(chunkedWriter != null){
+			chunkedWriter.writeRow(bytes, offset);
+		}else{
+			try{
+				dos.write(bytes, offset, length);
+			}catch(IOException e){
+				throw new WarningException("I/O file writing error.");
+			}
+		}
+	}
+
+	/**
+	 * Converts a row of float samples to raw data.
+	 *
+	 * @param row the samples of the row
+	 * @param buffer buffer where the row is stored from position 0
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param xSize number of samples of the row
+	 */
+	private static void putRow(float[] row, ByteBuffer buffer, int sampleType, int xSize){
+		switch(sampleType){
+		case 0: //boolean (1 byte)
+			for(int x = 0; x < xSize; x++){
+				buffer.put(x, (byte)(row[x] == 0 ? 0 : 1));
+			}
+			break;
+		case 1: //unsigned int (1 byte)
+			for(int x = 0; x < xSize; x++){
+				if (row[x] > 255 || row[x] < 0) {
+					System.err.println("Pixel out of range: " + row[x] + " not in [0, 255]");
+					//throw new WarningException("Pixel out of range: " + row[x] + " not in [0, 255]");
+				}
+				
+				byte out = (byte) (Math.max(Math.min(row[x], 255), 0));
+				buffer.put(x, out);
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			CharBuffer cb = buffer.asCharBuffer();
+			for(int x = 0; x < xSize; x++){
+				if (row[x] > Character.MAX_VALUE || row[x] < Character.MIN_VALUE) {
+					System.err.println("Pixel out of range: " + row[x] + " not in [" + Character.MIN_VALUE + ", " + Character.MAX_VALUE + "]");
+					//throw new WarningException("Pixel out of range: " + row[x] + " not in [" + Character.MIN_VALUE + ", " + Character.MAX_VALUE + "]");
+				}						
+				
+				char out = (char) Math.max(Math.min(row[x], Character.MAX_VALUE), Character.MIN_VALUE);
+				cb.put(x, out);
+			}
+			break;
+		case 3: //signed short (2 bytes)
+			ShortBuffer sb = buffer.asShortBuffer();
+			for(int x = 0; x < xSize; x++){
+				if (row[x] > Short.MAX_VALUE || row[x] < Short.MIN_VALUE) {
+					System.err.println("Pixel out of range: " + row[x] + " not in [" + Short.MIN_VALUE + ", " + Short.MAX_VALUE + "]");
+					//throw new WarningException("Pixel out of range: " + row[x] + " not in [" + Short.MIN_VALUE + ", " + Short.MAX_VALUE + "]");
+				}
+				
+				short out = (short) Math.max(Math.min(row[x], Short.MAX_VALUE), Short.MIN_VALUE);
+				sb.put(x, out);
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			IntBuffer ib = buffer.asIntBuffer();
+			for(int x = 0; x < xSize; x++){
+				if (row[x] > 2 << 20 || row[x] < -2 << 20) {
+					System.err.println("Pixel probably out of range.");
+					//throw new WarningException("Pixel probably out of range.");
+				}
+				
+				ib.put(x, (int)row[x]);
+			}
+			break;
+		case 5: //signed long (8 bytes)
+			LongBuffer lb = buffer.asLongBuffer();
+			for(int x = 0; x < xSize; x++){
+				lb.put(x, (long)row[x]);
+			}
+			break;
+		case 6: //float (4 bytes)
+			buffer.asFloatBuffer().put(row, 0, xSize);
+			break;
+		case 7: //double (8 bytes) - lost of precision
+			DoubleBuffer db = buffer.asDoubleBuffer();
+			for(int x = 0; x < xSize; x++){
+				db.put(x, (double)row[x]);
+			}
+			break;
 		}
 	}
 
@@ -349,6 +490,7 @@ public class SaveFile{
 		else if(extension.compareToIgnoreCase("bmp") == 0)  fileFormat = 4;
 		else if(extension.compareToIgnoreCase("raw") == 0)  fileFormat = -1;
 		else if(extension.compareToIgnoreCase("img") == 0)  fileFormat = -1;
+		else if(extension.compareToIgnoreCase("rawz") == 0) fileFormat = -1;
 
 		int zSize = imageSamples.length;
 		int ySize = imageSamples[0].length;
@@ -435,6 +577,31 @@ public class SaveFile{
 		}
 	}
 
+	/**
+	 * Saves typed image samples in the format given by the extension. Raw data is saved without converting the samples when the type in imageGeometry is the same as the one of the image.
+	 *
+	 * @param image the image samples
+	 * @param imageFile file name where raw data will be stored
+	 * @param imageGeometry a 1D integer array that contains the format when the data is stored in raw data
+	 *
+	 * @throws WarningException when the file cannot be saved (incorrect number of components, file format unrecognized, etc.)
+	 * @throws ParamterException when saving with raw mode and the imageGeometry parameter has some problems
+	 */
+	public static void SaveFileByExtension(TypedImage image, String imageFile, int[] imageGeometry) throws WarningException, ParameterException{
+		if(getFormat(imageFile) == 5){
+			if(imageGeometry == null){
+				throw new ParameterException("To store in raw format imageGeometry is mandatory.");
+			}else{
+				if(imageGeometry.length != 6){
+					throw new ParameterException("Incorrect number of parameters in imageGeometry.");
+				}
+			}
+			SaveFileRaw(image, imageFile, imageGeometry[3], imageGeometry[4]);
+		}else{
+			SaveFileByExtension(image.getImage(), imageFile, imageGeometry);
+		}
+	}
+
 	/**
 	 * Saves image samples in the format given by the extension.
 	 *
@@ -507,6 +674,7 @@ public class SaveFile{
 			else if(extension.compareToIgnoreCase("bmp") == 0)  fileFormat = 4;
 			else if(extension.compareToIgnoreCase("raw") == 0)  fileFormat = 5;
 			else if(extension.compareToIgnoreCase("img") == 0)  fileFormat = 5;
+			else if(extension.compareToIgnoreCase("rawz") == 0) fileFormat = 5;
 		}else{
 			throw new WarningException("The file does not have any extension.");
 		}
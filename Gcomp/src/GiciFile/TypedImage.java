@@ -0,0 +1,626 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+
+import java.nio.*;
+
+import GiciException.*;
+
+
+/**
+ * This class keeps the samples of an image with their own primitive type, instead of widening them to float. The samples of each component are stored in a flat array (index is [y*xSize + x]), so an 8 bit image uses one byte per sample and 32 and 64 bit integer samples keep all their precision.<br>
+ * Sample types are the ones returned by {@link LoadFile#getType}:<br>
+ * &nbsp; 0- boolean (stored as byte, 0 or 1)<br>
+ * &nbsp; 1- unsigned int (1 byte)<br>
+ * &nbsp; 2- unsigned int (2 bytes)<br>
+ * &nbsp; 3- signed int (2 bytes)<br>
+ * &nbsp; 4- signed int (4 bytes)<br>
+ * &nbsp; 5- signed int (8 bytes)<br>
+ * &nbsp; 6- float (4 bytes)<br>
+ * &nbsp; 7- double (8 bytes)<br>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class TypedImage{
+
+	/**
+	 * Greatest number of samples of a component (the largest array that virtual machines allocate is a few positions smaller than 2^31).
+	 */
+	static final long MAX_COMPONENT_SAMPLES = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Number of image components.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int zSize;
+
+	/**
+	 * Image height.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int ySize;
+
+	/**
+	 * Image width.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int xSize;
+
+	/**
+	 * Sample type as returned by {@link LoadFile#getType}.
+	 * <p>
+	 * Only values from 0 to 7 allowed.
+	 */
+	int type;
+
+	/**
+	 * Samples of types 0 and 1 (index meaning [z][y*xSize + x]), null for other types.
+	 */
+	byte[][] byteSamples = null;
+
+	/**
+	 * Samples of type 2 (index meaning [z][y*xSize + x]), null for other types.
+	 */
+	char[][] charSamples = null;
+
+	/**
+	 * Samples of type 3 (index meaning [z][y*xSize + x]), null for other types.
+	 */
+	short[][] shortSamples = null;
+
+	/**
+	 * Samples of type 4 (index meaning [z][y*xSize + x]), null for other types.
+	 */
+	int[][] intSamples = null;
+
+	/**
+	 * Samples of type 5 (index meaning [z][y*xSize + x]), null for other types.
+	 */
+	long[][] longSamples = null;
+
+	/**
+	 * Samples of type 6 (index meaning [z][y*xSize + x]), null for other types.
+	 */
+	float[][] floatSamples = null;
+
+	/**
+	 * Samples of type 7 (index meaning [z][y*xSize + x]), null for other types.
+	 */
+	double[][] doubleSamples = null;
+
+	/**
+	 * Allocates an image (all samples are 0).
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param type sample type as returned by {@link LoadFile#getType}
+	 *
+	 * @throws WarningException when a component has more samples than an array can keep (see {@link #canAllocate})
+	 */
+	public TypedImage(int zSize, int ySize, int xSize, int type) throws WarningException{
+		if(!canAllocate(ySize, xSize)){
+			throw new WarningException("Components of " + ySize + "x" + xSize + " samples are too large to be loaded in memory (raw band sequential images are compared row by row without loading them).");
+		}
+		this.zSize = zSize;
+		this.ySize = ySize;
+		this.xSize = xSize;
+		this.type = type;
+
+		switch(type){
+		case 0: //boolean (1 byte)
+		case 1: //unsigned int (1 byte)
+			byteSamples = new byte[zSize][ySize * xSize];
+			break;
+		case 2: //unsigned int (2 bytes)
+			charSamples = new char[zSize][ySize * xSize];
+			break;
+		case 3: //signed short (2 bytes)
+			shortSamples = new short[zSize][ySize * xSize];
+			break;
+		case 4: //signed int (4 bytes)
+			intSamples = new int[zSize][ySize * xSize];
+			break;
+		case 5: //signed long (8 bytes)
+			longSamples = new long[zSize][ySize * xSize];
+			break;
+		case 6: //float (4 bytes)
+			floatSamples = new float[zSize][ySize * xSize];
+			break;
+		case 7: //double (8 bytes)
+			doubleSamples = new double[zSize][ySize * xSize];
+			break;
+		default:
+			throw new IllegalArgumentException("Sample type unrecognized.");
+		}
+	}
+
+	/**
+	 * Indicates whether the components of an image fit in the flat arrays of a typed image (a Java array cannot have more than about 2^31 positions).
+	 *
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @return true if a component of ySize*xSize samples can be allocated, false otherwise
+	 */
+	static public boolean canAllocate(int ySize, int xSize){
+		return(ySize >= 0 && xSize >= 0 && (long) ySize * xSize <= MAX_COMPONENT_SAMPLES);
+	}
+
+	/**
+	 * Copies a float image to a typed image.
+	 *
+	 * @param imageSamples a 3D float array of image samples (index are [z][y][x])
+	 * @param type sample type as returned by {@link LoadFile#getType}
+	 * @return the typed image
+	 *
+	 * @throws WarningException when the components are too large to be kept in a typed image
+	 */
+	static public TypedImage fromFloat(float[][][] imageSamples, int type) throws WarningException{
+		TypedImage image = new TypedImage(imageSamples.length, imageSamples[0].length, imageSamples[0][0].length, type);
+		for(int z = 0; z < image.zSize; z++){
+			for(int y = 0; y < image.ySize; y++){
+				image.setRow(z, y, imageSamples[z][y]);
+			}
+		}
+		return(image);
+	}
+
+	/**
+	 * Copies some components and a window of the image.
+	 *
+	 * @param bands components to copy (null to copy all of them)
+	 * @param window xBegin, yBegin, width and height of the window to copy (null to copy whole components)
+	 * @return the new image
+	 *
+	 * @throws WarningException when the window is too large to be kept in a typed image
+	 */
+	public TypedImage crop(int[] bands, int[] window) throws WarningException{
+		if(bands == null){
+			bands = RawImageReader.getBandRange(0, zSize);
+		}
+		if(window == null){
+			window = new int[]{0, 0, xSize, ySize};
+		}
+		TypedImage image = new TypedImage(bands.length, window[3], window[2], type);
+		for(int z = 0; z < bands.length; z++){
+			Object from = getSamples(bands[z]);
+			Object to = image.getSamples(z);
+			for(int y = 0; y < window[3]; y++){
+				System.arraycopy(from, (window[1] + y) * xSize + window[0], to, y * window[2], window[2]);
+			}
+		}
+		return(image);
+	}
+
+	/**
+	 * @param z the component
+	 * @return the array with the samples of the component, whatever its type is
+	 */
+	private Object getSamples(int z){
+		switch(type){
+		case 0: //boolean (1 byte)
+		case 1: //unsigned int (1 byte)
+			return(byteSamples[z]);
+		case 2: //unsigned int (2 bytes)
+			return(charSamples[z]);
+		case 3: //signed short (2 bytes)
+			return(shortSamples[z]);
+		case 4: //signed int (4 bytes)
+			return(intSamples[z]);
+		case 5: //signed long (8 bytes)
+			return(longSamples[z]);
+		case 6: //float (4 bytes)
+			return(floatSamples[z]);
+		default: //double (8 bytes)
+			return(doubleSamples[z]);
+		}
+	}
+
+	/**
+	 * Copies a row of samples from raw data, converting them from the byte order of the buffer.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @param bytes raw data with (at least) xSize samples of this image type from the offset
+	 * @param offset position of the first byte of the row in bytes
+	 */
+	public void setRow(int z, int y, ByteBuffer bytes, int offset){
+		int begin = y * xSize;
+		ByteBuffer row = bytes.duplicate().order(bytes.order());
+		row.position(offset);
+
+		switch(type){
+		case 0: //boolean (1 byte)
+			row.get(byteSamples[z], begin, xSize);
+			for(int x = begin; x < begin + xSize; x++){
+				byteSamples[z][x] = (byte) (byteSamples[z][x] == 0 ? 0 : 1);
+			}
+			break;
+		case 1: //unsigned int (1 byte)
+			row.get(byteSamples[z], begin, xSize);
+			break;
+		case 2: //unsigned int (2 bytes)
+			row.asCharBuffer().get(charSamples[z], begin, xSize);
+			break;
+		case 3: //signed short (2 bytes)
+			row.asShortBuffer().get(shortSamples[z], begin, xSize);
+			break;
+		case 4: //signed int (4 bytes)
+			row.asIntBuffer().get(intSamples[z], begin, xSize);
+			break;
+		case 5: //signed long (8 bytes)
+			row.asLongBuffer().get(longSamples[z], begin, xSize);
+			break;
+		case 6: //float (4 bytes)
+			row.asFloatBuffer().get(floatSamples[z], begin, xSize);
+			break;
+		case 7: //double (8 bytes)
+			row.asDoubleBuffer().get(doubleSamples[z], begin, xSize);
+			break;
+		}
+	}
+
+	/**
+	 * Copies a row of samples to raw data, converting them to the byte order of the buffer.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @param bytes buffer with (at least) room for xSize samples of this image type from position 0
+	 */
+	public void putRow(int z, int y, ByteBuffer bytes){
+		int begin = y * xSize;
+		ByteBuffer row = bytes.duplicate().order(bytes.order());
+		row.clear();
+
+		switch(type){
+		case 0: //boolean (1 byte)
+		case 1: //unsigned int (1 byte)
+			row.put(byteSamples[z], begin, xSize);
+			break;
+		case 2: //unsigned int (2 bytes)
+			row.asCharBuffer().put(charSamples[z], begin, xSize);
+			break;
+		case 3: //signed short (2 bytes)
+			row.asShortBuffer().put(shortSamples[z], begin, xSize);
+			break;
+		case 4: //signed int (4 bytes)
+			row.asIntBuffer().put(intSamples[z], begin, xSize);
+			break;
+		case 5: //signed long (8 bytes)
+			row.asLongBuffer().put(longSamples[z], begin, xSize);
+			break;
+		case 6: //float (4 bytes)
+			row.asFloatBuffer().put(floatSamples[z], begin, xSize);
+			break;
+		case 7: //double (8 bytes)
+			row.asDoubleBuffer().put(doubleSamples[z], begin, xSize);
+			break;
+		}
+	}
+
+	/**
+	 * Copies a row of float samples, converting them to the image type (values are truncated as in a cast).
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @param row an array of (at least) xSize samples
+	 */
+	public void setRow(int z, int y, float[] row){
+		int begin = y * xSize;
+
+		switch(type){
+		case 0: //boolean (1 byte)
+			for(int x = 0; x < xSize; x++){
+				byteSamples[z][begin + x] = (byte) (row[x] == 0 ? 0 : 1);
+			}
+			break;
+		case 1: //unsigned int (1 byte)
+			for(int x = 0; x < xSize; x++){
+				byteSamples[z][begin + x] = (byte) (int) row[x];
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			for(int x = 0; x < xSize; x++){
+				charSamples[z][begin + x] = (char) (int) row[x];
+			}
+			break;
+		case 3: //signed short (2 bytes)
+			for(int x = 0; x < xSize; x++){
+				shortSamples[z][begin + x] = (short) row[x];
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			for(int x = 0; x < xSize; x++){
+				intSamples[z][begin + x] = (int) row[x];
+			}
+			break;
+		case 5: //signed long (8 bytes)
+			for(int x = 0; x < xSize; x++){
+				longSamples[z][begin + x] = (long) row[x];
+			}
+			break;
+		case 6: //float (4 bytes)
+			System.arraycopy(row, 0, floatSamples[z], begin, xSize);
+			break;
+		case 7: //double (8 bytes)
+			for(int x = 0; x < xSize; x++){
+				doubleSamples[z][begin + x] = row[x];
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Sets a sample, converting it to the image type (values are truncated as in a cast).
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @param x the column
+	 * @param value the sample value
+	 */
+	public void setSample(int z, int y, int x, double value){
+		int pos = y * xSize + x;
+
+		switch(type){
+		case 0: //boolean (1 byte)
+			byteSamples[z][pos] = (byte) (value == 0 ? 0 : 1);
+			break;
+		case 1: //unsigned int (1 byte)
+			byteSamples[z][pos] = (byte) (int) value;
+			break;
+		case 2: //unsigned int (2 bytes)
+			charSamples[z][pos] = (char) (int) value;
+			break;
+		case 3: //signed short (2 bytes)
+			shortSamples[z][pos] = (short) value;
+			break;
+		case 4: //signed int (4 bytes)
+			intSamples[z][pos] = (int) value;
+			break;
+		case 5: //signed long (8 bytes)
+			longSamples[z][pos] = (long) value;
+			break;
+		case 6: //float (4 bytes)
+			floatSamples[z][pos] = (float) value;
+			break;
+		case 7: //double (8 bytes)
+			doubleSamples[z][pos] = value;
+			break;
+		}
+	}
+
+	/**
+	 * Converts a row of the image to double. Integer samples of up to 53 bits are converted exactly.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @param row an array of (at least) xSize positions where the samples are stored
+	 */
+	public void getRow(int z, int y, double[] row){
+		int begin = y * xSize;
+
+		switch(type){
+		case 0: //boolean (1 byte)
+		case 1: //unsigned int (1 byte)
+			byte[] bs = byteSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = bs[begin + x] & 0xff;
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			char[] cs = charSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = cs[begin + x];
+			}
+			break;
+		case 3: //signed short (2 bytes)
+			short[] ss = shortSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = ss[begin + x];
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			int[] is = intSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = is[begin + x];
+			}
+			break;
+		case 5: //signed long (8 bytes)
+			long[] ls = longSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = ls[begin + x];
+			}
+			break;
+		case 6: //float (4 bytes)
+			float[] fs = floatSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = fs[begin + x];
+			}
+			break;
+		case 7: //double (8 bytes)
+			System.arraycopy(doubleSamples[z], begin, row, 0, xSize);
+			break;
+		}
+	}
+
+	/**
+	 * Converts a row of the image to float.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @param row an array of (at least) xSize positions where the samples are stored
+	 */
+	public void getRow(int z, int y, float[] row){
+		int begin = y * xSize;
+
+		switch(type){
+		case 0: //boolean (1 byte)
+		case 1: //unsigned int (1 byte)
+			byte[] bs = byteSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = bs[begin + x] & 0xff;
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			char[] cs = charSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = cs[begin + x];
+			}
+			break;
+		case 3: //signed short (2 bytes)
+			short[] ss = shortSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = ss[begin + x];
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			int[] is = intSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = is[begin + x];
+			}
+			break;
+		case 5: //signed long (8 bytes)
+			long[] ls = longSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = ls[begin + x];
+			}
+			break;
+		case 6: //float (4 bytes)
+			System.arraycopy(floatSamples[z], begin, row, 0, xSize);
+			break;
+		case 7: //double (8 bytes) - lost of precision
+			double[] ds = doubleSamples[z];
+			for(int x = 0; x < xSize; x++){
+				row[x] = (float) ds[begin + x];
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Converts the image to float.
+	 *
+	 * @return a 3D float array that contains image samples (index are [z][y][x])
+	 */
+	public float[][][] getImage(){
+		float[][][] imageSamples = new float[zSize][ySize][xSize];
+		for(int z = 0; z < zSize; z++){
+			for(int y = 0; y < ySize; y++){
+				getRow(z, y, imageSamples[z][y]);
+			}
+		}
+		return(imageSamples);
+	}
+
+	/**
+	 * @param z the component
+	 * @return the samples of the component (types 0 and 1 only)
+	 */
+	public byte[] getByteSamples(int z){
+		return(byteSamples[z]);
+	}
+
+	/**
+	 * @param z the component
+	 * @return the samples of the component (type 2 only)
+	 */
+	public char[] getCharSamples(int z){
+		return(charSamples[z]);
+	}
+
+	/**
+	 * @param z the component
+	 * @return the samples of the component (type 3 only)
+	 */
+	public short[] getShortSamples(int z){
+		return(shortSamples[z]);
+	}
+
+	/**
+	 * @param z the component
+	 * @return the samples of the component (type 4 only)
+	 */
+	public int[] getIntSamples(int z){
+		return(intSamples[z]);
+	}
+
+	/**
+	 * @param z the component
+	 * @return the samples of the component (type 5 only)
+	 */
+	public long[] getLongSamples(int z){
+		return(longSamples[z]);
+	}
+
+	/**
+	 * @param z the component
+	 * @return the samples of the component (type 6 only)
+	 */
+	public float[] getFloatSamples(int z){
+		return(floatSamples[z]);
+	}
+
+	/**
+	 * @param z the component
+	 * @return the samples of the component (type 7 only)
+	 */
+	public double[] getDoubleSamples(int z){
+		return(doubleSamples[z]);
+	}
+
+	/**
+	 * @return zSize definition in this class
+	 */
+	public int getZSize(){
+		return(zSize);
+	}
+
+	/**
+	 * @return ySize definition in this class
+	 */
+	public int getYSize(){
+		return(ySize);
+	}
+
+	/**
+	 * @return xSize definition in this class
+	 */
+	public int getXSize(){
+		return(xSize);
+	}
+
+	/**
+	 * @return type definition in this class
+	 */
+	public int getType(){
+		return(type);
+	}
+}
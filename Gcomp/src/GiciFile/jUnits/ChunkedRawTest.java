@@ -0,0 +1,323 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile.jUnits;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import GiciException.*;
+import GiciFile.*;
+
+
+/**
+ * This class checks the chunked compressed raw format (see {@link ChunkedRawWriter} and {@link ChunkedRawInputStream}). A file of several chunks per component is written and read back whole, from a component other than the first one and through RawImageReader with a subset of the components; and truncated or corrupted files must be rejected instead of being read as valid samples.
+ * <p>
+ * Usage: java GiciFile.jUnits.ChunkedRawTest (exits with status 1 if some check fails).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ChunkedRawTest{
+
+	/**
+	 * Image sizes. Rows are long enough for each component to be split in several chunks of about 1 MB (the last one shorter).
+	 */
+	static final int Z_SIZE = 3, Y_SIZE = 60, ROW_BYTES = 40000;
+
+	/**
+	 * Number of checks done.
+	 */
+	static int checks = 0;
+
+	/**
+	 * Number of checks that fail.
+	 */
+	static int failures = 0;
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args unused
+	 *
+	 * @throws Exception when some file cannot be written or read
+	 */
+	public static void main(String[] args) throws Exception{
+		File directory = File.createTempFile("ChunkedRawTest", "");
+		directory.delete();
+		directory.mkdir();
+		String file = new File(directory, "image.rawz").getPath();
+		String damaged = new File(directory, "damaged.rawz").getPath();
+
+		//Samples are partly repeated, so that chunks are actually compressed
+		byte[][][] image = new byte[Z_SIZE][Y_SIZE][ROW_BYTES];
+		Random random = new Random(1);
+		for(int z = 0; z < Z_SIZE; z++){
+			for(int y = 0; y < Y_SIZE; y++){
+				for(int x = 0; x < ROW_BYTES; x++){
+					image[z][y][x] = (byte) (x % 7 == 0 ? random.nextInt() : z + y);
+				}
+			}
+		}
+		ChunkedRawWriter writer = new ChunkedRawWriter(file, Z_SIZE, Y_SIZE, ROW_BYTES);
+		for(int z = 0; z < Z_SIZE; z++){
+			for(int y = 0; y < Y_SIZE; y++){
+				writer.writeRow(image[z][y]);
+			}
+		}
+		writer.close();
+		check(new File(file).length() < (long) Z_SIZE * Y_SIZE * ROW_BYTES, "the file is not compressed");
+
+		//Whole file and each component from its beginning
+		check(Arrays.equals(read(file, Z_SIZE, 0), getBytes(image, 0, Z_SIZE)), "the whole file is not read back");
+		for(int zBegin = 1; zBegin < Z_SIZE; zBegin++){
+			check(Arrays.equals(read(file, 1, zBegin), getBytes(image, zBegin, 1)), "component " + zBegin + " is not read back");
+		}
+		check(Arrays.equals(read(file, Z_SIZE - 1, 1), getBytes(image, 1, Z_SIZE - 1)), "the last components are not read back");
+
+		//Subset of components through RawImageReader (samples of 1 byte)
+		int[] bands = {0, 2};
+		RawImageReader reader = new RawImageReader(file, Z_SIZE, Y_SIZE, ROW_BYTES, Byte.TYPE, 0, bands, null);
+		boolean equal = true;
+		for(int band: bands){
+			for(int y = 0; y < Y_SIZE; y++){
+				ByteBuffer row = reader.readRowBytes();
+				byte[] bytes = new byte[ROW_BYTES];
+				row.get(bytes);
+				equal &= Arrays.equals(bytes, image[band][y]);
+			}
+		}
+		reader.close();
+		check(equal, "components 1 and 3 are not read back through RawImageReader");
+
+		//Samples saved by SaveFile are loaded back
+		float[][][] samples = new float[2][5][3];
+		for(int z = 0; z < samples.length; z++){
+			for(int y = 0; y < samples[z].length; y++){
+				for(int x = 0; x < samples[z][y].length; x++){
+					samples[z][y][x] = (z * 100 + y * 10 + x) * (x % 2 == 0 ? 1 : -1);
+				}
+			}
+		}
+		String saved = new File(directory, "saved.rawz").getPath();
+		SaveFile.SaveFileRaw(samples, saved, 3, 1);
+		reader = new RawImageReader(saved, 2, 5, 3, Short.TYPE, 1, 0);
+		double[] row = new double[3];
+		equal = true;
+		for(int z = 0; z < samples.length; z++){
+			for(int y = 0; y < samples[z].length; y++){
+				reader.readRow(row);
+				for(int x = 0; x < row.length; x++){
+					equal &= row[x] == samples[z][y][x];
+				}
+			}
+		}
+		reader.close();
+		check(equal, "samples saved by SaveFile are not loaded back");
+		new File(saved).delete();
+
+		//Wrong geometries
+		checkOpenFails(file, Z_SIZE, Y_SIZE + 1, ROW_BYTES, 0, "a wrong height is accepted");
+		checkOpenFails(file, Z_SIZE, Y_SIZE, ROW_BYTES / 2, 0, "a wrong row size is accepted");
+		checkOpenFails(file, Z_SIZE, Y_SIZE, ROW_BYTES, 1, "more components than the file has are accepted");
+
+		//Writer misuse
+		writer = new ChunkedRawWriter(damaged, 1, 2, 4);
+		writer.writeRow(new byte[4]);
+		check(fails(writer, false), "a file with rows missing is closed");
+		writer = new ChunkedRawWriter(damaged, 1, 1, 4);
+		writer.writeRow(new byte[4]);
+		check(fails(writer, true), "more rows than the geometry has are written");
+
+		//Truncated files, and corrupted indexes and chunks
+		byte[] bytes = readFile(file);
+		ByteBuffer trailer = ByteBuffer.wrap(bytes, bytes.length - 16, 8);
+		int indexPosition = (int) trailer.getLong();
+		writeFile(damaged, Arrays.copyOf(bytes, bytes.length - 5));
+		checkOpenFails(damaged, Z_SIZE, Y_SIZE, ROW_BYTES, 0, "a truncated file is accepted");
+		writeFile(damaged, Arrays.copyOf(bytes, indexPosition));
+		checkOpenFails(damaged, Z_SIZE, Y_SIZE, ROW_BYTES, 0, "a file without index is accepted");
+
+		byte[] corrupted = bytes.clone();
+		ByteBuffer.wrap(corrupted, indexPosition + 16 + 8, 4).putInt(Integer.MAX_VALUE);
+		writeFile(damaged, corrupted);
+		checkOpenFails(damaged, Z_SIZE, Y_SIZE, ROW_BYTES, 0, "an index with a chunk beyond the index is accepted");
+
+		corrupted = bytes.clone();
+		ByteBuffer.wrap(corrupted, indexPosition, 4).putInt(Z_SIZE + 1);
+		writeFile(damaged, corrupted);
+		checkOpenFails(damaged, Z_SIZE, Y_SIZE, ROW_BYTES, 0, "an index with more chunks than entries is accepted");
+
+		corrupted = bytes.clone();
+		for(int i = 20; i < 40; i++){
+			corrupted[i] = (byte) ~corrupted[i];
+		}
+		writeFile(damaged, corrupted);
+		boolean rejected = false;
+		try{
+			read(damaged, Z_SIZE, 0);
+		}catch(IOException e){
+			rejected = true;
+		}
+		check(rejected, "a corrupted chunk is read");
+
+		new File(file).delete();
+		new File(damaged).delete();
+		directory.delete();
+
+		System.out.println(checks + " checks done, " + failures + " failed.");
+		if(failures > 0){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Counts a check and reports it when it fails.
+	 *
+	 * @param passed result of the check
+	 * @param failure description of the failure
+	 */
+	static void check(boolean passed, String failure){
+		checks++;
+		if(!passed){
+			failures++;
+			System.out.println("Chunked raw files: " + failure + ".");
+		}
+	}
+
+	/**
+	 * Checks that a file cannot be opened with a geometry.
+	 *
+	 * @param file the file
+	 * @param zSize number of components to read
+	 * @param ySize image height
+	 * @param rowBytes row size in bytes
+	 * @param zBegin first component to read
+	 * @param failure description of the failure
+	 */
+	static void checkOpenFails(String file, int zSize, int ySize, int rowBytes, int zBegin, String failure){
+		boolean rejected = false;
+		try{
+			new ChunkedRawInputStream(file, zSize, ySize, rowBytes, zBegin).close();
+		}catch(WarningException e){
+			rejected = true;
+		}catch(IOException e){
+		}
+		check(rejected, failure);
+	}
+
+	/**
+	 * @param writer a writer
+	 * @param write true to write one more row before closing it
+	 * @return true if writing or closing throws a WarningException
+	 */
+	static boolean fails(ChunkedRawWriter writer, boolean write){
+		try{
+			if(write){
+				writer.writeRow(new byte[4]);
+			}
+			writer.close();
+		}catch(WarningException e){
+			return(true);
+		}
+		return(false);
+	}
+
+	/**
+	 * Reads some components of a chunked file.
+	 *
+	 * @param file the file
+	 * @param zSize number of components to read
+	 * @param zBegin first component to read
+	 * @return the bytes read, up to the end of the stream
+	 *
+	 * @throws IOException when the file cannot be read
+	 * @throws WarningException when the file cannot be opened
+	 */
+	static byte[] read(String file, int zSize, int zBegin) throws IOException, WarningException{
+		ChunkedRawInputStream stream = new ChunkedRawInputStream(file, zSize, Y_SIZE, ROW_BYTES, zBegin);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try{
+			byte[] buffer = new byte[12345];
+			int read;
+			while((read = stream.read(buffer, 0, buffer.length)) >= 0){
+				bytes.write(buffer, 0, read);
+			}
+		}finally{
+			stream.close();
+		}
+		return(bytes.toByteArray());
+	}
+
+	/**
+	 * @param image the test image (index are [z][y][x])
+	 * @param zBegin first component
+	 * @param zSize number of components
+	 * @return the bytes of the components, as in a raw file
+	 */
+	static byte[] getBytes(byte[][][] image, int zBegin, int zSize){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for(int z = zBegin; z < zBegin + zSize; z++){
+			for(int y = 0; y < Y_SIZE; y++){
+				bytes.write(image[z][y], 0, ROW_BYTES);
+			}
+		}
+		return(bytes.toByteArray());
+	}
+
+	/**
+	 * @param file a file
+	 * @return its bytes
+	 *
+	 * @throws IOException when the file cannot be read
+	 */
+	static byte[] readFile(String file) throws IOException{
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		try{
+			byte[] bytes = new byte[(int) new File(file).length()];
+			dis.readFully(bytes);
+			return(bytes);
+		}finally{
+			dis.close();
+		}
+	}
+
+	/**
+	 * @param file a file
+	 * @param bytes the bytes written to the file
+	 *
+	 * @throws IOException when the file cannot be written
+	 */
+	static void writeFile(String file, byte[] bytes) throws IOException{
+		FileOutputStream fos = new FileOutputStream(file);
+		try{
+			fos.write(bytes);
+		}finally{
+			fos.close();
+		}
+	}
+}
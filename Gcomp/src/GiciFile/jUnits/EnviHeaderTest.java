@@ -0,0 +1,241 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile.jUnits;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import GiciException.*;
+import GiciFile.*;
+
+
+/**
+ * This class checks the parsing of ENVI headers (see {@link EnviHeader}): the geometry given by a header (data type, byte order, interleave and header offset included), the files where headers are looked for, the samples of an image read with the geometry of its header, and the rejection of headers that are not valid or do not describe their image.
+ * <p>
+ * Usage: java GiciFile.jUnits.EnviHeaderTest (exits with status 1 if some check fails).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class EnviHeaderTest{
+
+	/**
+	 * Number of checks done.
+	 */
+	static int checks = 0;
+
+	/**
+	 * Number of checks that fail.
+	 */
+	static int failures = 0;
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args unused
+	 *
+	 * @throws Exception when some file cannot be written or read
+	 */
+	public static void main(String[] args) throws Exception{
+		File directory = File.createTempFile("EnviHeaderTest", "");
+		directory.delete();
+		directory.mkdir();
+		String image = new File(directory, "image.raw").getPath();
+		String header = image + ".hdr";
+		String shortHeader = new File(directory, "image.hdr").getPath();
+
+		//Geometry of a BIP image of unsigned shorts, big endian, after a header of 128 bytes
+		writeFile(header, "ENVI\n"
+			+ "description = {\n  Test image,\n  several lines}\n"
+			+ "Samples = 5\n"
+			+ "lines   = 4\n"
+			+ "bands = 3\n"
+			+ "header offset = 128\n"
+			+ "file type = ENVI Standard\n"
+			+ "data type = 12\n"
+			+ "interleave = BIP\n"
+			+ "byte order = 1\n"
+			+ "band names = {a, b,\n c}\n");
+		ByteBuffer bytes = ByteBuffer.allocate(128 + 3 * 4 * 5 * 2);
+		bytes.position(128);
+		for(int y = 0; y < 4; y++){
+			for(int x = 0; x < 5; x++){
+				for(int z = 0; z < 3; z++){
+					bytes.putChar((char) getSample(z, y, x));
+				}
+			}
+		}
+		writeFile(image, bytes.array());
+		int[] geometry = LoadFile.getHeaderGeometry(image);
+		check(Arrays.equals(geometry, new int[]{3, 4, 5, 2, 0, RawImageReader.BIP, 128}), "the geometry of the header is " + Arrays.toString(geometry));
+
+		RawImageReader reader = new RawImageReader(image, geometry, null, null);
+		double[] row = new double[5];
+		boolean equal = true;
+		for(int y = 0; y < 4; y++){
+			for(int z = 0; z < 3; z++){
+				reader.readRow(row);
+				for(int x = 0; x < 5; x++){
+					equal &= row[x] == getSample(z, y, x);
+				}
+			}
+		}
+		reader.close();
+		check(equal, "samples read with the geometry of the header are not the ones of the image");
+
+		//Headers looked for
+		writeFile(shortHeader, "ENVI\nsamples = 1\nlines = 1\nbands = 1\ndata type = 1\n");
+		check(header.equals(EnviHeader.getHeaderFile(image)), "the header of the image is not \"image.raw.hdr\"");
+		check(header.equals(EnviHeader.getHeaderFile(image + ".gz")), "the header of the compressed image is not \"image.raw.hdr\"");
+		new File(header).delete();
+		check(shortHeader.equals(EnviHeader.getHeaderFile(image)), "the header of the image is not \"image.hdr\"");
+		check(EnviHeader.getHeaderFile(new File(directory, "other.raw").getPath()) == null, "an image without header has a header");
+		check(LoadFile.getHeaderGeometry(new File(directory, "other.raw").getPath()) == null, "an image without header has a geometry");
+
+		//Defaults: BSQ, no header offset, and no byte order for single bytes
+		check(Arrays.equals(new EnviHeader(shortHeader).getImageGeometry(), new int[]{1, 1, 1, 1, 1, RawImageReader.BSQ, 0}), "the default geometry is not the one of a BSQ image without header offset");
+		writeFile(header, "ENVI\nsamples = 2\nlines = 3\nbands = 4\ndata type = 4\nbyte order = 0\ninterleave = bil\n");
+		check(Arrays.equals(new EnviHeader(header).getImageGeometry(), new int[]{4, 3, 2, 6, 1, RawImageReader.BIL, 0}), "the geometry of a little endian BIL header is wrong");
+
+		//Data types
+		int[][] types = {{1, 1}, {2, 3}, {3, 4}, {4, 6}, {5, 7}, {12, 2}, {14, 5}};
+		for(int[] type: types){
+			writeFile(header, "ENVI\nsamples = 2\nlines = 3\nbands = 4\ndata type = " + type[0] + "\nbyte order = 0\n");
+			check(new EnviHeader(header).getImageGeometry()[3] == type[1], "ENVI data type " + type[0] + " is not sample type " + type[1]);
+		}
+
+		//Headers rejected
+		String[] wrong = {
+			"samples = 2\nlines = 3\nbands = 4\ndata type = 1\n",
+			"ENVI\nsamples = 2\nbands = 4\ndata type = 1\n",
+			"ENVI\nsamples = 0\nlines = 3\nbands = 4\ndata type = 1\n",
+			"ENVI\nsamples = two\nlines = 3\nbands = 4\ndata type = 1\n",
+			"ENVI\nsamples = 2\nlines = 3\nbands = 4\ndata type = 6\n",
+			"ENVI\nsamples = 2\nlines = 3\nbands = 4\ndata type = 2\n",
+			"ENVI\nsamples = 2\nlines = 3\nbands = 4\ndata type = 2\nbyte order = 2\n",
+			"ENVI\nsamples = 2\nlines = 3\nbands = 4\ndata type = 1\ninterleave = bsx\n",
+			"ENVI\nsamples = 2\nlines = 3\nbands = 4\ndata type = 1\nheader offset = -1\n",
+		};
+		String[] reasons = {"without ENVI", "without lines", "with no samples", "with samples that are not an integer", "of complex samples", "of shorts without byte order", "with a wrong byte order", "with a wrong interleave", "with a negative header offset"};
+		for(int i = 0; i < wrong.length; i++){
+			writeFile(header, wrong[i]);
+			boolean rejected = false;
+			try{
+				new EnviHeader(header);
+			}catch(WarningException e){
+				rejected = true;
+			}
+			check(rejected, "a header " + reasons[i] + " is accepted");
+		}
+		new File(header).delete();
+		check(fails(new File(directory, "missing.hdr").getPath(), null), "a missing header is read");
+
+		//Image lengths that are not the ones of the header
+		writeFile(header, "ENVI\nsamples = 5\nlines = 4\nbands = 3\ndata type = 12\nbyte order = 1\nheader offset = 127\n");
+		check(fails(header, image), "an image longer than its header describes is accepted");
+		writeFile(header, "ENVI\nsamples = 5\nlines = 4\nbands = 3\ndata type = 12\nbyte order = 1\nheader offset = 129\n");
+		check(fails(header, image), "an image shorter than its header describes is accepted");
+		check(fails(header, new File(directory, "missing.raw").getPath()), "a missing image is accepted");
+		new EnviHeader(header).checkFileLength(image + ".gz");
+
+		new File(header).delete();
+		new File(shortHeader).delete();
+		new File(image).delete();
+		directory.delete();
+
+		System.out.println(checks + " checks done, " + failures + " failed.");
+		if(failures > 0){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Counts a check and reports it when it fails.
+	 *
+	 * @param passed result of the check
+	 * @param failure description of the failure
+	 */
+	static void check(boolean passed, String failure){
+		checks++;
+		if(!passed){
+			failures++;
+			System.out.println("ENVI headers: " + failure + ".");
+		}
+	}
+
+	/**
+	 * @param headerFile a header file
+	 * @param imageFile an image file whose length is checked (null to only read the header)
+	 * @return true if the header cannot be read or it does not describe the image
+	 */
+	static boolean fails(String headerFile, String imageFile){
+		try{
+			EnviHeader header = new EnviHeader(headerFile);
+			if(imageFile != null){
+				header.checkFileLength(imageFile);
+			}
+		}catch(WarningException e){
+			return(true);
+		}
+		return(false);
+	}
+
+	/**
+	 * @param z component
+	 * @param y row
+	 * @param x column
+	 * @return the sample of the test image (unsigned 16 bit, some of them above 32767)
+	 */
+	static int getSample(int z, int y, int x){
+		return(z * 20000 + y * 100 + x);
+	}
+
+	/**
+	 * @param file a file
+	 * @param text the text written to the file
+	 *
+	 * @throws IOException when the file cannot be written
+	 */
+	static void writeFile(String file, String text) throws IOException{
+		writeFile(file, text.getBytes("US-ASCII"));
+	}
+
+	/**
+	 * @param file a file
+	 * @param bytes the bytes written to the file
+	 *
+	 * @throws IOException when the file cannot be written
+	 */
+	static void writeFile(String file, byte[] bytes) throws IOException{
+		FileOutputStream fos = new FileOutputStream(file);
+		try{
+			fos.write(bytes);
+		}finally{
+			fos.close();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile.jUnits;
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import GiciException.*;
+import GiciFile.*;
+
+
+/**
+ * This class checks the reading of pgm images (see {@link PGMReader}). Ascii (P2) images with comments and whitespace in the header and among the samples, and binary (P5) images of 8 and 16 bits, uncompressed (mapped) and gzipped, are read and compared with the samples written; and files that are not valid pgm images must be rejected.
+ * <p>
+ * Usage: java GiciFile.jUnits.PGMReaderTest (exits with status 1 if some check fails).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class PGMReaderTest{
+
+	/**
+	 * Number of checks done.
+	 */
+	static int checks = 0;
+
+	/**
+	 * Number of checks that fail.
+	 */
+	static int failures = 0;
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args unused
+	 *
+	 * @throws Exception when some file cannot be written or read
+	 */
+	public static void main(String[] args) throws Exception{
+		File directory = File.createTempFile("PGMReaderTest", "");
+		directory.delete();
+		directory.mkdir();
+		String file = new File(directory, "image.pgm").getPath();
+		String gzFile = new File(directory, "image.pgm.gz").getPath();
+		Random random = new Random(1);
+
+		//Ascii images with comments everywhere and rows that do not match lines
+		int[][] samples = getSamples(random, 4, 7, 255);
+		writeFile(file, getText("P2 # magic number\n# comment line\n7\t# width\r\n4\n# max\n255\n", samples, " # sample comment\n", 5));
+		check(equals(file, samples, 255), "an ascii 8 bit image with comments is not read");
+		samples = getSamples(random, 3, 9, 1000);
+		writeFile(file, getText("P2\n#width and height\n9 3\n1000\n", samples, "\t", 4));
+		check(equals(file, samples, 1000), "an ascii 16 bit image is not read");
+		writeFile(file, getText("P2\n9 3\n1000\n", samples, "#c\n", 1));
+		check(equals(file, samples, 1000), "an ascii image with comments right after the samples is not read");
+		//Text longer than the buffer parsed at once
+		samples = getSamples(random, 300, 301, 65535);
+		writeFile(file, getText("P2\n301 300\n65535\n", samples, "\n", 13));
+		check(equals(file, samples, 65535), "a large ascii image is not read");
+
+		//Binary images, uncompressed and gzipped
+		samples = getSamples(random, 5, 6, 255);
+		writeFile(file, getBinary("P5\n# comment\n6 5\n255\n", samples, 255));
+		check(equals(file, samples, 255), "a binary 8 bit image is not read");
+		samples = getSamples(random, 5, 6, 65535);
+		byte[] binary = getBinary("P5 6 5 65535\n", samples, 65535);
+		writeFile(file, binary);
+		check(equals(file, samples, 65535), "a binary 16 bit image is not read");
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(gz);
+		gzos.write(binary);
+		gzos.close();
+		writeFile(gzFile, gz.toByteArray());
+		check(equals(gzFile, samples, 65535), "a gzipped binary 16 bit image is not read");
+		new File(gzFile).delete();
+
+		//Images loaded by LoadFile
+		writeFile(file, binary);
+		TypedImage image = new LoadFile(file).getTypedImage();
+		check(image.getType() == 2 && equals(image, samples), "a binary 16 bit image is not loaded as unsigned shorts");
+
+		//Files rejected
+		String[] headers = {"P6\n6 5\n255\n", "P5\n0 5\n255\n", "P5\n6 5\n0\n", "P5\n6 5\n65536\n", "P5\n6 x5\n255\n", "P5\n6 5\n99999999999\n", "P5\n6 5"};
+		String[] reasons = {"with a wrong magic number", "without columns", "with a maximum value of 0", "with a maximum value above 65535", "with a wrong height", "with a too large maximum value", "without maximum value"};
+		for(int i = 0; i < headers.length; i++){
+			writeFile(file, headers[i].getBytes("US-ASCII"));
+			check(fails(file, 5), "a file " + reasons[i] + " is read");
+		}
+		writeFile(file, Arrays.copyOf(binary, binary.length - 1));
+		check(fails(file, 5), "a truncated binary image is read");
+		writeFile(file, getText("P2\n9 3\n1000\n", getSamples(random, 2, 9, 1000), " ", 9));
+		check(fails(file, 3), "a truncated ascii image is read");
+		writeFile(file, "P2\n2 1\n255\n1 2x\n".getBytes("US-ASCII"));
+		check(fails(file, 1), "an ascii image with a sample that is not an integer is read");
+		writeFile(file, "P2\n2 1\n255\n1 2\n".getBytes("US-ASCII"));
+		check(fails(file, 2), "more rows than the image has are read");
+
+		new File(file).delete();
+		directory.delete();
+
+		System.out.println(checks + " checks done, " + failures + " failed.");
+		if(failures > 0){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Counts a check and reports it when it fails.
+	 *
+	 * @param passed result of the check
+	 * @param failure description of the failure
+	 */
+	static void check(boolean passed, String failure){
+		checks++;
+		if(!passed){
+			failures++;
+			System.out.println("PGM images: " + failure + ".");
+		}
+	}
+
+	/**
+	 * @param random the random generator
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param maxValue the maximum value (the first and the last samples are 0 and the maximum value)
+	 * @return random samples (index are [y][x])
+	 */
+	static int[][] getSamples(Random random, int ySize, int xSize, int maxValue){
+		int[][] samples = new int[ySize][xSize];
+		for(int y = 0; y < ySize; y++){
+			for(int x = 0; x < xSize; x++){
+				samples[y][x] = random.nextInt(maxValue + 1);
+			}
+		}
+		samples[0][0] = 0;
+		samples[ySize - 1][xSize - 1] = maxValue;
+		return(samples);
+	}
+
+	/**
+	 * @param header the header of the image
+	 * @param samples the samples (index are [y][x])
+	 * @param separator text after every samplesPerLine samples (a single space after the other ones)
+	 * @param samplesPerLine number of samples between separators
+	 * @return the bytes of an ascii image
+	 *
+	 * @throws IOException when the text cannot be encoded
+	 */
+	static byte[] getText(String header, int[][] samples, String separator, int samplesPerLine) throws IOException{
+		StringBuilder text = new StringBuilder(header);
+		int count = 0;
+		for(int[] row: samples){
+			for(int sample: row){
+				text.append(sample);
+				text.append(++count % samplesPerLine == 0 ? separator : " ");
+			}
+		}
+		return(text.toString().getBytes("US-ASCII"));
+	}
+
+	/**
+	 * @param header the header of the image
+	 * @param samples the samples (index are [y][x])
+	 * @param maxValue the maximum value (samples take 2 bytes, big endian, when it is above 255)
+	 * @return the bytes of a binary image
+	 *
+	 * @throws IOException when the bytes cannot be written
+	 */
+	static byte[] getBinary(String header, int[][] samples, int maxValue) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bytes);
+		dos.writeBytes(header);
+		for(int[] row: samples){
+			for(int sample: row){
+				if(maxValue > 255){
+					dos.writeShort(sample);
+				}else{
+					dos.writeByte(sample);
+				}
+			}
+		}
+		dos.close();
+		return(bytes.toByteArray());
+	}
+
+	/**
+	 * Reads a pgm image with PGMReader and compares it with some samples.
+	 *
+	 * @param file the image file
+	 * @param samples the samples (index are [y][x])
+	 * @param maxValue the maximum value of the image
+	 * @return true if the image has the sizes, the maximum value and the samples given
+	 *
+	 * @throws WarningException when the image cannot be read
+	 */
+	static boolean equals(String file, int[][] samples, int maxValue) throws WarningException{
+		PGMReader reader = new PGMReader(file);
+		try{
+			if(reader.getYSize() != samples.length || reader.getXSize() != samples[0].length || reader.getMaxValue() != maxValue){
+				return(false);
+			}
+			TypedImage image = new TypedImage(1, samples.length, samples[0].length, maxValue > 255 ? 2 : 1);
+			for(int y = 0; y < samples.length; y++){
+				reader.readRow(image, 0, y);
+			}
+			return(equals(image, samples));
+		}finally{
+			reader.close();
+		}
+	}
+
+	/**
+	 * @param image an image of one component
+	 * @param samples the samples (index are [y][x])
+	 * @return true if the image has the samples given
+	 */
+	static boolean equals(TypedImage image, int[][] samples){
+		if(image.getYSize() != samples.length || image.getXSize() != samples[0].length){
+			return(false);
+		}
+		double[] row = new double[samples[0].length];
+		for(int y = 0; y < samples.length; y++){
+			image.getRow(0, y, row);
+			for(int x = 0; x < row.length; x++){
+				if(row[x] != samples[y][x]){
+					return(false);
+				}
+			}
+		}
+		return(true);
+	}
+
+	/**
+	 * @param file an image file
+	 * @param rows number of rows read
+	 * @return true if the image cannot be opened or its rows cannot be read
+	 */
+	static boolean fails(String file, int rows){
+		try{
+			PGMReader reader = new PGMReader(file);
+			try{
+				TypedImage image = new TypedImage(1, reader.getYSize(), reader.getXSize(), reader.getMaxValue() > 255 ? 2 : 1);
+				for(int y = 0; y < rows; y++){
+					reader.readRow(image, 0, y);
+				}
+			}finally{
+				reader.close();
+			}
+		}catch(WarningException e){
+			return(true);
+		}
+		return(false);
+	}
+
+	/**
+	 * @param file a file
+	 * @param bytes the bytes written to the file
+	 *
+	 * @throws IOException when the file cannot be written
+	 */
+	static void writeFile(String file, byte[] bytes) throws IOException{
+		FileOutputStream fos = new FileOutputStream(file);
+		try{
+			fos.write(bytes);
+		}finally{
+			fos.close();
+		}
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile.jUnits;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import GiciAnalysis.*;
+import GiciException.*;
+import GiciFile.*;
+
+
+/**
+ * This class checks the BSQ, BIL and BIP layouts of raw files. An image is saved in each layout (see {@link SaveFile}), the bytes of the BIP file are compared with the ones expected, and each file is loaded back (whole, and some components and a window of them) and compared with the samples saved and with the other layouts (see {@link ImageEquality}). Images have more components and columns than a block of the transposition of BIP pixels, so that blocks of the edges are partial.
+ * <p>
+ * Usage: java GiciFile.jUnits.RawLayoutTest (exits with status 1 if some check fails).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class RawLayoutTest{
+
+	/**
+	 * Image sizes.
+	 */
+	static final int Z_SIZE = 37, Y_SIZE = 6, X_SIZE = 45;
+
+	/**
+	 * Sample types and byte orders tested (byte, char, short, float and double, big and little endian).
+	 */
+	static final int[][] TYPES = {{1, 0}, {2, 0}, {3, 1}, {6, 0}, {7, 1}};
+
+	/**
+	 * Layouts tested.
+	 */
+	static final int[] LAYOUTS = {RawImageReader.BSQ, RawImageReader.BIL, RawImageReader.BIP};
+
+	/**
+	 * Names of the layouts tested.
+	 */
+	static final String[] LAYOUT_NAMES = {"BSQ", "BIL", "BIP"};
+
+	/**
+	 * Components loaded when only some of them are loaded, in increasing order.
+	 */
+	static final int[] BANDS = {1, 2, 33, 35};
+
+	/**
+	 * Window loaded when only some components are loaded (xBegin, yBegin, width and height).
+	 */
+	static final int[] WINDOW = {3, 1, 35, 4};
+
+	/**
+	 * Number of checks done.
+	 */
+	static int checks = 0;
+
+	/**
+	 * Number of checks that fail.
+	 */
+	static int failures = 0;
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args unused
+	 *
+	 * @throws Exception when some file cannot be written or read
+	 */
+	public static void main(String[] args) throws Exception{
+		File directory = File.createTempFile("RawLayoutTest", "");
+		directory.delete();
+		directory.mkdir();
+
+		Random random = new Random(1);
+		for(int[] type: TYPES){
+			int sampleType = type[0];
+			int byteOrder = type[1];
+			float[][][] samples = new float[Z_SIZE][Y_SIZE][X_SIZE];
+			for(int z = 0; z < Z_SIZE; z++){
+				for(int y = 0; y < Y_SIZE; y++){
+					for(int x = 0; x < X_SIZE; x++){
+						switch(sampleType){
+						case 1:
+							samples[z][y][x] = random.nextInt(256);
+							break;
+						case 2:
+							samples[z][y][x] = random.nextInt(65536);
+							break;
+						case 3:
+							samples[z][y][x] = random.nextInt(65536) - 32768;
+							break;
+						default:
+							samples[z][y][x] = (random.nextFloat() - 0.5f) * 1000;
+						}
+					}
+				}
+			}
+			String name = "type " + sampleType + (byteOrder == 0 ? " big" : " little") + " endian";
+			String[] files = new String[LAYOUTS.length];
+			for(int layout = 0; layout < LAYOUTS.length; layout++){
+				files[layout] = new File(directory, "image" + layout + ".raw").getPath();
+				SaveFile.SaveFileRaw(samples, files[layout], sampleType, byteOrder, LAYOUTS[layout]);
+			}
+			check(Arrays.equals(readFile(files[2]), getBIPBytes(samples, sampleType, byteOrder)), name + ", BIP file: samples are not saved pixel by pixel");
+
+			TypedImage[] images = new TypedImage[LAYOUTS.length];
+			for(int layout = 0; layout < LAYOUTS.length; layout++){
+				String layoutName = name + ", " + LAYOUT_NAMES[layout] + " file";
+				images[layout] = new LoadFile(files[layout], Z_SIZE, Y_SIZE, X_SIZE, sampleType, byteOrder, LAYOUTS[layout], false, null, null).getTypedImage();
+				check(equals(images[layout], samples, null, null), layoutName + ": samples loaded are not the ones saved");
+				TypedImage part = new LoadFile(files[layout], Z_SIZE, Y_SIZE, X_SIZE, sampleType, byteOrder, LAYOUTS[layout], false, BANDS, WINDOW).getTypedImage();
+				check(equals(part, samples, BANDS, WINDOW), layoutName + ": the window of some components loaded is not the one saved");
+				check(new ImageEquality(images[0], images[layout], null).isEqual(), layoutName + ": loaded image differs from the BSQ one");
+			}
+
+			//Interleaved files are compared row by row
+			check(compare(files[1], RawImageReader.BIL, files[2], RawImageReader.BIP, sampleType, byteOrder, null) == null, name + ": BIL and BIP files differ row by row");
+			boolean rejected = false;
+			try{
+				compare(files[0], RawImageReader.BSQ, files[1], RawImageReader.BIL, sampleType, byteOrder, null);
+			}catch(WarningException e){
+				rejected = true;
+			}
+			check(rejected, name + ": BSQ and BIL files are compared row by row");
+
+			//A sample changed in the BIP file is located in the component, row and column of the image
+			int[] changed = {Z_SIZE - 2, Y_SIZE - 2, X_SIZE - 12};
+			samples[changed[0]][changed[1]][changed[2]] += 1;
+			SaveFile.SaveFileRaw(samples, files[2], sampleType, byteOrder, RawImageReader.BIP);
+			check(Arrays.equals(compare(files[1], RawImageReader.BIL, files[2], RawImageReader.BIP, sampleType, byteOrder, null), changed), name + ": a sample changed in the BIP file is not located");
+			check(Arrays.equals(compare(files[1], RawImageReader.BIL, files[2], RawImageReader.BIP, sampleType, byteOrder, BANDS), new int[]{changed[0], changed[1] - WINDOW[1], changed[2] - WINDOW[0]}), name + ": a sample changed in a window of the BIP file is not located");
+
+			for(String file: files){
+				new File(file).delete();
+			}
+		}
+
+		//Rows of different sample types are compared by their values
+		float[][][] samples = new float[Z_SIZE][Y_SIZE][X_SIZE];
+		for(int z = 0; z < Z_SIZE; z++){
+			for(int y = 0; y < Y_SIZE; y++){
+				for(int x = 0; x < X_SIZE; x++){
+					samples[z][y][x] = random.nextInt(65536) - 32768;
+				}
+			}
+		}
+		String bil = new File(directory, "shorts.raw").getPath();
+		String bip = new File(directory, "ints.raw").getPath();
+		SaveFile.SaveFileRaw(samples, bil, 3, 0, RawImageReader.BIL);
+		SaveFile.SaveFileRaw(samples, bip, 4, 1, RawImageReader.BIP);
+		RawImageReader reader1 = new RawImageReader(bil, Z_SIZE, Y_SIZE, X_SIZE, LoadFile.getClass(3), 0, RawImageReader.BIL, null, null);
+		RawImageReader reader2 = new RawImageReader(bip, Z_SIZE, Y_SIZE, X_SIZE, LoadFile.getClass(4), 1, RawImageReader.BIP, null, null);
+		check(new ImageEquality(reader1, reader2).isEqual(), "BIL file of shorts and BIP file of ints differ");
+		reader1.close();
+		reader2.close();
+		new File(bil).delete();
+		new File(bip).delete();
+		directory.delete();
+
+		System.out.println(checks + " checks done, " + failures + " failed.");
+		if(failures > 0){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Counts a check and reports it when it fails.
+	 *
+	 * @param passed result of the check
+	 * @param failure description of the failure
+	 */
+	static void check(boolean passed, String failure){
+		checks++;
+		if(!passed){
+			failures++;
+			System.out.println("Raw layouts: " + failure + ".");
+		}
+	}
+
+	/**
+	 * Checks that a loaded image has the samples of some components and a window of an image.
+	 *
+	 * @param image the loaded image
+	 * @param samples the image samples (index are [z][y][x])
+	 * @param bands components loaded (null if all of them)
+	 * @param window xBegin, yBegin, width and height of the window loaded (null if whole components)
+	 * @return true if the samples are the same
+	 */
+	static boolean equals(TypedImage image, float[][][] samples, int[] bands, int[] window){
+		int zSize = bands == null ? samples.length : bands.length;
+		int ySize = window == null ? samples[0].length : window[3];
+		int xSize = window == null ? samples[0][0].length : window[2];
+		if(image.getZSize() != zSize || image.getYSize() != ySize || image.getXSize() != xSize){
+			return(false);
+		}
+		double[] row = new double[xSize];
+		for(int z = 0; z < zSize; z++){
+			for(int y = 0; y < ySize; y++){
+				image.getRow(z, y, row);
+				for(int x = 0; x < xSize; x++){
+					float sample = samples[bands == null ? z : bands[z]][window == null ? y : window[1] + y][window == null ? x : window[0] + x];
+					if(row[x] != sample){
+						return(false);
+					}
+				}
+			}
+		}
+		return(true);
+	}
+
+	/**
+	 * Compares two raw files row by row.
+	 *
+	 * @param file1 the first file
+	 * @param layout1 layout of the first file
+	 * @param file2 the second file
+	 * @param layout2 layout of the second file
+	 * @param sampleType sample type of both files
+	 * @param byteOrder byte order of both files
+	 * @param bands components compared (null to compare whole files; otherwise, only the window of the test is compared)
+	 * @return the first sample that differs (see {@link ImageEquality#getDifference}), or null if the files are equal
+	 *
+	 * @throws WarningException when the files cannot be read or cannot be compared row by row
+	 */
+	static int[] compare(String file1, int layout1, String file2, int layout2, int sampleType, int byteOrder, int[] bands) throws WarningException{
+		int[] window = bands == null ? null : WINDOW;
+		RawImageReader reader1 = new RawImageReader(file1, Z_SIZE, Y_SIZE, X_SIZE, LoadFile.getClass(sampleType), byteOrder, layout1, bands, window);
+		RawImageReader reader2 = new RawImageReader(file2, Z_SIZE, Y_SIZE, X_SIZE, LoadFile.getClass(sampleType), byteOrder, layout2, bands, window);
+		try{
+			return(new ImageEquality(reader1, reader2).getDifference());
+		}finally{
+			reader1.close();
+			reader2.close();
+		}
+	}
+
+	/**
+	 * @param samples the image samples (index are [z][y][x])
+	 * @param sampleType sample type of the file
+	 * @param byteOrder byte order of the file
+	 * @return the bytes of a BIP file of the samples (the components of the first pixel, then the ones of the second pixel, and so on)
+	 */
+	static byte[] getBIPBytes(float[][][] samples, int sampleType, int byteOrder){
+		int sampleBytes = RawImageReader.getSampleBytes(sampleType);
+		ByteBuffer bytes = ByteBuffer.allocate(samples.length * samples[0].length * samples[0][0].length * sampleBytes);
+		bytes.order(byteOrder == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		for(int y = 0; y < samples[0].length; y++){
+			for(int x = 0; x < samples[0][0].length; x++){
+				for(int z = 0; z < samples.length; z++){
+					switch(sampleType){
+					case 1:
+						bytes.put((byte) samples[z][y][x]);
+						break;
+					case 2:
+						bytes.putChar((char) samples[z][y][x]);
+						break;
+					case 3:
+						bytes.putShort((short) samples[z][y][x]);
+						break;
+					case 6:
+						bytes.putFloat(samples[z][y][x]);
+						break;
+					default:
+						bytes.putDouble(samples[z][y][x]);
+					}
+				}
+			}
+		}
+		return(bytes.array());
+	}
+
+	/**
+	 * @param file a file
+	 * @return its bytes
+	 *
+	 * @throws IOException when the file cannot be read
+	 */
+	static byte[] readFile(String file) throws IOException{
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		try{
+			byte[] bytes = new byte[(int) new File(file).length()];
+			dis.readFully(bytes);
+			return(bytes);
+		}finally{
+			dis.close();
+		}
+	}
+}
@@ -1,12 +1,26 @@
 package GiciMask;
 
 //import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import GiciException.*;
+import GiciFile.TypedImage;
 
 /**
  * Main class of GenerateMask application. This class allows to load a text file from disk
  * that specifies the no-data values in an image and generates a boolean mask to apply the
- * Shape-Adaptive Wavelet Transform and later a dedicated Bit Plane Encoding Method.
+ * Shape-Adaptive Wavelet Transform and later a dedicated Bit Plane Encoding Method.<br>
+ * No-data values are looked up by the bit pattern of their double value in a sorted table, so NaN and
+ * infinite values can be no-data values too (all NaNs are the same no-data value, and so are +0 and -0).
+ * Samples are matched at full precision; in float images a non integer no-data value matches its nearest
+ * float, so that a decimal value like 0.1 matches the samples of both double and float images (and, in
+ * double images, only the samples equal to the double value).
+ * The mask is generated packed in bits, either from a whole image or row by row while an image is read.
  *
  * @author Group on Interactive Coding of Images (GICI)
  * @version 1.0
@@ -26,10 +40,31 @@ public class GenerateMask {
 	 * <p>
 	 * Only real numbers are allowed.
 	 */
-	protected float[] noDataValues = null;
+	protected double[] noDataValues = null;
 	
 	/**
-	 * Array that contains the mask for the image.
+	 * Keys of the no-data values (see {@link #getKey}), sorted.
+	 * <p>
+	 * All values allowed.
+	 */
+	protected long[] noDataKeys = null;
+
+	/**
+	 * Indicates whether the samples of the image are floats, whose no-data values are rounded to the nearest float.
+	 * <p>
+	 * True for float samples (type 6), otherwise false.
+	 */
+	protected boolean floatSamples = false;
+
+	/**
+	 * Mask for the image packed in bits.
+	 * <p>
+	 * A set bit marks a valid sample.
+	 */
+	protected BitMask bitMask = null;
+
+	/**
+	 * Array that contains the mask for the image (unpacked from bitMask when it is asked for).
 	 * <p>
 	 * Only boolean values are allowed.
 	 */
@@ -41,6 +76,20 @@ public class GenerateMask {
 	 * This values has to be understood as an image samples.
 	 */
 	protected float[][][] imageSamples = null;
+
+	/**
+	 * Samples of the image with their own type (used instead of imageSamples when it is not null).
+	 * <p>
+	 * This values has to be understood as an image samples.
+	 */
+	protected TypedImage image = null;
+
+	/**
+	 * Image dimensions.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	protected int zSize, ySize, xSize;
 	
 	
 	/**
@@ -57,6 +106,53 @@ public class GenerateMask {
 		}
 		//Sets the attributes
 		this.imageSamples = imageSamples;
+		floatSamples = true;
+		zSize = imageSamples.length;
+		ySize = imageSamples[0].length;
+		xSize = imageSamples[0][0].length;
+	}
+
+	/**
+	 * Constructor of the class for an image whose samples keep their own type.
+	 * 
+	 * @param image the input image to find the no-data values.
+	 * 
+	 * @throws WarningException if the input image is null.
+	 */	
+	public GenerateMask(TypedImage image) throws WarningException{
+		//Ensures the validity of the parameters
+		if(image == null){
+			throw new WarningException("The mask can not be generated.");
+		}
+		//Sets the attributes
+		this.image = image;
+		floatSamples = image.getType() == 6;
+		zSize = image.getZSize();
+		ySize = image.getYSize();
+		xSize = image.getXSize();
+	}
+
+	/**
+	 * Constructor of the class for an image that is not kept in memory. The mask is generated row by row with generateRow while the image is read (for instance, while it is compared), so the image is read only once.
+	 * 
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param type sample type of the image as returned by {@link GiciFile.LoadFile#getType}
+	 * 
+	 * @throws WarningException if the sizes are not valid.
+	 */	
+	public GenerateMask(int zSize, int ySize, int xSize, int type) throws WarningException{
+		//Ensures the validity of the parameters
+		if(zSize <= 0 || ySize <= 0 || xSize <= 0){
+			throw new WarningException("The mask can not be generated.");
+		}
+		//Sets the attributes
+		this.zSize = zSize;
+		this.ySize = ySize;
+		this.xSize = xSize;
+		floatSamples = type == 6;
+		bitMask = new BitMask(zSize, ySize, xSize);
 	}
 	
 	/**
@@ -71,16 +167,89 @@ public class GenerateMask {
 	/**
 	 * Takes the no-data values from a string array taken from the application parser line.
 	 * 
-	 * @param noDataValues no-data values in float format
+	 * @param noDataValues no-data values in float format (NaN and infinite values allowed)
 	 */	
 	public void setNoDataValuesFromParser(float[] noDataValues){
+		double[] values = new double[noDataValues.length];
+		for(int nd = 0; nd < noDataValues.length; nd++){
+			values[nd] = noDataValues[nd];
+		}
+		setNoDataValuesFromParser(values);
+	}
+
+	/**
+	 * Takes the no-data values from a double array taken from the application parser line.
+	 * 
+	 * @param noDataValues no-data values in double format (NaN and infinite values allowed)
+	 */	
+	public void setNoDataValuesFromParser(double[] noDataValues){
 		setNoDataValues = true;
 		this.noDataValues = noDataValues;
-		//noDataValues = new float[noDataString.length];
-		
-		//for(int i = 0; i < noDataString.length; i++){
-			//noDataValues[i] = Float.parseFloat(noDataString[i]);
-		//}
+		long[] keys = new long[noDataValues.length];
+		for(int nd = 0; nd < noDataValues.length; nd++){
+			//Float samples hold the nearest float to a decimal value
+			keys[nd] = getKey(floatSamples ? (double) (float) noDataValues[nd] : noDataValues[nd]);
+		}
+		Arrays.sort(keys);
+		//Repeated keys are removed, so that a single no-data value is compared directly
+		int keyCount = 0;
+		for(int key = 0; key < keys.length; key++){
+			if(key == 0 || keys[key] != keys[key - 1]){
+				keys[keyCount++] = keys[key];
+			}
+		}
+		noDataKeys = Arrays.copyOf(keys, keyCount);
+	}
+
+	/**
+	 * @param value a sample or a no-data value
+	 * @return the bit pattern of the value, the same for all NaNs and for +0 and -0
+	 */
+	private static long getKey(double value){
+		return(Double.doubleToLongBits(value == 0 ? 0D : value));
+	}
+
+	/**
+	 * @param value a sample
+	 * @return true if the sample is a no-data value
+	 */
+	private boolean isNoData(double value){
+		long key = getKey(value);
+		if(noDataKeys.length == 1){
+			return(key == noDataKeys[0]);
+		}
+		return(Arrays.binarySearch(noDataKeys, key) >= 0);
+	}
+
+	/**
+	 * Generates the mask of a row.
+	 * 
+	 * @param row the samples of the row
+	 * @param xSize width of the row
+	 * @param rowWords an array of (at least) {@link BitMask#getWordCount} words where the mask of the row is stored (a set bit marks a valid sample)
+	 */
+	public void getRowWords(double[] row, int xSize, long[] rowWords){
+		for(int word = 0, x = 0; x < xSize; word++){
+			long bits = 0;
+			int end = Math.min(x + 64, xSize);
+			for(int bit = 0; x < end; x++, bit++){
+				if(!isNoData(row[x])){
+					bits |= 1L << bit;
+				}
+			}
+			rowWords[word] = bits;
+		}
+	}
+
+	/**
+	 * Generates the mask of a row of the image, when the mask is generated row by row. Different rows can be generated at the same time from different threads.
+	 * 
+	 * @param z the component of the row
+	 * @param y the row
+	 * @param row the samples of the row
+	 */
+	public void generateRow(int z, int y, double[] row){
+		getRowWords(row, xSize, bitMask.words[z][y]);
 	}
 	
 	/**
@@ -89,29 +258,88 @@ public class GenerateMask {
 	 * @throws WarningException if the no-data values array is not set.
 	 */	
 	public void run() throws WarningException{
+		run(1);
+	}
+
+	/**
+	 * Finds the no-data values in the input image and generates a boolean mask. Each component is generated in a different thread.
+	 * 
+	 * @param threads number of threads (when it is 1 or lower no thread is created)
+	 * 
+	 * @throws WarningException if the no-data values array is not set or there is no image.
+	 */	
+	public void run(int threads) throws WarningException{
 		if(!setNoDataValues){
 			throw new WarningException("The no-data values are not set.");
 		}
-		//Image dimensions
-		int zSize = imageSamples.length;
-		int ySize = imageSamples[0].length;
-		int xSize = imageSamples[0][0].length;
+		if(image == null && imageSamples == null){
+			throw new WarningException("The mask is generated row by row.");
+		}
 		
 		//Memory allocation
-		maskSamples = new byte[zSize][ySize][xSize];
+		bitMask = new BitMask(zSize, ySize, xSize);
+		maskSamples = null;
 		
 		//Raster the image to set the no-data values
-		for(int z = 0; z < zSize; z++){
-		for(int y = 0; y < ySize; y++){
-		for(int x = 0; x < xSize; x++){
-			maskSamples[z][y][x] = 1;
-			for(int nd = 0; nd < noDataValues.length; nd++){
-				if(imageSamples[z][y][x] == noDataValues[nd]){
-					maskSamples[z][y][x] = 0;
-					nd = noDataValues.length;
+		if(threads <= 1 || zSize == 1){
+			for(int z = 0; z < zSize; z++){
+				new ComponentMask(z).run();
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, zSize));
+		try{
+			List<FutureTask<Object>> components = new ArrayList<FutureTask<Object>>();
+			for(int z = 0; z < zSize; z++){
+				FutureTask<Object> task = new FutureTask<Object>(new ComponentMask(z), null);
+				executor.execute(task);
+				components.add(task);
+			}
+			for(FutureTask<Object> task: components){
+				try{
+					task.get();
+				}catch(InterruptedException e){
+					throw new WarningException("Mask generation interrupted.");
+				}catch(ExecutionException e){
+					if(e.getCause() instanceof RuntimeException){
+						throw (RuntimeException) e.getCause();
+					}
+					throw new WarningException("Mask generation failed: " + e.getCause());
 				}
 			}
-		}}}
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Generates the mask of a component of the input image.
+	 */
+	private class ComponentMask implements Runnable{
+
+		/**
+		 * The component.
+		 */
+		int z;
+
+		ComponentMask(int z){
+			this.z = z;
+		}
+
+		public void run(){
+			//Samples are compared without losing precision
+			double[] row = new double[xSize];
+			for(int y = 0; y < ySize; y++){
+				if(image != null){
+					image.getRow(z, y, row);
+				}else{
+					for(int x = 0; x < xSize; x++){
+						row[x] = imageSamples[z][y][x];
+					}
+				}
+				generateRow(z, y, row);
+			}
+		}
 	}
 	
 	/**
@@ -120,20 +348,27 @@ public class GenerateMask {
 	 * @return the generated mask with the no-data values.
 	 */	
 	public byte[][][] getMaskSamplesByte(){
+		if(maskSamples == null && bitMask != null){
+			maskSamples = bitMask.toBytes();
+		}
 		return(maskSamples);
 	}
 	
+	/**
+	 * Returns the mask generated by the run method (or row by row) packed in bits.
+	 * 
+	 * @return the generated mask with the no-data values.
+	 */	
+	public BitMask getBitMask(){
+		return(bitMask);
+	}
+	
 	/**
 	 * Returns the mask generated by the run method in boolean format.
 	 * 
 	 * @return the generated mask with the no-data values.
 	 */	
 	public boolean[][][] getMaskSamplesBoolean(){
-		//Image dimensions
-		int zSize = imageSamples.length;
-		int ySize = imageSamples[0].length;
-		int xSize = imageSamples[0][0].length;
-		
 		//Memory allocation
 		boolean[][][] maskSamplesBoolean = new boolean[zSize][ySize][xSize];
 		
@@ -141,11 +376,7 @@ public class GenerateMask {
 		for(int z = 0; z < zSize; z++){
 		for(int y = 0; y < ySize; y++){
 		for(int x = 0; x < xSize; x++){
-			if(maskSamples[z][y][x] == 0){
-				maskSamplesBoolean[z][y][x] = false;
-			}else{
-				maskSamplesBoolean[z][y][x] = true;
-			}			
+			maskSamplesBoolean[z][y][x] = bitMask.isValid(z, y, x);
 		}}}
 		
 		return(maskSamplesBoolean);
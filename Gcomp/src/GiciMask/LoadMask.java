@@ -125,6 +125,30 @@ public class LoadMask{
 		return(maskSamplesByte);
 	}
 
+	/**
+	 * Returns the mask packed in bits (samples different from 0 are valid).
+	 *
+	 */
+	public BitMask getBitMask(){
+		int zSize = maskSamplesFloat.length;
+		int ySize = maskSamplesFloat[0].length;
+		int xSize = maskSamplesFloat[0][0].length;
+		BitMask bitMask = new BitMask(zSize, ySize, xSize);
+		
+		for(int z = 0; z < zSize; z++){
+			for(int y = 0; y < ySize; y++){
+				long[] rowWords = bitMask.getWords(z)[y];
+				for(int x = 0; x < xSize; x++){
+					if(maskSamplesFloat[z][y][x] != 0){
+						rowWords[x >>> 6] |= 1L << x;
+					}
+				}
+			}
+		}
+		
+		return(bitMask);
+	}
+
 	/**
 	 * Returns the mask in a byte structure.
 	 *